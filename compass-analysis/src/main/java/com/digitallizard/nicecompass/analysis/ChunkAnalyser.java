@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.analysis;
+
+import com.digitallizard.nicecompass.CompassPipeline;
+import com.digitallizard.nicecompass.OrientationSnapshot;
+import com.digitallizard.nicecompass.SensorSourceSelector;
+import com.digitallizard.nicecompass.SensorTraceReader;
+import com.digitallizard.nicecompass.SensorTraceReplayer;
+
+/**
+ * Runs events through a pipeline and measures the headings it publishes.
+ * Until recording starts the events only warm the pipeline's filters up.
+ */
+class ChunkAnalyser implements SensorTraceReader.Handler {
+	private static final float SETTLED_DISTANCE = 2f; // degrees either side
+	private static final long SETTLED_NANOS = 1000000000L; // how long the heading must stay there
+	private static final int MAX_PENDING = 256; // predictions waiting for the heading to reach their time
+	private static final float FAST_TURN = 30f; // degrees per second, slower turns are not measured
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private final CompassPipeline pipeline;
+	private final SensorTraceReplayer replayer;
+	private final TraceStatistics statistics;
+	private final boolean measureSettling;
+	private boolean recording;
+	private boolean hasHeading;
+	private float previousHeading;
+	private long settleStart; // the first event of the trace
+	private float anchorHeading; // the heading the current settled stretch started at
+	private long anchorTimestamp;
+	private long previousFieldTimestamp = -1;
+	private int previousStatus;
+	// predictions are checked against the heading once it reaches the time they were made for
+	private final long latency; // nanoseconds, 0 to skip
+	private final OrientationSnapshot snapshot;
+	private final long[] pendingTime;
+	private final float[] pendingLagged;
+	private final float[] pendingPredicted;
+	private int pendingFirst;
+	private int pendingCount;
+	private long previousHeadingTimestamp;
+	
+	/** the signed difference between two bearings, in the range -180 < x <= 180 **/
+	private static float bearingDifference(float to, float from) {
+		float difference = (to - from) % 360;
+		if(difference > 180) {
+			difference -= 360;
+		} else if(difference <= -180) {
+			difference += 360;
+		}
+		return difference;
+	}
+	
+	private void measureHeading(long timestamp) {
+		// magnetic, so a location fix arriving does not look like a turn
+		float heading = pipeline.getBearing(false);
+		statistics.addHeading(heading);
+		if(hasHeading) {
+			statistics.addStep(bearingDifference(heading, previousHeading));
+		}
+		if(measureSettling && statistics.settleNanos < 0) {
+			if(!hasHeading || Math.abs(bearingDifference(heading, anchorHeading)) > SETTLED_DISTANCE) {
+				anchorHeading = heading;
+				anchorTimestamp = timestamp;
+			} else if(timestamp - anchorTimestamp >= SETTLED_NANOS) {
+				statistics.settleNanos = anchorTimestamp - settleStart;
+			}
+		}
+		previousHeading = heading;
+		hasHeading = true;
+	}
+	
+	private void measurePrediction(float heading, long timestamp) {
+		// check the predictions made for a time between the previous heading and this one
+		while(pendingCount > 0 && pendingTime[pendingFirst] <= timestamp) {
+			long target = pendingTime[pendingFirst];
+			if(target >= previousHeadingTimestamp && timestamp > previousHeadingTimestamp) {
+				float fraction = (float)(target - previousHeadingTimestamp) / (timestamp - previousHeadingTimestamp);
+				float actual = previousHeading + fraction * bearingDifference(heading, previousHeading);
+				float lagError = bearingDifference(actual, pendingLagged[pendingFirst]);
+				if(Math.abs(lagError) * NANOS_PER_SECOND / latency >= FAST_TURN) {
+					statistics.addPrediction(lagError, bearingDifference(actual, pendingPredicted[pendingFirst]));
+				}
+			}
+			pendingFirst = (pendingFirst + 1) % MAX_PENDING;
+			pendingCount--;
+		}
+		// and predict from this one, as the surface would for a frame appearing latency later
+		pipeline.readSnapshot(snapshot);
+		if(pendingCount < MAX_PENDING) {
+			int index = (pendingFirst + pendingCount) % MAX_PENDING;
+			pendingTime[index] = timestamp + latency;
+			pendingLagged[index] = heading;
+			pendingPredicted[index] = snapshot.getPredictedBearing(false, timestamp + latency);
+			pendingCount++;
+		}
+	}
+	
+	private void measureField(long timestamp) {
+		// each magnetometer event's status holds until the next one
+		if(previousFieldTimestamp >= 0 && timestamp > previousFieldTimestamp) {
+			long covered = timestamp - previousFieldTimestamp;
+			statistics.fieldNanos += covered;
+			if(previousStatus == CompassPipeline.STATUS_INTERFERENCE) {
+				statistics.interferenceNanos += covered;
+			}
+		}
+		int status = pipeline.getStatus();
+		if(previousFieldTimestamp >= 0
+				&& (status == CompassPipeline.STATUS_INTERFERENCE) != (previousStatus == CompassPipeline.STATUS_INTERFERENCE)) {
+			statistics.interferenceChanges++;
+		}
+		previousFieldTimestamp = timestamp;
+		previousStatus = status;
+	}
+	
+	public void onSensor(int type, float[] values, int count, long timestamp) {
+		boolean changed = pipeline.onSensorChanged(type, values, count, timestamp);
+		if(!recording) {
+			return;
+		}
+		if(statistics.events == 0) {
+			settleStart = timestamp;
+		}
+		statistics.addEvent(timestamp);
+		if(SensorSourceSelector.isMagneticField(type)) {
+			measureField(timestamp);
+		}
+		if(changed) {
+			if(latency > 0) {
+				// before measureHeading moves previousHeading on
+				measurePrediction(pipeline.getBearing(false), timestamp);
+				previousHeadingTimestamp = timestamp;
+			}
+			measureHeading(timestamp);
+		}
+	}
+	
+	public void onLocation(long timestamp, double latitude, double longitude, double altitude, long time,
+			float declination, float fieldStrength, float inclination) {
+		replayer.onLocation(timestamp, latitude, longitude, altitude, time, declination, fieldStrength, inclination);
+		if(recording) {
+			statistics.addEvent(timestamp);
+		}
+	}
+	
+	void startRecording() {
+		recording = true;
+	}
+	
+	TraceStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Only the chunk at the start of a file can tell how long the heading took to settle.
+	 * latency is how long a reading takes to reach the screen, in nanoseconds, 0 skips measuring prediction.
+	 */
+	ChunkAnalyser(CompassPipeline pipeline, boolean measureSettling, long latency) {
+		this.pipeline = pipeline;
+		this.measureSettling = measureSettling;
+		this.latency = latency;
+		snapshot = new OrientationSnapshot();
+		pendingTime = new long[MAX_PENDING];
+		pendingLagged = new float[MAX_PENDING];
+		pendingPredicted = new float[MAX_PENDING];
+		replayer = new SensorTraceReplayer(pipeline, false);
+		statistics = new TraceStatistics();
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.analysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.RecursiveTask;
+
+import com.digitallizard.nicecompass.AccelMagEngine;
+import com.digitallizard.nicecompass.CompassPipeline;
+import com.digitallizard.nicecompass.ComplementaryFilterEngine;
+import com.digitallizard.nicecompass.HeadingSmoother;
+import com.digitallizard.nicecompass.KalmanFilterEngine;
+import com.digitallizard.nicecompass.OrientationEngine;
+import com.digitallizard.nicecompass.RotationVectorEngine;
+import com.digitallizard.nicecompass.SensorPrefilter;
+import com.digitallizard.nicecompass.SensorTraceReader;
+
+/**
+ * Analyses a range of a trace's blocks, splitting it in half until the pieces are a chunk long.
+ * Every chunk gets a pipeline of its own, warmed up on the blocks just before it,
+ * so chunks share nothing but the read only mapping and scale with the number of cores.
+ */
+class ChunkTask extends RecursiveTask<TraceStatistics> {
+	private static final long serialVersionUID = 1L;
+	
+	static final int CHUNK_BLOCKS = 8; // a few minutes of events
+	static final int WARMUP_BLOCKS = 1; // long enough for any filter to forget where it started
+	
+	private final SensorTraceReader reader;
+	private final String engineName;
+	private final boolean prefilter;
+	private final String smoothing;
+	private final long latency;
+	private final int first;
+	private final int end;
+	
+	static OrientationEngine createEngine(String name) {
+		if(name.equals("accelmag")) {
+			return new AccelMagEngine();
+		} else if(name.equals("complementary")) {
+			return new ComplementaryFilterEngine();
+		} else if(name.equals("kalman")) {
+			return new KalmanFilterEngine();
+		} else if(name.equals("rotationvector")) {
+			return new RotationVectorEngine();
+		}
+		throw new IllegalArgumentException("unknown engine " + name);
+	}
+	
+	/** null for off **/
+	static HeadingSmoother createSmoother(String name) {
+		if(name.equals("off")) {
+			return null;
+		} else if(name.equals("responsive")) {
+			return HeadingSmoother.create(HeadingSmoother.PRESET_RESPONSIVE);
+		} else if(name.equals("balanced")) {
+			return HeadingSmoother.create(HeadingSmoother.PRESET_BALANCED);
+		} else if(name.equals("smooth")) {
+			return HeadingSmoother.create(HeadingSmoother.PRESET_SMOOTH);
+		}
+		throw new IllegalArgumentException("unknown smoothing " + name);
+	}
+	
+	private TraceStatistics analyse() throws IOException {
+		CompassPipeline pipeline = new CompassPipeline(createEngine(engineName));
+		if(prefilter) {
+			// the same filters as the app
+			pipeline.setPrefilters(SensorPrefilter.createAccelerometerFilter(), SensorPrefilter.createMagnetometerFilter());
+		}
+		pipeline.setHeadingSmoother(createSmoother(smoothing));
+		ChunkAnalyser analyser = new ChunkAnalyser(pipeline, first == 0, latency);
+		int warmup = Math.max(0, first - WARMUP_BLOCKS);
+		reader.readBlocks(warmup, first, analyser);
+		analyser.startRecording();
+		reader.readBlocks(first, end, analyser);
+		return analyser.getStatistics();
+	}
+	
+	@Override
+	protected TraceStatistics compute() {
+		if(end - first <= CHUNK_BLOCKS) {
+			try {
+				return analyse();
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		int middle = (first + end) >>> 1;
+		ChunkTask left = new ChunkTask(reader, engineName, prefilter, smoothing, latency, first, middle);
+		ChunkTask right = new ChunkTask(reader, engineName, prefilter, smoothing, latency, middle, end);
+		left.fork();
+		TraceStatistics statistics = right.compute();
+		// the left half comes first in the file, so merge it first
+		TraceStatistics leftStatistics = left.join();
+		leftStatistics.merge(statistics);
+		return leftStatistics;
+	}
+	
+	ChunkTask(SensorTraceReader reader, String engineName, boolean prefilter, String smoothing, long latency,
+			int first, int end) {
+		this.reader = reader;
+		this.engineName = engineName;
+		this.prefilter = prefilter;
+		this.smoothing = smoothing;
+		this.latency = latency;
+		this.first = first;
+		this.end = end;
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.digitallizard.nicecompass.SensorTraceReader;
+
+/**
+ * Runs sensor traces through the compass pipeline and prints a summary line per file.
+ * Files, and the chunks of large files, are analysed in parallel on a fork/join pool.
+ * <pre>
+ * usage: TraceAnalysis [--engine accelmag|complementary|kalman|rotationvector] [--prefilter]
+ *                      [--smoothing off|responsive|balanced|smooth] [--latency ms] [--threads n] trace...
+ * </pre>
+ */
+public class TraceAnalysis {
+	private static final String DEFAULT_ENGINE = "complementary";
+	private static final String DEFAULT_SMOOTHING = "off";
+	
+	private static void usage(PrintStream out) {
+		out.println("usage: TraceAnalysis [--engine accelmag|complementary|kalman|rotationvector] [--prefilter]"
+				+ " [--smoothing off|responsive|balanced|smooth] [--latency ms] [--threads n] trace...");
+	}
+	
+	private static String format(double value) {
+		return Double.isNaN(value) ? "-" : String.format(Locale.ROOT, "%.4f", value);
+	}
+	
+	public static void main(String[] args) throws IOException {
+		String engine = DEFAULT_ENGINE;
+		boolean prefilter = false; // off by default so a trace can be compared with and without
+		String smoothing = DEFAULT_SMOOTHING;
+		long latency = 0; // nanoseconds from a reading to the screen, 0 skips the prediction columns
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<File> files = new ArrayList<File>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("--engine") && i + 1 < args.length) {
+				engine = args[++i];
+			} else if(args[i].equals("--smoothing") && i + 1 < args.length) {
+				smoothing = args[++i];
+			} else if(args[i].equals("--latency") && i + 1 < args.length) {
+				latency = (long)(Double.parseDouble(args[++i]) * 1000000);
+			} else if(args[i].equals("--prefilter")) {
+				prefilter = true;
+			} else if(args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if(args[i].startsWith("--")) {
+				usage(System.err);
+				System.exit(2);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+		if(files.isEmpty()) {
+			usage(System.err);
+			System.exit(2);
+		}
+		ChunkTask.createEngine(engine); // fail on a bad name before any work starts
+		ChunkTask.createSmoother(smoothing);
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<SensorTraceReader> readers = new ArrayList<SensorTraceReader>();
+		List<File> opened = new ArrayList<File>();
+		List<ForkJoinTask<TraceStatistics>> tasks = new ArrayList<ForkJoinTask<TraceStatistics>>();
+		boolean failed = false; // a bad file is reported and skipped, the rest of the batch still runs
+		try {
+			// submit everything first, so small files fill the gaps between chunks of large ones
+			for(File file : files) {
+				SensorTraceReader reader;
+				try {
+					reader = new SensorTraceReader(file);
+				} catch(IOException e) {
+					System.err.println(file + ": " + e.getMessage());
+					failed = true;
+					continue;
+				}
+				readers.add(reader);
+				opened.add(file);
+				tasks.add(pool.submit(new ChunkTask(reader, engine, prefilter, smoothing, latency, 0, reader.getBlockCount())));
+			}
+			System.out.println("file\tevents\tseconds\theading_variance\theading_deviation_deg\tjitter_deg\tsettle_s\tinterference_duty\tinterference_changes\tlag_error_deg\tpredicted_error_deg");
+			for(int i = 0; i < opened.size(); i++) {
+				TraceStatistics statistics;
+				try {
+					statistics = tasks.get(i).join();
+				} catch(UncheckedIOException e) {
+					System.err.println(opened.get(i) + ": " + e.getCause().getMessage());
+					failed = true;
+					continue;
+				} catch(RuntimeException e) {
+					// e.g. a corrupt trace that decodes to values the pipeline cannot take
+					System.err.println(opened.get(i) + ": " + e);
+					failed = true;
+					continue;
+				}
+				System.out.println(opened.get(i) + "\t" + statistics.events + "\t" + format(statistics.getDurationSeconds())
+						+ "\t" + format(statistics.getHeadingVariance()) + "\t" + format(statistics.getHeadingDeviation())
+						+ "\t" + format(statistics.getJitter()) + "\t" + format(statistics.getSettleSeconds())
+						+ "\t" + format(statistics.getInterferenceDutyCycle()) + "\t" + statistics.interferenceChanges
+						+ "\t" + format(statistics.getLagError()) + "\t" + format(statistics.getPredictedError()));
+			}
+		} finally {
+			pool.shutdown();
+			for(SensorTraceReader reader : readers) {
+				reader.close();
+			}
+		}
+		if(failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.analysis;
+
+/**
+ * What one stretch of a trace did to the heading.
+ * Everything is kept as sums, so the statistics of neighbouring chunks merge into those of the whole file.
+ */
+class TraceStatistics {
+	private static final double RADIANS_PER_DEGREE = Math.PI / 180;
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	long events;
+	long firstTimestamp = Long.MAX_VALUE;
+	long lastTimestamp = Long.MIN_VALUE;
+	// headings as unit vectors, for the circular mean and variance
+	long headings;
+	double sumSin;
+	double sumCos;
+	// the change between consecutive headings, for the jitter
+	long steps;
+	double sumSquaredStep;
+	// -1 until the heading has settled, only measured from the start of a file
+	long settleNanos = -1;
+	long fieldNanos; // time covered by magnetometer events
+	long interferenceNanos; // the part of it spent with the interference status
+	long interferenceChanges; // times the status went into or out of interference
+	// during fast turns, how far the heading moved while a frame was on its way to the screen
+	long predictions;
+	double sumSquaredLagError; // showing the reading as it was
+	double sumSquaredPredictedError; // showing it extrapolated to when the frame appears
+	
+	void addEvent(long timestamp) {
+		events++;
+		firstTimestamp = Math.min(firstTimestamp, timestamp);
+		lastTimestamp = Math.max(lastTimestamp, timestamp);
+	}
+	
+	void addHeading(float degrees) {
+		double radians = degrees * RADIANS_PER_DEGREE;
+		headings++;
+		sumSin += Math.sin(radians);
+		sumCos += Math.cos(radians);
+	}
+	
+	void addStep(float degrees) {
+		steps++;
+		sumSquaredStep += degrees * degrees;
+	}
+	
+	void addPrediction(float lagError, float predictedError) {
+		predictions++;
+		sumSquaredLagError += lagError * lagError;
+		sumSquaredPredictedError += predictedError * predictedError;
+	}
+	
+	void merge(TraceStatistics other) {
+		events += other.events;
+		firstTimestamp = Math.min(firstTimestamp, other.firstTimestamp);
+		lastTimestamp = Math.max(lastTimestamp, other.lastTimestamp);
+		headings += other.headings;
+		sumSin += other.sumSin;
+		sumCos += other.sumCos;
+		steps += other.steps;
+		sumSquaredStep += other.sumSquaredStep;
+		if(settleNanos < 0) {
+			settleNanos = other.settleNanos;
+		}
+		fieldNanos += other.fieldNanos;
+		interferenceNanos += other.interferenceNanos;
+		interferenceChanges += other.interferenceChanges;
+		predictions += other.predictions;
+		sumSquaredLagError += other.sumSquaredLagError;
+		sumSquaredPredictedError += other.sumSquaredPredictedError;
+	}
+	
+	double getDurationSeconds() {
+		return (events > 0) ? (lastTimestamp - firstTimestamp) / NANOS_PER_SECOND : 0;
+	}
+	
+	/** 1 - the mean resultant length, 0 if the heading never moved and 1 if it was spread evenly **/
+	double getHeadingVariance() {
+		if(headings == 0) {
+			return Double.NaN;
+		}
+		return 1 - Math.hypot(sumSin, sumCos) / headings;
+	}
+	
+	/** the circular standard deviation, in degrees **/
+	double getHeadingDeviation() {
+		if(headings == 0) {
+			return Double.NaN;
+		}
+		double resultant = Math.hypot(sumSin, sumCos) / headings;
+		return Math.sqrt(-2 * Math.log(resultant)) / RADIANS_PER_DEGREE;
+	}
+	
+	/** the root mean square change between consecutive headings, in degrees **/
+	double getJitter() {
+		return (steps > 0) ? Math.sqrt(sumSquaredStep / steps) : Double.NaN;
+	}
+	
+	double getSettleSeconds() {
+		return (settleNanos >= 0) ? settleNanos / NANOS_PER_SECOND : Double.NaN;
+	}
+	
+	/** the root mean square error, in degrees, of showing each reading unchanged during fast turns **/
+	double getLagError() {
+		return (predictions > 0) ? Math.sqrt(sumSquaredLagError / predictions) : Double.NaN;
+	}
+	
+	/** the same for the extrapolated reading **/
+	double getPredictedError() {
+		return (predictions > 0) ? Math.sqrt(sumSquaredPredictedError / predictions) : Double.NaN;
+	}
+	
+	/** the fraction of the time the magnetometer was reporting interference **/
+	double getInterferenceDutyCycle() {
+		return (fieldNanos > 0) ? (double)interferenceNanos / fieldNanos : Double.NaN;
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+
+import com.digitallizard.nicecompass.OrientationSnapshot;
+import com.digitallizard.nicecompass.OrientationState;
+
+/**
+ * Reading the bearing back out of the published state, alone and with a sensor thread writing to it.
+ * The monitor variants guard the same fields with synchronized, as CompassManager used to, so the two
+ * contended groups show what the lock free read saves when a writer is busy.
+ * The state is shared per group, so the uncontended reads each get a group of their own.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BearingBenchmark {
+	private OrientationState state;
+	private MonitorState monitorState;
+	
+	/** the old way, every read and write takes the one monitor **/
+	static final class MonitorState {
+		private float azimuth;
+		private float pitch;
+		private float roll;
+		private float declination;
+		
+		synchronized void publishOrientation(float azimuth, float pitch, float roll) {
+			this.azimuth = azimuth;
+			this.pitch = pitch;
+			this.roll = roll;
+		}
+		
+		synchronized void publishDeclination(float declination) {
+			this.declination = declination;
+		}
+		
+		/** copies the tuple out, as getOrientationData handed the render thread its array **/
+		synchronized void read(float[] values) {
+			values[0] = azimuth;
+			values[1] = pitch;
+			values[2] = roll;
+			values[3] = declination;
+		}
+		
+		synchronized float getBearing(boolean trueNorth) {
+			float bearing = azimuth * 57.29578f;
+			if(trueNorth) {
+				bearing += declination;
+			}
+			return bearing;
+		}
+	}
+	
+	/** each reading thread keeps its own snapshot, as the render thread does **/
+	@State(Scope.Thread)
+	public static class Reader {
+		OrientationSnapshot snapshot = new OrientationSnapshot();
+		float[] values = new float[4]; // for the monitor state
+	}
+	
+	/** the sensor thread's position in the samples **/
+	@State(Scope.Thread)
+	public static class Writer {
+		SensorSamples samples = new SensorSamples();
+		int sample;
+	}
+	
+	@Setup
+	public void setup() {
+		state = new OrientationState();
+		state.publishDeclination(2.5f);
+		state.publishOrientation(1f, 0.1f, -0.1f, 0);
+		monitorState = new MonitorState();
+		monitorState.publishDeclination(2.5f);
+		monitorState.publishOrientation(1f, 0.1f, -0.1f);
+	}
+	
+	private static float positive(float bearing) {
+		// the same conversion as CompassManager.getPositiveBearing
+		if(bearing < 0) {
+			bearing += 360;
+		}
+		return bearing;
+	}
+	
+	/** CompassManager.getPositiveBearing, a lock free read of just the bearing, with no writer **/
+	@Benchmark
+	@Group("bearing") // a group of one, nothing else touches the state
+	public float positiveBearing() {
+		return positive(state.getBearing(true));
+	}
+	
+	/** the render thread's read when nothing has changed since the last frame **/
+	@Benchmark
+	@Group("snapshot") // a group of one, nothing else touches the state
+	public float unchangedSnapshot(Reader reader) {
+		state.read(reader.snapshot);
+		return reader.snapshot.getPositiveBearing(true);
+	}
+	
+	/** the old getPositiveBearing, through the monitor, with no writer **/
+	@Benchmark
+	@Group("monitorBearing") // a group of one, nothing else touches the state
+	public float monitorBearing() {
+		return positive(monitorState.getBearing(true));
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void publish(Writer writer) {
+		writer.sample = (writer.sample + 1) & (SensorSamples.COUNT - 1);
+		state.publishOrientation(writer.samples.bearings[writer.sample] / 57.3f, 0.1f, -0.1f, writer.sample);
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public float contendedSnapshot(Reader reader) {
+		state.read(reader.snapshot);
+		return reader.snapshot.getPositiveBearing(true);
+	}
+	
+	@Benchmark
+	@Group("monitorContended")
+	@GroupThreads(1)
+	public void monitorPublish(Writer writer) {
+		writer.sample = (writer.sample + 1) & (SensorSamples.COUNT - 1);
+		monitorState.publishOrientation(writer.samples.bearings[writer.sample] / 57.3f, 0.1f, -0.1f);
+	}
+	
+	@Benchmark
+	@Group("monitorContended")
+	@GroupThreads(3)
+	public float monitorSnapshot(Reader reader) {
+		monitorState.read(reader.values);
+		return positive(reader.values[0] * 57.29578f + reader.values[3]);
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import java.text.DecimalFormat;
+
+import com.digitallizard.nicecompass.BearingLabelTable;
+import com.digitallizard.nicecompass.CardinalConverter;
+
+/**
+ * Building the header and variation text for a frame, as updateBearing used to and with the label table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BearingTextBenchmark {
+	private SensorSamples samples;
+	private DecimalFormat bearingFormat;
+	private DecimalFormat declenationFormat;
+	private BearingLabelTable labels;
+	private int sample;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+		bearingFormat = new DecimalFormat("000");
+		declenationFormat = new DecimalFormat("00.0");
+		labels = new BearingLabelTable();
+		// the table is filled lazily, measure the steady state rather than the first lookups
+		for(int i = 0; i < 360; i++) {
+			labels.getText(labels.getBearingLabel(i, true));
+		}
+		labels.getText(labels.getDeclenationLabel(2.5f, false));
+	}
+	
+	private float nextBearing() {
+		sample = (sample + 1) & (SensorSamples.COUNT - 1);
+		return samples.bearings[sample];
+	}
+	
+	/** what updateBearing built with DecimalFormat every frame **/
+	@Benchmark
+	public void formatted(Blackhole blackhole) {
+		float bearing = nextBearing();
+		String bearingText = bearingFormat.format(bearing);
+		bearingText += "\u00B0 ";
+		bearingText += CardinalConverter.cardinalFromPositiveBearing(bearing);
+		bearingText += " " + CardinalConverter.convertUseTrueNorth(true);
+		String declenationText = "variation: " + declenationFormat.format(2.5f) + "\u00B0";
+		blackhole.consume(bearingText);
+		blackhole.consume(declenationText);
+	}
+	
+	@Benchmark
+	public void labelTable(Blackhole blackhole) {
+		String bearingText = labels.getText(labels.getBearingLabel(nextBearing(), true));
+		String declenationText = labels.getText(labels.getDeclenationLabel(2.5f, false));
+		blackhole.consume(bearingText);
+		blackhole.consume(declenationText);
+	}
+}
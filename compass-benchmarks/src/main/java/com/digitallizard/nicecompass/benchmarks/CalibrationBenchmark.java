@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.digitallizard.nicecompass.CalibrationFitter;
+import com.digitallizard.nicecompass.MagneticCalibration;
+
+/**
+ * The calibration work done for every magnetometer event.
+ * The fitter is fed readings from every direction, so rounds finish and are solved as often as they would be
+ * while the phone is being waved about.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CalibrationBenchmark {
+	private static final long SEED = 42L;
+	
+	private SensorSamples samples;
+	private float[] sphere; // a 45 micro tesla field offset by a case magnet, seen from every direction
+	private CalibrationFitter fitter;
+	private MagneticCalibration calibration;
+	private float[] corrected;
+	private int sample;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+		Random random = new Random(SEED);
+		sphere = new float[SensorSamples.COUNT * 3];
+		for(int i = 0; i < SensorSamples.COUNT; i++) {
+			double x = random.nextGaussian();
+			double y = random.nextGaussian();
+			double z = random.nextGaussian();
+			double scale = 45 / Math.sqrt(x * x + y * y + z * z);
+			sphere[i * 3] = (float)(x * scale * 1.1 + 20);
+			sphere[i * 3 + 1] = (float)(y * scale - 10);
+			sphere[i * 3 + 2] = (float)(z * scale * 0.9 + 5);
+		}
+		fitter = new CalibrationFitter();
+		calibration = MagneticCalibration.fromArray(new float[] {20, -10, 5, 0.91f, 0, 0, 0, 1, 0, 0, 0, 1.11f});
+		corrected = new float[3];
+	}
+	
+	@Benchmark
+	public MagneticCalibration addSample() {
+		int j = ((sample++) & (SensorSamples.COUNT - 1)) * 3;
+		return fitter.addSample(sphere[j], sphere[j + 1], sphere[j + 2]);
+	}
+	
+	@Benchmark
+	public float apply() {
+		int j = ((sample++) & (SensorSamples.COUNT - 1)) * 3;
+		calibration.apply(samples.mag[j], samples.mag[j + 1], samples.mag[j + 2], corrected);
+		return corrected[0];
+	}
+}
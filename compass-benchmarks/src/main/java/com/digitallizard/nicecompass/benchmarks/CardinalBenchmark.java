@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.digitallizard.nicecompass.CardinalConverter;
+
+/**
+ * The table driven converter against the range checks it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CardinalBenchmark {
+	private SensorSamples samples;
+	private int sample;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+	}
+	
+	private float nextBearing() {
+		sample = (sample + 1) & (SensorSamples.COUNT - 1);
+		return samples.bearings[sample];
+	}
+	
+	/** the chain CardinalConverter used before it was table driven, kept here as the reference **/
+	private static String legacyCardinal(float bearing) {
+		if(bearing >= 0 && bearing < 22.5) {
+			return CardinalConverter.NORTH;
+		}
+		if(bearing >= 22.5 && bearing < 67.5) {
+			return CardinalConverter.NORTH_EAST;
+		}
+		if(bearing >= 67.5 && bearing < 112.5) {
+			return CardinalConverter.EAST;
+		}
+		if(bearing >= 112.5 && bearing < 157.5) {
+			return CardinalConverter.SOUTH_EAST;
+		}
+		if(bearing >= 157.5 && bearing < 202.5) {
+			return CardinalConverter.SOUTH;
+		}
+		if(bearing >= 202.5 && bearing < 247.5) {
+			return CardinalConverter.SOUTH_WEST;
+		}
+		if(bearing >= 247.5 && bearing < 292.5) {
+			return CardinalConverter.WEST;
+		}
+		if(bearing >= 292.5 && bearing < 337.5) {
+			return CardinalConverter.NORTH_WEST;
+		}
+		if(bearing >= 337.5 && bearing < 360) {
+			return CardinalConverter.NORTH;
+		}
+		return "??";
+	}
+	
+	@Benchmark
+	public String legacyChain() {
+		return legacyCardinal(nextBearing());
+	}
+	
+	@Benchmark
+	public String table8() {
+		return CardinalConverter.cardinalFromBearing(nextBearing());
+	}
+	
+	@Benchmark
+	public String table32() {
+		return CardinalConverter.cardinalFromBearing(nextBearing(), CardinalConverter.POINTS_32);
+	}
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.digitallizard.nicecompass.HeadingSmoother;
+
+/**
+ * The heading smoothing the pipeline does for every new orientation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeadingSmootherBenchmark {
+	private static final float RADIANS_PER_DEGREE = (float)Math.PI / 180;
+	
+	private SensorSamples samples;
+	private HeadingSmoother smoother;
+	private int sample;
+	private long timestamp;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+		smoother = HeadingSmoother.create(HeadingSmoother.PRESET_BALANCED);
+	}
+	
+	@Benchmark
+	public float update() {
+		sample = (sample + 1) & (SensorSamples.COUNT - 1);
+		timestamp += SensorSamples.INTERVAL_NANOS;
+		// the bearings jump about, so this also covers the filter opening up for fast turns
+		return smoother.update(samples.bearings[sample] * RADIANS_PER_DEGREE, timestamp);
+	}
+}
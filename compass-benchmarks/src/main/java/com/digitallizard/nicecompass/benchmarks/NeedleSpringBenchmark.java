@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.digitallizard.nicecompass.NeedleSpring;
+
+/**
+ * The needle physics updateCompass runs once a frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NeedleSpringBenchmark {
+	private static final long FRAME_NANOS = 33333333L; // 30fps, the surface's target
+	
+	private SensorSamples samples;
+	private NeedleSpring needle;
+	private int sample;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+		needle = new NeedleSpring();
+		needle.reset(0f);
+	}
+	
+	@Benchmark
+	public float update() {
+		sample = (sample + 1) & (SensorSamples.COUNT - 1);
+		float target = samples.bearings[sample];
+		needle.update(target, FRAME_NANOS);
+		return needle.isSettled(target, 0.5f, 1f) ? target : needle.getBearing();
+	}
+}
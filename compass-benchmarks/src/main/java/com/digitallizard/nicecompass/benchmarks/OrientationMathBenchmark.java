@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.digitallizard.nicecompass.OrientationMath;
+
+/**
+ * The accelerometer and magnetometer path's maths, what getOrientationData used to do with SensorManager.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrientationMathBenchmark {
+	private SensorSamples samples;
+	private float[] rotation;
+	private float[] orientation;
+	private int sample;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+		rotation = new float[9];
+		orientation = new float[3];
+	}
+	
+	private int nextSample() {
+		sample = (sample + 1) & (SensorSamples.COUNT - 1);
+		return sample * 3;
+	}
+	
+	/** rotation matrix then azimuth, pitch and roll **/
+	@Benchmark
+	public float orientationData() {
+		int i = nextSample();
+		float[] a = samples.accel;
+		float[] m = samples.mag;
+		OrientationMath.getRotationMatrix(rotation, a[i], a[i + 1], a[i + 2], m[i], m[i + 1], m[i + 2]);
+		OrientationMath.getOrientation(rotation, orientation);
+		return orientation[0];
+	}
+	
+	/** rotation matrix then just the azimuth **/
+	@Benchmark
+	public float azimuthOnly() {
+		int i = nextSample();
+		float[] a = samples.accel;
+		float[] m = samples.mag;
+		OrientationMath.getRotationMatrix(rotation, a[i], a[i + 1], a[i + 2], m[i], m[i + 1], m[i + 2]);
+		return OrientationMath.getAzimuth(rotation);
+	}
+}
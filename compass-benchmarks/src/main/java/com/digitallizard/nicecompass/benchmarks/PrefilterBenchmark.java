@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.digitallizard.nicecompass.RunningMedian;
+import com.digitallizard.nicecompass.SensorPrefilter;
+
+/**
+ * The prefilter work done for each accelerometer and magnetometer reading, whole and just the median.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrefilterBenchmark {
+	private SensorSamples samples;
+	private SensorPrefilter accelFilter;
+	private SensorPrefilter magFilter;
+	private RunningMedian median;
+	private float[] filtered;
+	private int sample;
+	private long timestamp;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+		accelFilter = SensorPrefilter.createAccelerometerFilter();
+		magFilter = SensorPrefilter.createMagnetometerFilter();
+		median = new RunningMedian(SensorPrefilter.ACCELEROMETER_MEDIAN);
+		filtered = new float[3];
+	}
+	
+	private int nextSample() {
+		sample = (sample + 1) & (SensorSamples.COUNT - 1);
+		timestamp += SensorSamples.INTERVAL_NANOS;
+		return sample * 3;
+	}
+	
+	@Benchmark
+	public boolean accelerometer() {
+		int j = nextSample();
+		return accelFilter.filter(samples.accel[j], samples.accel[j + 1], samples.accel[j + 2], timestamp, filtered);
+	}
+	
+	@Benchmark
+	public boolean magnetometer() {
+		int j = nextSample();
+		return magFilter.filter(samples.mag[j], samples.mag[j + 1], samples.mag[j + 2], timestamp, filtered);
+	}
+	
+	@Benchmark
+	public float median() {
+		int j = nextSample();
+		median.add(samples.accel[j]);
+		return median.getMedian();
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.digitallizard.nicecompass.AccelMagEngine;
+import com.digitallizard.nicecompass.CompassPipeline;
+import com.digitallizard.nicecompass.ComplementaryFilterEngine;
+import com.digitallizard.nicecompass.KalmanFilterEngine;
+import com.digitallizard.nicecompass.SensorSourceSelector;
+
+/**
+ * What CompassManager.onSensorChanged costs per event, through the CompassPipeline to the published state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorIngestBenchmark {
+	private SensorSamples samples;
+	private CompassPipeline accelMag;
+	private CompassPipeline complementary;
+	private CompassPipeline kalman;
+	private float[] values;
+	private int sample;
+	private long timestamp;
+	
+	@Setup
+	public void setup() {
+		samples = new SensorSamples();
+		values = new float[3];
+		accelMag = new CompassPipeline(new AccelMagEngine());
+		complementary = new CompassPipeline(new ComplementaryFilterEngine());
+		kalman = new CompassPipeline(new KalmanFilterEngine());
+		// the fusion engines need a reference orientation before the gyroscope does anything
+		prime(complementary);
+		prime(kalman);
+	}
+	
+	private void prime(CompassPipeline pipeline) {
+		event(pipeline, SensorSourceSelector.TYPE_ACCELEROMETER, samples.accel, 0);
+		event(pipeline, SensorSourceSelector.TYPE_MAGNETIC_FIELD, samples.mag, 0);
+	}
+	
+	private int nextSample() {
+		sample = (sample + 1) & (SensorSamples.COUNT - 1);
+		timestamp += SensorSamples.INTERVAL_NANOS;
+		return sample * 3;
+	}
+	
+	private boolean event(CompassPipeline pipeline, int type, float[] source, int i) {
+		// android hands over a values array per event, this one is reused like the platform's pooled events
+		values[0] = source[i];
+		values[1] = source[i + 1];
+		values[2] = source[i + 2];
+		return pipeline.onSensorChanged(type, values, 3, timestamp);
+	}
+	
+	/** one accelerometer and one magnetometer event, as the accelerometer and magnetometer source delivers them **/
+	@Benchmark
+	public boolean accelMag() {
+		int i = nextSample();
+		boolean changed = event(accelMag, SensorSourceSelector.TYPE_ACCELEROMETER, samples.accel, i);
+		return event(accelMag, SensorSourceSelector.TYPE_MAGNETIC_FIELD, samples.mag, i) | changed;
+	}
+	
+	/** one gyroscope event through the complementary filter, the common case with gyro fusion **/
+	@Benchmark
+	public boolean complementaryGyro() {
+		return event(complementary, SensorSourceSelector.TYPE_GYROSCOPE, samples.gyro, nextSample());
+	}
+	
+	/** one magnetometer correction through the complementary filter **/
+	@Benchmark
+	public boolean complementaryCorrection() {
+		return event(complementary, SensorSourceSelector.TYPE_MAGNETIC_FIELD, samples.mag, nextSample());
+	}
+	
+	@Benchmark
+	public boolean kalmanGyro() {
+		return event(kalman, SensorSourceSelector.TYPE_GYROSCOPE, samples.gyro, nextSample());
+	}
+	
+	@Benchmark
+	public boolean kalmanCorrection() {
+		return event(kalman, SensorSourceSelector.TYPE_MAGNETIC_FIELD, samples.mag, nextSample());
+	}
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass.benchmarks;
+
+import java.util.Random;
+
+/**
+ * A repeatable stream of sensor readings from a phone held roughly flat and slowly turned,
+ * in the units android reports: m/s^2, micro tesla and radians per second.
+ */
+final class SensorSamples {
+	static final int COUNT = 1024; // a power of two so the index can wrap with a mask
+	static final long INTERVAL_NANOS = 20000000L; // 50Hz, roughly SENSOR_DELAY_GAME
+	private static final long SEED = 42L;
+	
+	final float[] accel = new float[COUNT * 3];
+	final float[] mag = new float[COUNT * 3];
+	final float[] gyro = new float[COUNT * 3];
+	final float[] bearings = new float[COUNT]; // degrees, 0 <= x < 360
+	
+	SensorSamples() {
+		Random random = new Random(SEED);
+		float heading = 0f;
+		for(int i = 0; i < COUNT; i++) {
+			float turnRate = 0.5f + (float)random.nextGaussian() * 0.05f; // radians per second
+			heading += turnRate * INTERVAL_NANOS / 1e9f;
+			int j = i * 3;
+			accel[j] = (float)random.nextGaussian() * 0.1f;
+			accel[j + 1] = (float)random.nextGaussian() * 0.1f;
+			accel[j + 2] = 9.81f + (float)random.nextGaussian() * 0.1f;
+			// a 45 micro tesla field dipping 60 degrees, seen from the turning phone
+			mag[j] = -22.5f * (float)Math.sin(heading) + (float)random.nextGaussian() * 0.5f;
+			mag[j + 1] = 22.5f * (float)Math.cos(heading) + (float)random.nextGaussian() * 0.5f;
+			mag[j + 2] = -39f + (float)random.nextGaussian() * 0.5f;
+			gyro[j] = (float)random.nextGaussian() * 0.01f;
+			gyro[j + 1] = (float)random.nextGaussian() * 0.01f;
+			gyro[j + 2] = turnRate;
+			bearings[i] = random.nextFloat() * 360f;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * The original engine, the orientation comes straight from the latest accelerometer and magnetometer samples.
+ */
+public class AccelMagEngine implements OrientationEngine {
+	private final float[] accelValues;
+	private final float[] magValues;
+	private final float[] rotationMatrix;
+	private boolean hasAccelValues;
+	private boolean hasMagValues;
+	private boolean hasOrientation;
+	
+	private boolean updateOrientation() {
+		// we need both sensors before anything can be computed
+		if(!hasAccelValues || !hasMagValues) {
+			return false;
+		}
+		if(!OrientationMath.getRotationMatrix(rotationMatrix, accelValues[0], accelValues[1], accelValues[2],
+				magValues[0], magValues[1], magValues[2])) {
+			return false; // free fall or a degenerate field, keep the last good orientation
+		}
+		hasOrientation = true;
+		return true;
+	}
+	
+	public boolean onAccelerometer(float x, float y, float z, long timestamp) {
+		accelValues[0] = x;
+		accelValues[1] = y;
+		accelValues[2] = z;
+		hasAccelValues = true;
+		return updateOrientation();
+	}
+	
+	public boolean onMagneticField(float x, float y, float z, long timestamp) {
+		magValues[0] = x;
+		magValues[1] = y;
+		magValues[2] = z;
+		hasMagValues = true;
+		return updateOrientation();
+	}
+	
+	public boolean onGyroscope(float x, float y, float z, long timestamp) {
+		return false; // not used
+	}
+	
+	public boolean onRotationVector(float x, float y, float z, float w, long timestamp) {
+		return false; // not used
+	}
+	
+	public boolean usesGyroscope() {
+		return false;
+	}
+	
+	public boolean hasOrientation() {
+		return hasOrientation;
+	}
+	
+	public void getOrientation(float[] values) {
+		OrientationMath.getOrientation(rotationMatrix, values);
+	}
+	
+	public void reset() {
+		hasAccelValues = false;
+		hasMagValues = false;
+		hasOrientation = false;
+	}
+	
+	public AccelMagEngine() {
+		accelValues = new float[3];
+		magValues = new float[3];
+		rotationMatrix = new float[9];
+	}
+}
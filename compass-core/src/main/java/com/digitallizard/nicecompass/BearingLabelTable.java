@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.text.DecimalFormat;
+
+/**
+ * Every string the compass can display.
+ * There are only a few thousand of them (whole degree bearings and declinations to a tenth of a degree),
+ * so each is formatted the first time it is needed and looked up after that.
+ * A label is referred to by an int handle, so the render loop never builds text.
+ * Not thread safe, a table belongs to whichever thread draws with it.
+ */
+public class BearingLabelTable {
+	private static final int TABLE_BEARING_MAGNETIC = 0;
+	private static final int TABLE_BEARING_TRUE = 1;
+	private static final int TABLE_DECLENATION_AUTO = 2;
+	private static final int TABLE_DECLENATION_MANUAL = 3;
+	private static final int TABLE_LOCKED_BEARING = 4;
+	protected static final int TABLE_COUNT = 5;
+	private static final int TABLE_SHIFT = 16; // handles are the table in the high bits, the index in the low
+	private static final int INDEX_MASK = (1 << TABLE_SHIFT) - 1;
+	
+	private static final int BEARING_COUNT = 360;
+	private static final int DECLENATION_STEPS_PER_DEGREE = 10;
+	private static final int DECLENATION_OFFSET = 180 * DECLENATION_STEPS_PER_DEGREE; // the index of 0.0
+	private static final int DECLENATION_COUNT = DECLENATION_OFFSET * 2 + 1; // -180.0 to 180.0
+	
+	private final String[][] labels;
+	private final DecimalFormat bearingFormat;
+	private final DecimalFormat declenationFormat;
+	
+	private static int handle(int table, int index) {
+		return (table << TABLE_SHIFT) | index;
+	}
+	
+	protected static int tableOf(int label) {
+		return label >>> TABLE_SHIFT;
+	}
+	
+	protected static int indexOf(int label) {
+		return label & INDEX_MASK;
+	}
+	
+	protected static int tableSize(int table) {
+		boolean declenationTable = table == TABLE_DECLENATION_AUTO || table == TABLE_DECLENATION_MANUAL;
+		return declenationTable ? DECLENATION_COUNT : BEARING_COUNT;
+	}
+	
+	private static int wholeBearing(float bearing) {
+		// round to the nearest degree, in the range 0 <= x < 360
+		int index = Math.round(bearing) % BEARING_COUNT;
+		if(index < 0) {
+			index += BEARING_COUNT;
+		}
+		return index;
+	}
+	
+	private String buildLabel(int table, int index) {
+		switch(table) {
+		case TABLE_BEARING_MAGNETIC:
+		case TABLE_BEARING_TRUE:
+			return bearingFormat.format(index) + "\u00B0 " // u00B0 is degrees sign
+					+ CardinalConverter.cardinalFromPositiveBearing(index) + " "
+					+ CardinalConverter.convertUseTrueNorth(table == TABLE_BEARING_TRUE);
+		case TABLE_DECLENATION_AUTO:
+		case TABLE_DECLENATION_MANUAL:
+			float declenation = (index - DECLENATION_OFFSET) / (float)DECLENATION_STEPS_PER_DEGREE;
+			String prefix = (table == TABLE_DECLENATION_MANUAL) ? "manual " : "";
+			return prefix + "variation: " + declenationFormat.format(declenation) + "\u00B0";
+		default:
+			return bearingFormat.format(index) + "\u00B0";
+		}
+	}
+	
+	public int getBearingLabel(float bearing, boolean trueNorth) {
+		return handle(trueNorth ? TABLE_BEARING_TRUE : TABLE_BEARING_MAGNETIC, wholeBearing(bearing));
+	}
+	
+	public int getDeclenationLabel(float declenation, boolean manual) {
+		// anything outside +-180 is the same as a declenation inside it
+		declenation %= 360;
+		if(declenation > 180) {
+			declenation -= 360;
+		} else if(declenation < -180) {
+			declenation += 360;
+		}
+		int index = Math.round(declenation * DECLENATION_STEPS_PER_DEGREE) + DECLENATION_OFFSET;
+		return handle(manual ? TABLE_DECLENATION_MANUAL : TABLE_DECLENATION_AUTO, index);
+	}
+	
+	public int getLockedBearingLabel(float bearing) {
+		return handle(TABLE_LOCKED_BEARING, wholeBearing(bearing));
+	}
+	
+	public String getText(int label) {
+		int table = tableOf(label);
+		int index = indexOf(label);
+		String text = labels[table][index];
+		if(text == null) {
+			text = buildLabel(table, index);
+			labels[table][index] = text;
+		}
+		return text;
+	}
+	
+	public BearingLabelTable() {
+		bearingFormat = new DecimalFormat("000");
+		declenationFormat = new DecimalFormat("00.0");
+		labels = new String[TABLE_COUNT][];
+		for(int table = 0; table < TABLE_COUNT; table++) {
+			labels[table] = new String[tableSize(table)];
+		}
+	}
+}
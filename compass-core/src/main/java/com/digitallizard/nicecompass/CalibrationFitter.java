@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.util.Arrays;
+
+/**
+ * Fits a MagneticCalibration to magnetometer readings as they arrive.
+ * Each reading adds to the normal equations of a least squares fit of the general ellipsoid
+ *   a x^2 + b y^2 + c z^2 + 2d xy + 2e xz + 2f yz + 2g x + 2h y + 2i z = 1
+ * which costs the same however many readings there have been. Readings are spread over 24 bins by
+ * their direction from the last fit's centre, or the middle of the readings before there is one, and a
+ * bin stops taking readings once it has enough, so holding the phone still in one place cannot drown out
+ * the rest. Once most directions are covered the nine parameters are solved for, checked and turned into
+ * a calibration, then a new round starts so the fit follows changes.
+ */
+public class CalibrationFitter {
+	static final int BINS = 24; // a face of the cube, then a quadrant of that face
+	static final int MAX_PER_BIN = 16;
+	static final int MIN_BINS = 18; // bins that need at least MIN_PER_BIN readings before solving
+	static final int MIN_PER_BIN = 3;
+	static final float MIN_STEP = 2f; // microtesla, closer readings add nothing new
+	static final int MAX_ROUND_SAMPLES = 240; // a round that has not covered enough directions by now starts again
+	
+	// limits on a believable fit
+	static final double MIN_RADIUS = 15; // microtesla, the earth is 22 to 67
+	static final double MAX_RADIUS = 120;
+	static final double MAX_AXIS_RATIO = 1.6; // soft iron squashes a little, more is a bad fit
+	static final double MAX_RESIDUAL = 0.1; // rms of the ellipsoid equation, about twice the relative radius error
+	
+	private static final double SCALE = 50; // readings are divided by this so the sums stay well conditioned
+	private static final int PARAMETERS = 9;
+	
+	private final double[] normal; // the lower triangle of A'A, row by row
+	private final double[] rhs; // A'1
+	private final double[] row; // work space
+	// work space for solve, so a round allocates nothing but the calibration it returns
+	private final double[] cholesky;
+	private final double[] parameters;
+	private final double[] matrix;
+	private final double[] inverse;
+	private final double[] vectors;
+	private final double[] values;
+	private final double[] rotated;
+	private final float[] result;
+	private final int[] binCounts;
+	private int samples;
+	private float lastX;
+	private float lastY;
+	private float lastZ;
+	private final float[] minimum; // the range of this round's readings
+	private final float[] maximum;
+	private final float[] centre; // the last accepted fit's offset
+	private boolean hasCentre;
+	private int rounds;
+	
+	/** which bin the direction from the centre falls in **/
+	static int binOf(float x, float y, float z) {
+		float ax = Math.abs(x);
+		float ay = Math.abs(y);
+		float az = Math.abs(z);
+		int face;
+		float u;
+		float v;
+		if(ax >= ay && ax >= az) {
+			face = (x >= 0) ? 0 : 1;
+			u = y;
+			v = z;
+		} else if(ay >= az) {
+			face = (y >= 0) ? 2 : 3;
+			u = x;
+			v = z;
+		} else {
+			face = (z >= 0) ? 4 : 5;
+			u = x;
+			v = y;
+		}
+		return face * 4 + ((u >= 0) ? 0 : 1) + ((v >= 0) ? 0 : 2);
+	}
+	
+	private void extendRange(int axis, float value) {
+		if(samples == 0 || value < minimum[axis]) {
+			minimum[axis] = value;
+		}
+		if(samples == 0 || value > maximum[axis]) {
+			maximum[axis] = value;
+		}
+	}
+	
+	/** the centre only sorts readings into bins, so it does not need to be exact **/
+	private float centre(int axis) {
+		return hasCentre ? centre[axis] : (minimum[axis] + maximum[axis]) * 0.5f;
+	}
+	
+	/**
+	 * Adds a reading, in microtesla.
+	 * Returns a new calibration when a round finishes with a good fit, null otherwise.
+	 */
+	public MagneticCalibration addSample(float x, float y, float z) {
+		float dx = x - lastX;
+		float dy = y - lastY;
+		float dz = z - lastZ;
+		if(samples > 0 && dx * dx + dy * dy + dz * dz < MIN_STEP * MIN_STEP) {
+			return null;
+		}
+		int bin = binOf(x - centre(0), y - centre(1), z - centre(2));
+		if(binCounts[bin] >= MAX_PER_BIN) {
+			return null;
+		}
+		extendRange(0, x);
+		extendRange(1, y);
+		extendRange(2, z);
+		binCounts[bin]++;
+		samples++;
+		lastX = x;
+		lastY = y;
+		lastZ = z;
+		
+		double sx = x / SCALE;
+		double sy = y / SCALE;
+		double sz = z / SCALE;
+		row[0] = sx * sx;
+		row[1] = sy * sy;
+		row[2] = sz * sz;
+		row[3] = 2 * sx * sy;
+		row[4] = 2 * sx * sz;
+		row[5] = 2 * sy * sz;
+		row[6] = 2 * sx;
+		row[7] = 2 * sy;
+		row[8] = 2 * sz;
+		int index = 0;
+		for(int i = 0; i < PARAMETERS; i++) {
+			for(int j = 0; j <= i; j++) {
+				normal[index++] += row[i] * row[j];
+			}
+			rhs[i] += row[i];
+		}
+		
+		if(!isCovered()) {
+			if(samples >= MAX_ROUND_SAMPLES) {
+				reset(); // the early readings were probably binned around a poor centre
+			}
+			return null;
+		}
+		MagneticCalibration calibration = solve();
+		reset();
+		rounds++;
+		if(calibration != null) {
+			centre[0] = calibration.getOffset(0);
+			centre[1] = calibration.getOffset(1);
+			centre[2] = calibration.getOffset(2);
+			hasCentre = true;
+		}
+		return calibration;
+	}
+	
+	private boolean isCovered() {
+		int covered = 0;
+		for(int bin = 0; bin < BINS; bin++) {
+			if(binCounts[bin] >= MIN_PER_BIN) {
+				covered++;
+			}
+		}
+		return covered >= MIN_BINS;
+	}
+	
+	/** solves the normal equations, returns null if the readings do not describe a believable ellipsoid **/
+	MagneticCalibration solve() {
+		// cholesky, a = l l', both lower triangles stored row by row
+		double[] l = cholesky;
+		for(int i = 0; i < PARAMETERS; i++) {
+			int rowI = i * (i + 1) / 2;
+			for(int j = 0; j <= i; j++) {
+				int rowJ = j * (j + 1) / 2;
+				double sum = normal[rowI + j];
+				for(int k = 0; k < j; k++) {
+					sum -= l[rowI + k] * l[rowJ + k];
+				}
+				if(i == j) {
+					if(sum <= 0) {
+						return null; // the readings do not pin every parameter down
+					}
+					l[rowI + i] = Math.sqrt(sum);
+				} else {
+					l[rowI + j] = sum / l[rowJ + j];
+				}
+			}
+		}
+		double[] p = parameters;
+		for(int i = 0; i < PARAMETERS; i++) {
+			int rowI = i * (i + 1) / 2;
+			double sum = rhs[i];
+			for(int k = 0; k < i; k++) {
+				sum -= l[rowI + k] * p[k];
+			}
+			p[i] = sum / l[rowI + i];
+		}
+		for(int i = PARAMETERS - 1; i >= 0; i--) {
+			double sum = p[i];
+			for(int k = i + 1; k < PARAMETERS; k++) {
+				sum -= l[k * (k + 1) / 2 + i] * p[k];
+			}
+			p[i] = sum / l[i * (i + 1) / 2 + i];
+		}
+		
+		// with p solving the normal equations the squared residual is n - p'A'1
+		double residual = samples;
+		for(int i = 0; i < PARAMETERS; i++) {
+			residual -= p[i] * rhs[i];
+		}
+		if(!(Math.sqrt(Math.max(residual, 0) / samples) < MAX_RESIDUAL)) {
+			return null;
+		}
+		
+		// x'Mx + 2v'x = 1, so the centre is -M^-1 v and (x - c)'M(x - c) = 1 + c'Mc
+		double[] m = matrix;
+		m[0] = p[0];
+		m[1] = p[3];
+		m[2] = p[4];
+		m[3] = p[3];
+		m[4] = p[1];
+		m[5] = p[5];
+		m[6] = p[4];
+		m[7] = p[5];
+		m[8] = p[2];
+		if(!invert(m, inverse)) {
+			return null;
+		}
+		double cx = -(inverse[0] * p[6] + inverse[1] * p[7] + inverse[2] * p[8]);
+		double cy = -(inverse[3] * p[6] + inverse[4] * p[7] + inverse[5] * p[8]);
+		double cz = -(inverse[6] * p[6] + inverse[7] * p[7] + inverse[8] * p[8]);
+		double k = 1 + cx * (m[0] * cx + m[1] * cy + m[2] * cz) + cy * (m[3] * cx + m[4] * cy + m[5] * cz)
+				+ cz * (m[6] * cx + m[7] * cy + m[8] * cz);
+		// k is negative when the origin lies outside the ellipsoid, which a strong case magnet can do. m / k is still right
+		if(k == 0 || Double.isNaN(k)) {
+			return null;
+		}
+		for(int i = 0; i < 9; i++) {
+			m[i] /= k;
+		}
+		
+		// m = V diag(e) V', the radii are 1 / sqrt(e)
+		eigen(m, rotated, vectors, values);
+		double minimum = Math.min(values[0], Math.min(values[1], values[2]));
+		double maximum = Math.max(values[0], Math.max(values[1], values[2]));
+		if(!(minimum > 0) || Math.sqrt(maximum / minimum) > MAX_AXIS_RATIO) {
+			return null;
+		}
+		// keep the volume, so the corrected field is as strong on average as the readings were
+		double radius = Math.pow(values[0] * values[1] * values[2], -1.0 / 6);
+		if(radius * SCALE < MIN_RADIUS || radius * SCALE > MAX_RADIUS) {
+			return null;
+		}
+		// the soft iron matrix is radius * V diag(sqrt(e)) V', it maps the ellipsoid onto a sphere
+		float[] array = result; // copied by the calibration
+		for(int i = 0; i < 3; i++) {
+			for(int j = 0; j < 3; j++) {
+				double sum = 0;
+				for(int n = 0; n < 3; n++) {
+					sum += vectors[i * 3 + n] * Math.sqrt(values[n]) * vectors[j * 3 + n];
+				}
+				array[3 + i * 3 + j] = (float)(radius * sum);
+			}
+		}
+		return new MagneticCalibration((float)(cx * SCALE), (float)(cy * SCALE), (float)(cz * SCALE), array);
+	}
+	
+	/** inverts a 3x3 matrix, row major, returns false if it is singular **/
+	private static boolean invert(double[] m, double[] out) {
+		out[0] = m[4] * m[8] - m[5] * m[7];
+		out[1] = m[2] * m[7] - m[1] * m[8];
+		out[2] = m[1] * m[5] - m[2] * m[4];
+		out[3] = m[5] * m[6] - m[3] * m[8];
+		out[4] = m[0] * m[8] - m[2] * m[6];
+		out[5] = m[2] * m[3] - m[0] * m[5];
+		out[6] = m[3] * m[7] - m[4] * m[6];
+		out[7] = m[1] * m[6] - m[0] * m[7];
+		out[8] = m[0] * m[4] - m[1] * m[3];
+		double determinant = m[0] * out[0] + m[1] * out[3] + m[2] * out[6];
+		if(determinant == 0 || Double.isNaN(determinant)) {
+			return false;
+		}
+		for(int i = 0; i < 9; i++) {
+			out[i] /= determinant;
+		}
+		return true;
+	}
+	
+	/** jacobi eigen decomposition of a symmetric 3x3 matrix, the eigenvectors are the columns of vectors. a is work space **/
+	private static void eigen(double[] matrix, double[] a, double[] vectors, double[] values) {
+		System.arraycopy(matrix, 0, a, 0, 9);
+		for(int i = 0; i < 9; i++) {
+			vectors[i] = (i % 4 == 0) ? 1 : 0;
+		}
+		for(int sweep = 0; sweep < 50; sweep++) {
+			double off = a[1] * a[1] + a[2] * a[2] + a[5] * a[5];
+			if(off < 1e-30) {
+				break;
+			}
+			for(int p = 0; p < 2; p++) {
+				for(int q = p + 1; q < 3; q++) {
+					double apq = a[p * 3 + q];
+					if(apq == 0) {
+						continue;
+					}
+					// the rotation that zeroes a[p][q]
+					double theta = (a[q * 3 + q] - a[p * 3 + p]) / (2 * apq);
+					double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+					if(theta == 0) {
+						t = 1;
+					}
+					double c = 1 / Math.sqrt(t * t + 1);
+					double s = t * c;
+					for(int k = 0; k < 3; k++) {
+						double akp = a[k * 3 + p];
+						double akq = a[k * 3 + q];
+						a[k * 3 + p] = c * akp - s * akq;
+						a[k * 3 + q] = s * akp + c * akq;
+					}
+					for(int k = 0; k < 3; k++) {
+						double apk = a[p * 3 + k];
+						double aqk = a[q * 3 + k];
+						a[p * 3 + k] = c * apk - s * aqk;
+						a[q * 3 + k] = s * apk + c * aqk;
+					}
+					for(int k = 0; k < 3; k++) {
+						double vkp = vectors[k * 3 + p];
+						double vkq = vectors[k * 3 + q];
+						vectors[k * 3 + p] = c * vkp - s * vkq;
+						vectors[k * 3 + q] = s * vkp + c * vkq;
+					}
+				}
+			}
+		}
+		values[0] = a[0];
+		values[1] = a[4];
+		values[2] = a[8];
+	}
+	
+	/** how many rounds have been solved, good or bad **/
+	public int getRounds() {
+		return rounds;
+	}
+	
+	/** the readings taken so far this round **/
+	public int getSampleCount() {
+		return samples;
+	}
+	
+	/** throws the current round away, e.g. when the platform says the magnetometer has been upset **/
+	public void reset() {
+		Arrays.fill(normal, 0);
+		Arrays.fill(rhs, 0);
+		Arrays.fill(binCounts, 0);
+		samples = 0;
+	}
+	
+	public CalibrationFitter() {
+		normal = new double[PARAMETERS * (PARAMETERS + 1) / 2];
+		rhs = new double[PARAMETERS];
+		row = new double[PARAMETERS];
+		cholesky = new double[PARAMETERS * (PARAMETERS + 1) / 2];
+		parameters = new double[PARAMETERS];
+		matrix = new double[9];
+		inverse = new double[9];
+		vectors = new double[9];
+		values = new double[3];
+		rotated = new double[9];
+		result = new float[MagneticCalibration.SIZE];
+		binCounts = new int[BINS];
+		minimum = new float[3];
+		maximum = new float[3];
+		centre = new float[3];
+	}
+}
@@ -0,0 +1,74 @@
+package com.digitallizard.nicecompass;
+
+public class CardinalConverter {
+	public static final String NORTH = "N";
+	public static final String NORTH_WEST = "NW";
+	public static final String WEST = "W";
+	public static final String SOUTH_WEST = "SW";
+	public static final String SOUTH = "S";
+	public static final String SOUTH_EAST = "SE";
+	public static final String EAST = "E";
+	public static final String NORTH_EAST = "NE";
+	
+	public static final String TRUE_NORTH = "T";
+	public static final String MAGNETIC_NORTH = "M";
+	
+	public static final int POINTS_4 = 4;
+	public static final int POINTS_8 = 8;
+	public static final int POINTS_16 = 16;
+	public static final int POINTS_32 = 32;
+	
+	/** the full 32 point rose, clockwise from north. smaller roses use every 2nd, 4th or 8th entry **/
+	public static final String[] DEFAULT_LABELS = {
+		"N", "NbE", "NNE", "NEbN", "NE", "NEbE", "ENE", "EbN",
+		"E", "EbS", "ESE", "SEbE", "SE", "SEbS", "SSE", "SbE",
+		"S", "SbW", "SSW", "SWbS", "SW", "SWbW", "WSW", "WbS",
+		"W", "WbN", "WNW", "NWbW", "NW", "NWbN", "NNW", "NbW"
+	};
+	
+	/**
+	 * The index of the point nearest to the bearing on a rose of the given size, 0 is north.
+	 * Any bearing is accepted, negative or over 360. NaN and infinity give north.
+	 * Throws IllegalArgumentException if points is not 4, 8, 16 or 32.
+	 */
+	public static int pointFromBearing(float bearing, int points) {
+		if(points != POINTS_4 && points != POINTS_8 && points != POINTS_16 && points != POINTS_32) {
+			throw new IllegalArgumentException("a rose has 4, 8, 16 or 32 points, not " + points);
+		}
+		// the fraction of a turn, in the range 0 <= x < 1
+		float turns = bearing / 360f;
+		turns -= (float)Math.floor(turns);
+		// each point covers the half point either side of it, the mask wraps the last half back to north
+		return (int)(turns * points + 0.5f) & (points - 1);
+	}
+	
+	/**
+	 * The label for the bearing on a rose of 4, 8, 16 or 32 points.
+	 * Labels is a 32 entry table laid out like DEFAULT_LABELS, so it can be swapped for a translated one.
+	 */
+	public static String cardinalFromBearing(float bearing, int points, String[] labels) {
+		return labels[pointFromBearing(bearing, points) * (POINTS_32 / points)];
+	}
+	
+	public static String cardinalFromBearing(float bearing, int points) {
+		return cardinalFromBearing(bearing, points, DEFAULT_LABELS);
+	}
+	
+	public static String cardinalFromBearing(float bearing) {
+		return cardinalFromBearing(bearing, POINTS_8, DEFAULT_LABELS);
+	}
+	
+	public static String cardinalFromPositiveBearing(float bearing) {
+		// kept for existing callers, any bearing works now
+		return cardinalFromBearing(bearing, POINTS_8, DEFAULT_LABELS);
+	}
+	
+	public static String convertUseTrueNorth(boolean useTrueNorth) {
+		if(useTrueNorth) {
+			return TRUE_NORTH;
+		}
+		else {
+			return MAGNETIC_NORTH;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Everything that happens to a reading between the platform and the readers of the orientation:
+ * magnetometer calibration, the interference test, prefiltering, the active engine, heading smoothing,
+ * heading rate estimation, declination and publishing into an OrientationState.
+ * CompassManager feeds it live sensor events, SensorTraceReplayer feeds it recorded ones.
+ */
+public class CompassPipeline {
+	/** constants **/
+	public static final int STATUS_GOOD = 0;
+	public static final int STATUS_INTERFERENCE = 1;
+	public static final int STATUS_INACTIVE = 2;
+	
+	/** notified from the sensor thread whenever a new orientation version is published **/
+	public interface OnOrientationChangedListener {
+		void onOrientationChanged();
+	}
+	
+	/** notified from the sensor thread whenever a calibration fit is accepted, so it can be stored. must not block on the disk **/
+	public interface OnCalibrationChangedListener {
+		void onCalibrationChanged(MagneticCalibration calibration);
+	}
+	
+	/** variables **/
+	private final OrientationState orientationState; // read lock free by the render thread
+	// the engine, detector and buffer are only touched from the thread sensor events are delivered on
+	private OrientationEngine engine;
+	private final InterferenceDetector interferenceDetector;
+	private final float[] orientationData;
+	private volatile GeomagneticModel geoModel;
+	private volatile int status;
+	private volatile OnOrientationChangedListener orientationListener;
+	private final PipelineMetrics metrics;
+	private volatile MagneticCalibration calibration; // null until a fit is accepted or one is restored
+	private final CalibrationFitter calibrationFitter; // only touched from the sensor thread, like the engine
+	private final float[] correctedField;
+	private volatile OnCalibrationChangedListener calibrationListener;
+	// null when off. swapped by any thread, used on the sensor thread
+	private volatile SensorPrefilter accelPrefilter;
+	private volatile SensorPrefilter magPrefilter;
+	private final float[] filteredValues;
+	private volatile HeadingSmoother headingSmoother; // null when off, swapped like the prefilters
+	private final HeadingPredictor headingPredictor; // sensor thread only
+	
+	private volatile boolean useManualDeclination;
+	private float manualDeclination;
+	
+	
+	private void interferenceTest(float x, float y, float z) {
+		int previousStatus = status;
+		if(interferenceDetector.onMagneticField(x, y, z, geoModel)) {
+			// report possible interference
+			status = STATUS_INTERFERENCE;
+		} else {
+			status = STATUS_GOOD;
+		}
+		// the display only needs waking when the status actually changes
+		if(status != previousStatus) {
+			if(status == STATUS_INTERFERENCE || previousStatus == STATUS_INTERFERENCE) {
+				metrics.countInterferenceTransition();
+			}
+			notifyOrientationChanged();
+		}
+	}
+	
+	/**
+	 * Fits and applies the calibration, leaving the corrected field in correctedField.
+	 * Uncalibrated readings carry the platform's bias estimate, which stands in until our own fit is ready.
+	 */
+	private void calibrateField(int type, float[] values, int count) {
+		float x = values[0];
+		float y = values[1];
+		float z = values[2];
+		MagneticCalibration current = calibration;
+		MagneticCalibration fitted = calibrationFitter.addSample(x, y, z);
+		if(fitted != null) {
+			current = fitted;
+			calibration = fitted;
+			OnCalibrationChangedListener listener = calibrationListener;
+			if(listener != null) {
+				listener.onCalibrationChanged(fitted);
+			}
+		}
+		
+		if(current != null) {
+			current.apply(x, y, z, correctedField);
+		} else if(type == SensorSourceSelector.TYPE_MAGNETIC_FIELD_UNCALIBRATED && count >= 6) {
+			correctedField[0] = x - values[3];
+			correctedField[1] = y - values[4];
+			correctedField[2] = z - values[5];
+		} else {
+			correctedField[0] = x;
+			correctedField[1] = y;
+			correctedField[2] = z;
+		}
+	}
+	
+	/** leaves the reading in filteredValues, returns false if the prefilter gated it **/
+	private boolean prefilter(SensorPrefilter filter, float x, float y, float z, long timestamp) {
+		if(filter == null) {
+			filteredValues[0] = x;
+			filteredValues[1] = y;
+			filteredValues[2] = z;
+			return true;
+		}
+		if(!filter.filter(x, y, z, timestamp, filteredValues)) {
+			metrics.countGated();
+			return false;
+		}
+		return true;
+	}
+	
+	private synchronized void publishDeclination() {
+		// serialised so a manual change and a location update cannot publish out of order
+		if(useManualDeclination) {
+			orientationState.publishDeclination(manualDeclination);
+		} else if(geoModel != null) {
+			orientationState.publishDeclination(geoModel.getDeclination()); // convert magnetic north into true north
+		} else {
+			orientationState.publishDeclination(0f); // no field, just use the normal bearing
+		}
+		notifyOrientationChanged();
+	}
+	
+	private void notifyOrientationChanged() {
+		OnOrientationChangedListener listener = orientationListener;
+		if(listener != null) {
+			listener.onOrientationChanged();
+		}
+	}
+	
+	private void publishOrientation(long timestamp) {
+		// hand the engine's result to the readers
+		engine.getOrientation(orientationData);
+		HeadingSmoother smoother = headingSmoother;
+		if(smoother != null) {
+			// smoothed here, once per reading, so every reader sees the same heading whatever its frame rate
+			orientationData[0] = smoother.update(orientationData[0], timestamp);
+		}
+		// the rate of the heading as published, so extrapolating it carries on from what readers see
+		headingPredictor.onHeading(orientationData[0], timestamp);
+		orientationState.publishOrientation(orientationData[0], orientationData[1], orientationData[2], timestamp,
+				headingPredictor.getRate(), headingPredictor.getConfidence());
+		notifyOrientationChanged();
+	}
+	
+	/**
+	 * Passes one reading to the engine, publishing the orientation if it changed.
+	 * Type is one of the SensorSourceSelector.TYPE_ constants, others are ignored.
+	 * Must be called from a single thread.
+	 */
+	public boolean onSensorChanged(int type, float[] values, int count, long timestamp) {
+		boolean changed = false;
+		switch(type) {
+		case SensorSourceSelector.TYPE_MAGNETIC_FIELD:
+		case SensorSourceSelector.TYPE_MAGNETIC_FIELD_UNCALIBRATED:
+			calibrateField(type, values, count);
+			// check for interference, spikes are part of what the detector looks for so it sees the unfiltered field
+			interferenceTest(correctedField[0], correctedField[1], correctedField[2]);
+			if(prefilter(magPrefilter, correctedField[0], correctedField[1], correctedField[2], timestamp)) {
+				changed = engine.onMagneticField(filteredValues[0], filteredValues[1], filteredValues[2], timestamp);
+			}
+			break;
+		case SensorSourceSelector.TYPE_ACCELEROMETER:
+			// the detector measures the dip of the field against gravity, it does its own gating
+			interferenceDetector.onAccelerometer(values[0], values[1], values[2]);
+			if(prefilter(accelPrefilter, values[0], values[1], values[2], timestamp)) {
+				headingPredictor.onAccelerometer(filteredValues[0], filteredValues[1], filteredValues[2]);
+				changed = engine.onAccelerometer(filteredValues[0], filteredValues[1], filteredValues[2], timestamp);
+			}
+			break;
+		case SensorSourceSelector.TYPE_GYROSCOPE:
+			headingPredictor.onGyroscope(values[0], values[1], values[2], timestamp);
+			changed = engine.onGyroscope(values[0], values[1], values[2], timestamp);
+			break;
+		case SensorSourceSelector.TYPE_ROTATION_VECTOR:
+		case SensorSourceSelector.TYPE_GEOMAGNETIC_ROTATION_VECTOR:
+			// older devices leave out the scalar part
+			float w = (count > 3) ? values[3] : OrientationMath.rotationVectorScalar(values[0], values[1], values[2]);
+			changed = engine.onRotationVector(values[0], values[1], values[2], w, timestamp);
+			break;
+		}
+		metrics.countEvent(type, changed);
+		if(changed) {
+			publishOrientation(timestamp);
+		}
+		return changed;
+	}
+	
+	/** swaps the engine, must be called from the thread sensor events are delivered on **/
+	public void setEngine(OrientationEngine newEngine) {
+		engine = newEngine;
+	}
+	
+	/**
+	 * Sets the filters the accelerometer and magnetometer readings go through before the engine, null turns one off.
+	 * A new filter starts from nothing, so it can be swapped from any thread.
+	 */
+	public void setPrefilters(SensorPrefilter accelerometer, SensorPrefilter magnetometer) {
+		accelPrefilter = accelerometer;
+		magPrefilter = magnetometer;
+	}
+	
+	/** sets the smoother the published heading goes through, null publishes the engine's heading as it is **/
+	public void setHeadingSmoother(HeadingSmoother smoother) {
+		headingSmoother = smoother;
+	}
+	
+	public OrientationEngine getEngine() {
+		return engine;
+	}
+	
+	/** forgets everything the engine has seen, stale samples must not be mixed with fresh ones **/
+	public void reset() {
+		engine.reset();
+		interferenceDetector.reset();
+		SensorPrefilter filter = accelPrefilter;
+		if(filter != null) {
+			filter.reset();
+		}
+		filter = magPrefilter;
+		if(filter != null) {
+			filter.reset();
+		}
+		HeadingSmoother smoother = headingSmoother;
+		if(smoother != null) {
+			smoother.reset();
+		}
+		headingPredictor.reset();
+		orientationState.clearOrientation();
+	}
+	
+	/** resets and reports that no sensor is feeding the pipeline **/
+	public void deactivate() {
+		reset();
+		status = STATUS_INACTIVE;
+	}
+	
+	/** replaces the calibration, e.g. with one stored from an earlier run. null goes back to the raw readings **/
+	public void setCalibration(MagneticCalibration newCalibration) {
+		calibration = newCalibration;
+	}
+	
+	public MagneticCalibration getCalibration() {
+		return calibration;
+	}
+	
+	/**
+	 * Throws away the readings collected towards the next fit, the current calibration stays until a new one is fitted.
+	 * Must be called from the thread sensor events are delivered on.
+	 */
+	public void restartCalibration() {
+		calibrationFitter.reset();
+	}
+	
+	/** how many fits have been attempted since the pipeline was made **/
+	public int getCalibrationRounds() {
+		return calibrationFitter.getRounds();
+	}
+	
+	public void setOnCalibrationChangedListener(OnCalibrationChangedListener listener) {
+		calibrationListener = listener;
+	}
+	
+	/** the field at the user's location, null until it is known **/
+	public void setGeomagneticModel(GeomagneticModel model) {
+		metrics.countGeomagneticUpdate();
+		geoModel = model;
+		publishDeclination();
+	}
+	
+	public GeomagneticModel getGeomagneticModel() {
+		return geoModel;
+	}
+	
+	/**
+	 * Copies the latest orientation into the given snapshot without blocking.
+	 * Returns false, at almost no cost, if the snapshot is already up to date.
+	 */
+	public boolean readSnapshot(OrientationSnapshot snapshot) {
+		long previousVersion = snapshot.getVersion();
+		boolean fresh = orientationState.read(snapshot);
+		metrics.countRead(previousVersion, snapshot.getVersion(), fresh);
+		return fresh;
+	}
+	
+	public PipelineMetrics getMetrics() {
+		return metrics;
+	}
+	
+	public void setOnOrientationChangedListener(OnOrientationChangedListener listener) {
+		orientationListener = listener;
+	}
+	
+	public long getOrientationVersion() {
+		return orientationState.getVersion();
+	}
+	
+	public int getStatus() {
+		return status;
+	}
+	
+	public float getDeclination() {
+		return orientationState.getDeclination();
+	}
+	
+	public synchronized void setManualDeclination(float declination) {
+		useManualDeclination = true;
+		manualDeclination = declination;
+		publishDeclination();
+	}
+	
+	public synchronized void useAutoDeclination() {
+		useManualDeclination = false;
+		publishDeclination();
+	}
+	
+	public boolean isUsingManualDeclination() {
+		return useManualDeclination;
+	}
+	
+	public float getBearing(boolean trueNorth) {
+		// a lock free read of the latest azimuth and declination
+		return orientationState.getBearing(trueNorth);
+	}
+	
+	public CompassPipeline(OrientationEngine engine) {
+		this.engine = engine;
+		orientationState = new OrientationState();
+		orientationData = new float[3];
+		interferenceDetector = new InterferenceDetector();
+		metrics = new PipelineMetrics();
+		calibrationFitter = new CalibrationFitter();
+		correctedField = new float[3];
+		filteredValues = new float[3];
+		headingPredictor = new HeadingPredictor();
+		status = STATUS_INACTIVE;
+	}
+}
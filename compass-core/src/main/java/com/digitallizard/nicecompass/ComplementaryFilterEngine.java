@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Fuses the sensors with a complementary filter.
+ * The gyroscope is trusted over short periods, the accelerometer and magnetometer over periods
+ * longer than the time constant.
+ */
+public class ComplementaryFilterEngine extends GyroFusionEngine {
+	public static final float DEFAULT_TIME_CONSTANT = 0.5f; // seconds
+	
+	private final float timeConstant;
+	
+	@Override
+	protected void predict(float wx, float wy, float wz, float dt) {
+		OrientationMath.gyroDeltaQuaternion(gyroDelta, wx, wy, wz, dt);
+		OrientationMath.multiplyQuaternion(quaternion, gyroDelta);
+	}
+	
+	@Override
+	protected void correct(float[] measured, float dt) {
+		// the blend depends on elapsed time rather than sample count, so the sensor rate does not change the response
+		float fraction = dt / (timeConstant + dt);
+		OrientationMath.nlerpQuaternion(quaternion, measured, fraction);
+	}
+	
+	@Override
+	protected void initialize() {
+		// no extra state
+	}
+	
+	public ComplementaryFilterEngine(float timeConstant) {
+		this.timeConstant = timeConstant;
+	}
+	
+	public ComplementaryFilterEngine() {
+		this(DEFAULT_TIME_CONSTANT);
+	}
+}
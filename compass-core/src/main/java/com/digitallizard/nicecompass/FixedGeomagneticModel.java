@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * A field that does not depend on time or place, e.g. one recorded in a trace.
+ */
+public class FixedGeomagneticModel implements GeomagneticModel {
+	private final float declination;
+	private final float fieldStrength;
+	private final float inclination;
+	
+	public float getDeclination() {
+		return declination;
+	}
+	
+	public float getFieldStrength() {
+		return fieldStrength;
+	}
+	
+	public float getInclination() {
+		return inclination;
+	}
+	
+	public FixedGeomagneticModel(float declination, float fieldStrength, float inclination) {
+		this.declination = declination;
+		this.fieldStrength = fieldStrength;
+		this.inclination = inclination;
+	}
+	
+	/** for a field whose inclination is not known **/
+	public FixedGeomagneticModel(float declination, float fieldStrength) {
+		this(declination, fieldStrength, Float.NaN);
+	}
+}
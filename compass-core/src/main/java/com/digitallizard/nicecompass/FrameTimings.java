@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Where the time goes between a sensor event and the frame that shows it.
+ * Recorded by the render thread, readable from any thread at any time.
+ */
+public class FrameTimings {
+	private final LatencyHistogram sensorAge; // from the sensor event to the frame being posted
+	private final LatencyHistogram updateTime; // reading the snapshot and advancing the animation
+	private final LatencyHistogram drawTime; // onDraw
+	private final LatencyHistogram fullDrawTime; // onDraw, the whole surface
+	private final LatencyHistogram partialDrawTime; // onDraw, only a dirty region
+	private final LatencyHistogram postTime; // unlockCanvasAndPost
+	
+	public LatencyHistogram getSensorAge() {
+		return sensorAge;
+	}
+	
+	public LatencyHistogram getUpdateTime() {
+		return updateTime;
+	}
+	
+	public LatencyHistogram getDrawTime() {
+		return drawTime;
+	}
+	
+	/** the draw time of frames that redrew the whole surface **/
+	public LatencyHistogram getFullDrawTime() {
+		return fullDrawTime;
+	}
+	
+	/** the draw time of frames that redrew only the parts that changed **/
+	public LatencyHistogram getPartialDrawTime() {
+		return partialDrawTime;
+	}
+	
+	/** records a draw in the overall histogram and the one for its kind **/
+	public void recordDraw(long nanos, boolean full) {
+		drawTime.record(nanos);
+		if(full) {
+			fullDrawTime.record(nanos);
+		} else {
+			partialDrawTime.record(nanos);
+		}
+	}
+	
+	public LatencyHistogram getPostTime() {
+		return postTime;
+	}
+	
+	public void reset() {
+		sensorAge.reset();
+		updateTime.reset();
+		drawTime.reset();
+		fullDrawTime.reset();
+		partialDrawTime.reset();
+		postTime.reset();
+	}
+	
+	@Override
+	public String toString() {
+		return "sensor age: " + sensorAge + "\nupdate: " + updateTime + "\ndraw: " + drawTime
+				+ "\nfull draw: " + fullDrawTime + "\npartial draw: " + partialDrawTime + "\npost: " + postTime;
+	}
+	
+	public FrameTimings() {
+		sensorAge = new LatencyHistogram();
+		updateTime = new LatencyHistogram();
+		drawTime = new LatencyHistogram();
+		fullDrawTime = new LatencyHistogram();
+		partialDrawTime = new LatencyHistogram();
+		postTime = new LatencyHistogram();
+	}
+}
@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * The earth's field at the user's location, as predicted by a model such as android's GeomagneticField.
+ * Lets the core use the declination and field without depending on the platform.
+ */
+public interface GeomagneticModel {
+	/** degrees east of true north that magnetic north lies **/
+	float getDeclination();
+	
+	/** the total field strength in nanotesla, as GeomagneticField gives it **/
+	float getFieldStrength();
+	
+	/** degrees below the horizontal that the field points, negative in the southern hemisphere, NaN if unknown **/
+	float getInclination();
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Base for engines that integrate the gyroscope and use the accelerometer and magnetometer to correct drift.
+ * The gyroscope drives the estimate between samples so the heading responds without lag,
+ * each accelerometer or magnetometer sample then pulls it towards the absolute orientation.
+ */
+public abstract class GyroFusionEngine implements OrientationEngine {
+	private static final float NANOS_PER_SECOND = 1e9f;
+	private static final float MAX_GYRO_STEP = 0.1f; // seconds, longer gaps are not integrated
+	private static final float MAX_CORRECTION_STEP = 1f; // seconds
+	
+	protected final float[] quaternion; // the current estimate
+	protected final float[] gyroDelta;
+	private final float[] measuredQuaternion;
+	private final float[] accelValues;
+	private final float[] magValues;
+	private final float[] measuredMatrix;
+	private final float[] outputMatrix;
+	private boolean hasAccelValues;
+	private boolean hasMagValues;
+	private boolean hasOrientation;
+	private long lastGyroTimestamp;
+	private long lastCorrectionTimestamp;
+	
+	/** advance the estimate by the body rates over dt seconds **/
+	protected abstract void predict(float wx, float wy, float wz, float dt);
+	
+	/** pull the estimate towards the measured quaternion, dt seconds after the last correction **/
+	protected abstract void correct(float[] measured, float dt);
+	
+	/** called once the first absolute orientation is known, quaternion already holds it **/
+	protected abstract void initialize();
+	
+	private static float secondsBetween(long start, long end) {
+		return (end - start) / NANOS_PER_SECOND;
+	}
+	
+	private boolean correctFromAccelMag(long timestamp) {
+		// we need both sensors before anything can be computed
+		if(!hasAccelValues || !hasMagValues) {
+			return false;
+		}
+		if(!OrientationMath.getRotationMatrix(measuredMatrix, accelValues[0], accelValues[1], accelValues[2],
+				magValues[0], magValues[1], magValues[2])) {
+			return false; // free fall or a degenerate field, let the gyroscope carry on alone
+		}
+		OrientationMath.quaternionFromMatrix(measuredMatrix, measuredQuaternion);
+		
+		if(!hasOrientation) {
+			// the first measurement is taken as it is
+			System.arraycopy(measuredQuaternion, 0, quaternion, 0, 4);
+			initialize();
+			hasOrientation = true;
+			lastCorrectionTimestamp = timestamp;
+			return true;
+		}
+		
+		OrientationMath.alignQuaternion(quaternion, measuredQuaternion);
+		float dt = secondsBetween(lastCorrectionTimestamp, timestamp);
+		lastCorrectionTimestamp = timestamp;
+		if(dt < 0) {
+			dt = 0;
+		} else if(dt > MAX_CORRECTION_STEP) {
+			dt = MAX_CORRECTION_STEP;
+		}
+		correct(measuredQuaternion, dt);
+		return true;
+	}
+	
+	public boolean onAccelerometer(float x, float y, float z, long timestamp) {
+		accelValues[0] = x;
+		accelValues[1] = y;
+		accelValues[2] = z;
+		hasAccelValues = true;
+		return correctFromAccelMag(timestamp);
+	}
+	
+	public boolean onMagneticField(float x, float y, float z, long timestamp) {
+		magValues[0] = x;
+		magValues[1] = y;
+		magValues[2] = z;
+		hasMagValues = true;
+		return correctFromAccelMag(timestamp);
+	}
+	
+	public boolean onGyroscope(float x, float y, float z, long timestamp) {
+		long lastTimestamp = lastGyroTimestamp;
+		lastGyroTimestamp = timestamp;
+		// there is nothing to rotate until we have an absolute orientation
+		if(!hasOrientation || lastTimestamp == 0) {
+			return false;
+		}
+		float dt = secondsBetween(lastTimestamp, timestamp);
+		if(dt <= 0 || dt > MAX_GYRO_STEP) {
+			return false; // out of order or after a pause, integrating this would do more harm than good
+		}
+		predict(x, y, z, dt);
+		return true;
+	}
+	
+	public boolean onRotationVector(float x, float y, float z, float w, long timestamp) {
+		return false; // not used
+	}
+	
+	public boolean usesGyroscope() {
+		return true;
+	}
+	
+	public boolean hasOrientation() {
+		return hasOrientation;
+	}
+	
+	public void getOrientation(float[] values) {
+		OrientationMath.matrixFromQuaternion(quaternion, outputMatrix);
+		OrientationMath.getOrientation(outputMatrix, values);
+	}
+	
+	public void reset() {
+		hasAccelValues = false;
+		hasMagValues = false;
+		hasOrientation = false;
+		lastGyroTimestamp = 0;
+		lastCorrectionTimestamp = 0;
+	}
+	
+	protected GyroFusionEngine() {
+		quaternion = new float[4];
+		gyroDelta = new float[4];
+		measuredQuaternion = new float[4];
+		accelValues = new float[3];
+		magValues = new float[3];
+		measuredMatrix = new float[9];
+		outputMatrix = new float[9];
+	}
+}
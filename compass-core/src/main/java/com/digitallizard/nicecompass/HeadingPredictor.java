@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Estimates how fast the heading is turning, so a reader can work out where it will be by the time
+ * a frame reaches the screen. The gyroscope gives the rate directly when there is one, its rotation
+ * about the gravity vector. Otherwise the rate comes from successive headings, smoothed, with a confidence
+ * that is low when the rate is small next to its own noise, so jitter at rest is not amplified.
+ */
+public class HeadingPredictor {
+	static final long MAX_HORIZON = 100000000L; // 100 ms, further ahead the guess is worse than the lag
+	static final float MAX_EXTRAPOLATION = 15f; // degrees
+	private static final long RATE_TIME_CONSTANT = 80000000L; // 80 ms
+	static final long MAX_GYRO_AGE = 100000000L; // 100 ms, an older gyroscope rate is not used
+	private static final long MAX_GAP = 500000000L; // after a longer gap the rate starts again
+	private static final double SIGNIFICANCE = 4; // the squared rate must be this many variances before it is half trusted
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final float DEGREES_PER_RADIAN = (float)(180 / Math.PI);
+	
+	private double rate; // radians per second, clockwise seen from above like the azimuth
+	private double rateNoise; // variance of the unsmoothed rate about the smoothed one
+	private float confidence;
+	private float previousHeading;
+	private long previousTimestamp;
+	private boolean hasHeading;
+	// the gyroscope's rate about gravity, when there is one
+	private final float[] gravity;
+	private boolean hasGravity;
+	private float gyroRate;
+	private long gyroTimestamp;
+	private boolean hasGyroRate;
+	
+	/** the signed difference between two headings, in the range -pi < x <= pi **/
+	private static double headingDifference(double to, double from) {
+		double difference = (to - from) % (2 * Math.PI);
+		if(difference > Math.PI) {
+			difference -= 2 * Math.PI;
+		} else if(difference <= -Math.PI) {
+			difference += 2 * Math.PI;
+		}
+		return difference;
+	}
+	
+	/** takes a published heading in radians, and the sensor time it is for **/
+	public void onHeading(float heading, long timestamp) {
+		long elapsed = timestamp - previousTimestamp;
+		if(hasGyroRate && Math.abs(timestamp - gyroTimestamp) <= MAX_GYRO_AGE) {
+			rate = gyroRate;
+			rateNoise = 0;
+			confidence = 1f;
+		} else if(!hasHeading || elapsed <= 0 || elapsed > MAX_GAP) {
+			rate = 0;
+			rateNoise = 0;
+			confidence = 0f;
+		} else {
+			double dt = elapsed / NANOS_PER_SECOND;
+			double rawRate = headingDifference(heading, previousHeading) / dt;
+			double alpha = 1 - Math.exp(-(double)elapsed / RATE_TIME_CONSTANT);
+			double residual = rawRate - rate;
+			rate += alpha * residual;
+			rateNoise += alpha * (residual * residual - rateNoise);
+			// the variance of an exponential average is the input's times alpha / (2 - alpha)
+			double rateVariance = rateNoise * alpha / (2 - alpha);
+			double squaredRate = rate * rate;
+			confidence = (squaredRate > 0) ? (float)(squaredRate / (squaredRate + SIGNIFICANCE * rateVariance)) : 0f;
+		}
+		previousHeading = heading;
+		previousTimestamp = timestamp;
+		hasHeading = true;
+	}
+	
+	/** the latest accelerometer reading, which way up the phone is **/
+	public void onAccelerometer(float x, float y, float z) {
+		float norm = (float)Math.sqrt(x * x + y * y + z * z);
+		if(norm > 0) {
+			gravity[0] = x / norm;
+			gravity[1] = y / norm;
+			gravity[2] = z / norm;
+			hasGravity = true;
+		}
+	}
+	
+	public void onGyroscope(float x, float y, float z, long timestamp) {
+		if(!hasGravity) {
+			return;
+		}
+		// the accelerometer points up, turning anticlockwise about up takes the azimuth down
+		gyroRate = -(x * gravity[0] + y * gravity[1] + z * gravity[2]);
+		gyroTimestamp = timestamp;
+		hasGyroRate = true;
+	}
+	
+	/** radians per second **/
+	public float getRate() {
+		return (float)rate;
+	}
+	
+	/** 0 when the rate is no better than noise, 1 when it can be trusted **/
+	public float getConfidence() {
+		return confidence;
+	}
+	
+	public void reset() {
+		rate = 0;
+		rateNoise = 0;
+		confidence = 0f;
+		hasHeading = false;
+		hasGravity = false;
+		hasGyroRate = false;
+	}
+	
+	/**
+	 * Moves a bearing in degrees on by a rate in radians per second for the given time, scaled by the confidence.
+	 * The time is clamped to MAX_HORIZON and the change to MAX_EXTRAPOLATION, a wrong guess must stay small.
+	 */
+	public static float extrapolate(float bearing, float rate, float confidence, long horizonNanos) {
+		if(horizonNanos <= 0 || !(confidence > 0)) {
+			return bearing;
+		}
+		long horizon = Math.min(horizonNanos, MAX_HORIZON);
+		float change = (float)(rate * confidence * (horizon / NANOS_PER_SECOND)) * DEGREES_PER_RADIAN;
+		change = Math.max(-MAX_EXTRAPOLATION, Math.min(MAX_EXTRAPOLATION, change));
+		return bearing + change;
+	}
+	
+	public HeadingPredictor() {
+		gravity = new float[3];
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Smooths the heading with a One Euro filter, a low pass whose cutoff rises with the turning speed.
+ * Holding still the cutoff is low and jitter is removed, turning it is high and the heading keeps up.
+ * The heading is filtered as a unit vector, its sine and cosine, so 359 and 1 degrees average to 0
+ * rather than 180. Each step uses the sensor timestamps, so the output depends on the readings and
+ * when they were taken, never on how often anything reads it. Between readings the heading is taken
+ * to move steadily from one to the next, so a faster sensor sampling the same motion gives the same result.
+ */
+public class HeadingSmoother {
+	public static final int PRESET_RESPONSIVE = 0;
+	public static final int PRESET_BALANCED = 1;
+	public static final int PRESET_SMOOTH = 2;
+	
+	// the cutoff at rest in Hz, and how much it rises in Hz per radian per second of turning
+	private static final float[] PRESET_MIN_CUTOFF = {2f, 1f, 0.3f};
+	private static final float[] PRESET_SPEED_COEFFICIENT = {4f, 2f, 1f};
+	private static final float SPEED_CUTOFF = 1f; // Hz, the turning speed is smoothed as well so noise does not open the filter
+	private static final long MAX_GAP = 1000000000L; // 1 s, after a longer gap the filter starts again
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private final double minCutoff;
+	private final double speedCoefficient;
+	private double sine;
+	private double cosine;
+	private double speed; // radians per second, smoothed
+	private double previousHeading; // radians, unsmoothed
+	private double previousSine;
+	private double previousCosine;
+	private long previousTimestamp;
+	private boolean hasHeading;
+	
+	/** the fraction of the way an exponential filter moves towards its input in the given time **/
+	private static double smoothingFactor(double cutoff, double dt) {
+		return 1 - Math.exp(-2 * Math.PI * cutoff * dt);
+	}
+	
+	/** the signed difference between two headings, in the range -pi < x <= pi **/
+	private static double headingDifference(double to, double from) {
+		double difference = (to - from) % (2 * Math.PI);
+		if(difference > Math.PI) {
+			difference -= 2 * Math.PI;
+		} else if(difference <= -Math.PI) {
+			difference += 2 * Math.PI;
+		}
+		return difference;
+	}
+	
+	/** takes a heading in radians and returns the smoothed one, in the range -pi to pi **/
+	public float update(float heading, long timestamp) {
+		long elapsed = timestamp - previousTimestamp;
+		if(hasHeading && elapsed <= 0) {
+			// a repeat of the last reading's time, or one from before it, changes nothing
+			return getHeading();
+		}
+		double newSine = Math.sin(heading);
+		double newCosine = Math.cos(heading);
+		if(!hasHeading || elapsed > MAX_GAP) {
+			sine = newSine;
+			cosine = newCosine;
+			speed = 0;
+			hasHeading = true;
+		} else {
+			double dt = elapsed / NANOS_PER_SECOND;
+			double rawSpeed = headingDifference(heading, previousHeading) / dt;
+			speed += smoothingFactor(SPEED_CUTOFF, dt) * (rawSpeed - speed);
+			// the exact response to an input moving in a straight line from the last reading to this one. holding
+			// the last reading instead would lag by half the interval, more at slower sensor rates
+			double exponent = 2 * Math.PI * (minCutoff + speedCoefficient * Math.abs(speed)) * dt;
+			double alpha = 1 - Math.exp(-exponent);
+			double ramp = 1 - alpha / exponent;
+			sine += alpha * (previousSine - sine) + ramp * (newSine - previousSine);
+			cosine += alpha * (previousCosine - cosine) + ramp * (newCosine - previousCosine);
+		}
+		previousSine = newSine;
+		previousCosine = newCosine;
+		previousHeading = heading;
+		previousTimestamp = timestamp;
+		return getHeading();
+	}
+	
+	/** the smoothed heading in radians, 0 before the first update **/
+	public float getHeading() {
+		return hasHeading ? (float)Math.atan2(sine, cosine) : 0f;
+	}
+	
+	public void reset() {
+		hasHeading = false;
+	}
+	
+	/** one of the PRESET_ constants **/
+	public static HeadingSmoother create(int preset) {
+		return new HeadingSmoother(PRESET_MIN_CUTOFF[preset], PRESET_SPEED_COEFFICIENT[preset]);
+	}
+	
+	/** minCutoff is in Hz, speedCoefficient in Hz per radian per second of turning **/
+	public HeadingSmoother(float minCutoff, float speedCoefficient) {
+		this.minCutoff = minCutoff;
+		this.speedCoefficient = speedCoefficient;
+	}
+}
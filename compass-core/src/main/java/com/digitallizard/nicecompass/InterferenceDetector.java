@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Decides whether the magnetometer is measuring the earth's field or something nearby, e.g. a car or a speaker.
+ * The strength and the dip of the field are tracked over a sliding window and compared with what the
+ * GeomagneticModel predicts, so a single odd sample cannot raise the alarm.
+ * Interference is raised as soon as the window looks wrong, but it is only cleared once the field
+ * has looked right, by a clear margin, for a while. This stops the status flickering at the edges.
+ * Fields are in microtesla, as the sensors report them, angles in degrees.
+ */
+public class InterferenceDetector {
+	static final int WINDOW = 16; // magnetometer samples
+	static final int MIN_SAMPLES = 8; // before this the field is assumed to be fine
+	static final int CLEAR_SAMPLES = 8; // the field must look fine for this many samples in a row
+	
+	// the strength may be this far from the model, as a fraction of it
+	static final float ENTER_STRENGTH_ERROR = 0.25f;
+	static final float CLEAR_STRENGTH_ERROR = 0.15f;
+	// without a model anything the earth could produce is accepted, roughly 22 to 67 microtesla
+	static final float MIN_EARTH_FIELD = 20f;
+	static final float MAX_EARTH_FIELD = 70f;
+	static final float CLEAR_EARTH_MARGIN = 3f;
+	// a field that swings about is being disturbed, even if it averages out about right
+	static final float ENTER_STRENGTH_SPREAD = 0.2f; // standard deviation as a fraction of the expected strength
+	static final float CLEAR_STRENGTH_SPREAD = 0.1f;
+	// how far the dip may be from the model's inclination
+	static final float ENTER_DIP_ERROR = 12f;
+	static final float CLEAR_DIP_ERROR = 8f;
+	
+	private static final float NANOTESLA_PER_MICROTESLA = 1000f;
+	private static final float STANDARD_GRAVITY = 9.80665f;
+	private static final float GRAVITY_TOLERANCE = 0.1f; // accelerations further from 1g are not just gravity
+	private static final float DEGREES_PER_RADIAN = (float)(180 / Math.PI);
+	
+	private final SlidingWindow strength;
+	private final SlidingWindow dip;
+	private float gravityX;
+	private float gravityY;
+	private float gravityZ;
+	private boolean hasGravity; // false whilst the latest acceleration is more than gravity
+	private boolean interference;
+	private int clearSamples;
+	
+	/** the latest accelerometer reading, used to measure the dip of the field while the device is still **/
+	public void onAccelerometer(float x, float y, float z) {
+		float magnitude = (float)Math.sqrt(x * x + y * y + z * z);
+		hasGravity = Math.abs(magnitude - STANDARD_GRAVITY) < GRAVITY_TOLERANCE * STANDARD_GRAVITY;
+		gravityX = x;
+		gravityY = y;
+		gravityZ = z;
+	}
+	
+	/**
+	 * Adds a magnetometer reading, returns whether there is interference.
+	 * model may be null if the location is not known yet, then only the strength is checked, against the whole earth.
+	 */
+	public boolean onMagneticField(float x, float y, float z, GeomagneticModel model) {
+		float magnitude = (float)Math.sqrt(x * x + y * y + z * z);
+		strength.add(magnitude);
+		if(hasGravity && magnitude > 0) {
+			// the accelerometer points up, the field dips below the horizon
+			float upwards = (x * gravityX + y * gravityY + z * gravityZ) / (magnitude * STANDARD_GRAVITY);
+			dip.add(-(float)Math.asin(Math.max(-1f, Math.min(1f, upwards))) * DEGREES_PER_RADIAN);
+		}
+		if(strength.getCount() < MIN_SAMPLES) {
+			return interference;
+		}
+		
+		if(!interference) {
+			if(looksDisturbed(model, ENTER_STRENGTH_ERROR, 0f, ENTER_STRENGTH_SPREAD, ENTER_DIP_ERROR)) {
+				interference = true;
+				clearSamples = 0;
+			}
+		} else if(looksDisturbed(model, CLEAR_STRENGTH_ERROR, CLEAR_EARTH_MARGIN, CLEAR_STRENGTH_SPREAD, CLEAR_DIP_ERROR)) {
+			clearSamples = 0;
+		} else if(++clearSamples >= CLEAR_SAMPLES) {
+			interference = false;
+		}
+		return interference;
+	}
+	
+	private boolean looksDisturbed(GeomagneticModel model, float strengthError, float earthMargin, float spread, float dipError) {
+		float meanStrength = strength.getMean();
+		float expectedStrength;
+		if(model != null) {
+			expectedStrength = model.getFieldStrength() / NANOTESLA_PER_MICROTESLA;
+			if(Math.abs(meanStrength - expectedStrength) > strengthError * expectedStrength) {
+				return true;
+			}
+		} else {
+			expectedStrength = (MIN_EARTH_FIELD + MAX_EARTH_FIELD) / 2;
+			if(meanStrength < MIN_EARTH_FIELD + earthMargin || meanStrength > MAX_EARTH_FIELD - earthMargin) {
+				return true;
+			}
+		}
+		if(strength.getStandardDeviation() > spread * expectedStrength) {
+			return true;
+		}
+		// the dip needs a model that knows the inclination, and some still moments to measure it in
+		float inclination = (model != null) ? model.getInclination() : Float.NaN;
+		if(!Float.isNaN(inclination) && dip.getCount() >= MIN_SAMPLES) {
+			return Math.abs(dip.getMean() - inclination) > dipError;
+		}
+		return false;
+	}
+	
+	public boolean hasInterference() {
+		return interference;
+	}
+	
+	/** the mean strength over the window, in microtesla **/
+	public float getMeanStrength() {
+		return strength.getMean();
+	}
+	
+	/** the mean dip over the window, NaN if the device has not been still **/
+	public float getMeanDip() {
+		return dip.getMean();
+	}
+	
+	public void reset() {
+		strength.reset();
+		dip.reset();
+		hasGravity = false;
+		interference = false;
+		clearSamples = 0;
+	}
+	
+	public InterferenceDetector() {
+		strength = new SlidingWindow(WINDOW);
+		dip = new SlidingWindow(WINDOW);
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Fuses the sensors with an extended kalman filter over the orientation quaternion.
+ * The gyroscope drives the prediction, the quaternion derived from the accelerometer and magnetometer
+ * is the measurement. Unlike the complementary filter the blend adapts to how much each source is trusted.
+ * All matrices are 4x4 row major and preallocated.
+ */
+public class KalmanFilterEngine extends GyroFusionEngine {
+	public static final float DEFAULT_GYRO_NOISE = 0.2f; // radians per second, includes unmodelled bias
+	public static final float DEFAULT_MEASUREMENT_NOISE = 0.05f; // quaternion units, roughly 6 degrees
+	
+	private final float gyroNoise;
+	private final float measurementVariance;
+	private final float[] covariance; // P
+	private final float[] transition; // F
+	private final float[] temp;
+	private final float[] gain; // K
+	private final float[] innovation; // S, inverted in place
+	private final float[] inverseWork;
+	private final float[] state;
+	private boolean predictedSinceCorrection;
+	
+	private static void multiply(float[] a, float[] b, float[] out) {
+		for(int row = 0; row < 4; row++) {
+			for(int col = 0; col < 4; col++) {
+				float sum = 0;
+				for(int i = 0; i < 4; i++) {
+					sum += a[row * 4 + i] * b[i * 4 + col];
+				}
+				out[row * 4 + col] = sum;
+			}
+		}
+	}
+	
+	/** out = a * b transposed **/
+	private static void multiplyTransposed(float[] a, float[] b, float[] out) {
+		for(int row = 0; row < 4; row++) {
+			for(int col = 0; col < 4; col++) {
+				float sum = 0;
+				for(int i = 0; i < 4; i++) {
+					sum += a[row * 4 + i] * b[col * 4 + i];
+				}
+				out[row * 4 + col] = sum;
+			}
+		}
+	}
+	
+	/** inverts the matrix in place using gauss jordan elimination, returns false if it is singular **/
+	private boolean invert(float[] m) {
+		float[] work = inverseWork; // 4 rows of 8, the matrix then the identity
+		for(int row = 0; row < 4; row++) {
+			for(int col = 0; col < 4; col++) {
+				work[row * 8 + col] = m[row * 4 + col];
+				work[row * 8 + col + 4] = (row == col) ? 1f : 0f;
+			}
+		}
+		for(int pivot = 0; pivot < 4; pivot++) {
+			// partial pivoting keeps the elimination stable
+			int best = pivot;
+			for(int row = pivot + 1; row < 4; row++) {
+				if(Math.abs(work[row * 8 + pivot]) > Math.abs(work[best * 8 + pivot])) {
+					best = row;
+				}
+			}
+			if(Math.abs(work[best * 8 + pivot]) < 1e-12f) {
+				return false;
+			}
+			if(best != pivot) {
+				for(int col = 0; col < 8; col++) {
+					float swap = work[pivot * 8 + col];
+					work[pivot * 8 + col] = work[best * 8 + col];
+					work[best * 8 + col] = swap;
+				}
+			}
+			float scale = 1f / work[pivot * 8 + pivot];
+			for(int col = 0; col < 8; col++) {
+				work[pivot * 8 + col] *= scale;
+			}
+			for(int row = 0; row < 4; row++) {
+				if(row != pivot) {
+					float factor = work[row * 8 + pivot];
+					for(int col = 0; col < 8; col++) {
+						work[row * 8 + col] -= factor * work[pivot * 8 + col];
+					}
+				}
+			}
+		}
+		for(int row = 0; row < 4; row++) {
+			for(int col = 0; col < 4; col++) {
+				m[row * 4 + col] = work[row * 8 + col + 4];
+			}
+		}
+		return true;
+	}
+	
+	private void addProcessNoise(float dt) {
+		// the gyro noise integrated over dt moves each component by about half the angle
+		float sigma = gyroNoise * dt * 0.5f;
+		float variance = sigma * sigma;
+		for(int i = 0; i < 4; i++) {
+			covariance[i * 5] += variance;
+		}
+	}
+	
+	@Override
+	protected void predict(float wx, float wy, float wz, float dt) {
+		OrientationMath.gyroDeltaQuaternion(gyroDelta, wx, wy, wz, dt);
+		float dw = gyroDelta[0], dx = gyroDelta[1], dy = gyroDelta[2], dz = gyroDelta[3];
+		// q * dq written as a matrix acting on q, this is also the jacobian
+		transition[0] = dw;  transition[1] = -dx;  transition[2] = -dy;  transition[3] = -dz;
+		transition[4] = dx;  transition[5] = dw;   transition[6] = dz;   transition[7] = -dy;
+		transition[8] = dy;  transition[9] = -dz;  transition[10] = dw;  transition[11] = dx;
+		transition[12] = dz; transition[13] = dy;  transition[14] = -dx; transition[15] = dw;
+		
+		OrientationMath.multiplyQuaternion(quaternion, gyroDelta);
+		
+		// P = F P F' + Q
+		multiply(transition, covariance, temp);
+		multiplyTransposed(temp, transition, covariance);
+		addProcessNoise(dt);
+		predictedSinceCorrection = true;
+	}
+	
+	@Override
+	protected void correct(float[] measured, float dt) {
+		// without gyroscope samples the uncertainty still has to grow, otherwise the filter would stop listening
+		if(!predictedSinceCorrection) {
+			addProcessNoise(dt);
+		}
+		predictedSinceCorrection = false;
+		
+		// S = P + R, the measurement is the state itself so H is the identity
+		System.arraycopy(covariance, 0, innovation, 0, 16);
+		for(int i = 0; i < 4; i++) {
+			innovation[i * 5] += measurementVariance;
+		}
+		if(!invert(innovation)) {
+			return;
+		}
+		// K = P S^-1
+		multiply(covariance, innovation, gain);
+		
+		// q = q + K (z - q)
+		for(int row = 0; row < 4; row++) {
+			float sum = 0;
+			for(int i = 0; i < 4; i++) {
+				sum += gain[row * 4 + i] * (measured[i] - quaternion[i]);
+			}
+			state[row] = quaternion[row] + sum;
+		}
+		System.arraycopy(state, 0, quaternion, 0, 4);
+		OrientationMath.normalizeQuaternion(quaternion);
+		
+		// P = (I - K) P
+		multiply(gain, covariance, temp);
+		for(int i = 0; i < 16; i++) {
+			covariance[i] -= temp[i];
+		}
+	}
+	
+	@Override
+	protected void initialize() {
+		// start with the uncertainty of a single measurement
+		for(int i = 0; i < 16; i++) {
+			covariance[i] = 0;
+		}
+		for(int i = 0; i < 4; i++) {
+			covariance[i * 5] = measurementVariance;
+		}
+		predictedSinceCorrection = false;
+	}
+	
+	public KalmanFilterEngine(float gyroNoise, float measurementNoise) {
+		this.gyroNoise = gyroNoise;
+		measurementVariance = measurementNoise * measurementNoise;
+		covariance = new float[16];
+		transition = new float[16];
+		temp = new float[16];
+		gain = new float[16];
+		innovation = new float[16];
+		inverseWork = new float[32];
+		state = new float[4];
+	}
+	
+	public KalmanFilterEngine() {
+		this(DEFAULT_GYRO_NOISE, DEFAULT_MEASUREMENT_NOISE);
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of durations in nanoseconds, which any thread can record into without locking.
+ * Buckets are log linear: every power of two is split into eight, so a reported percentile is within 12.5%.
+ * Covers every positive long in under 500 buckets, and never allocates after construction.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + SUB_BUCKETS;
+	private static final double NANOS_PER_MILLI = 1e6;
+	
+	private final AtomicLongArray counts;
+	
+	static int bucketOf(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int)Math.max(value, 0); // the smallest values get a bucket each
+		}
+		// the position of the top bit picks the power of two, the next bits pick the sub bucket
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	/** the smallest value that falls into the bucket **/
+	static long lowestValueOf(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+	}
+	
+	public void record(long nanos) {
+		counts.incrementAndGet(bucketOf(nanos));
+	}
+	
+	public long getCount() {
+		long total = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+	
+	/**
+	 * The value below which the given percentage of recordings fall, or -1 if nothing has been recorded.
+	 * Reports the top of the bucket, so it errs on the slow side. Recordings made during the call may or may not count.
+	 */
+	public long getPercentile(double percent) {
+		long total = getCount();
+		if(total == 0) {
+			return -1;
+		}
+		long target = Math.max(1, (long)Math.ceil(total * percent / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if(seen >= target) {
+				return (i + 1 < BUCKET_COUNT) ? lowestValueOf(i + 1) - 1 : Long.MAX_VALUE;
+			}
+		}
+		return lowestValueOf(BUCKET_COUNT - 1); // recordings arrived whilst counting
+	}
+	
+	public void reset() {
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+	}
+	
+	/** count, p50, p95 and p99 in milliseconds **/
+	@Override
+	public String toString() {
+		if(getCount() == 0) {
+			return "n=0";
+		}
+		return String.format(Locale.ROOT, "n=%d p50=%.2fms p95=%.2fms p99=%.2fms", getCount(),
+				getPercentile(50) / NANOS_PER_MILLI, getPercentile(95) / NANOS_PER_MILLI, getPercentile(99) / NANOS_PER_MILLI);
+	}
+	
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKET_COUNT);
+	}
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Corrects magnetometer readings for magnets and metal that move with the phone, e.g. a case or a car mount.
+ * The hard iron offset is taken away, then the soft iron matrix turns the squashed ellipsoid
+ * the readings lie on back into a sphere. Instances never change, a new fit is a new instance.
+ */
+public final class MagneticCalibration {
+	public static final int SIZE = 12; // floats in the array form, offset then matrix
+	private static final float MAX_STORED_VALUE = 1000f; // anything bigger is corrupt
+	
+	private final float offsetX;
+	private final float offsetY;
+	private final float offsetZ;
+	private final float m00, m01, m02, m10, m11, m12, m20, m21, m22; // soft iron, row major
+	
+	/** writes the corrected reading into out, allocates nothing **/
+	public void apply(float x, float y, float z, float[] out) {
+		x -= offsetX;
+		y -= offsetY;
+		z -= offsetZ;
+		out[0] = m00 * x + m01 * y + m02 * z;
+		out[1] = m10 * x + m11 * y + m12 * z;
+		out[2] = m20 * x + m21 * y + m22 * z;
+	}
+	
+	/** the hard iron offset, in microtesla **/
+	public float getOffset(int axis) {
+		return (axis == 0) ? offsetX : (axis == 1) ? offsetY : offsetZ;
+	}
+	
+	/** offset then matrix, for storing **/
+	public float[] toArray() {
+		return new float[] {offsetX, offsetY, offsetZ, m00, m01, m02, m10, m11, m12, m20, m21, m22};
+	}
+	
+	/** the inverse of toArray, returns null if the values cannot be a calibration **/
+	public static MagneticCalibration fromArray(float[] values) {
+		if(values == null || values.length != SIZE) {
+			return null;
+		}
+		for(int i = 0; i < SIZE; i++) {
+			if(!(Math.abs(values[i]) < MAX_STORED_VALUE)) {
+				return null; // catches NaN too
+			}
+		}
+		return new MagneticCalibration(values[0], values[1], values[2], values);
+	}
+	
+	/** matrix holds the soft iron matrix, row major, starting at index 3 **/
+	MagneticCalibration(float offsetX, float offsetY, float offsetZ, float[] matrix) {
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		this.offsetZ = offsetZ;
+		m00 = matrix[3];
+		m01 = matrix[4];
+		m02 = matrix[5];
+		m10 = matrix[6];
+		m11 = matrix[7];
+		m12 = matrix[8];
+		m20 = matrix[9];
+		m21 = matrix[10];
+		m22 = matrix[11];
+	}
+}
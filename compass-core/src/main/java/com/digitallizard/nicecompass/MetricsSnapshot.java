@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * The PipelineMetrics counters at one moment. Rates come from comparing two snapshots.
+ * A snapshot is meant to be reused, so the overlay can refresh it every second without allocating.
+ */
+public class MetricsSnapshot {
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	long nanoTime;
+	final long[] sensorEvents = new long[PipelineMetrics.MAX_SENSOR_TYPE + 1];
+	long recomputes;
+	long freshReads;
+	long cachedReads;
+	long overwritten;
+	long interferenceTransitions;
+	long geomagneticUpdates;
+	long gated;
+	
+	public long getNanoTime() {
+		return nanoTime;
+	}
+	
+	public long getSensorEvents(int type) {
+		return sensorEvents[(type >= 0 && type <= PipelineMetrics.MAX_SENSOR_TYPE) ? type : 0];
+	}
+	
+	/** events per second of the given sensor type between an earlier snapshot and this one **/
+	public double getEventRate(int type, MetricsSnapshot earlier) {
+		long elapsed = nanoTime - earlier.nanoTime;
+		if(elapsed <= 0) {
+			return 0;
+		}
+		return (getSensorEvents(type) - earlier.getSensorEvents(type)) * NANOS_PER_SECOND / elapsed;
+	}
+	
+	public long getRecomputes() {
+		return recomputes;
+	}
+	
+	public long getFreshReads() {
+		return freshReads;
+	}
+	
+	public long getCachedReads() {
+		return cachedReads;
+	}
+	
+	public long getOverwritten() {
+		return overwritten;
+	}
+	
+	public long getInterferenceTransitions() {
+		return interferenceTransitions;
+	}
+	
+	public long getGeomagneticUpdates() {
+		return geomagneticUpdates;
+	}
+	
+	public long getGated() {
+		return gated;
+	}
+	
+	public void copyFrom(MetricsSnapshot other) {
+		nanoTime = other.nanoTime;
+		System.arraycopy(other.sensorEvents, 0, sensorEvents, 0, sensorEvents.length);
+		recomputes = other.recomputes;
+		freshReads = other.freshReads;
+		cachedReads = other.cachedReads;
+		overwritten = other.overwritten;
+		interferenceTransitions = other.interferenceTransitions;
+		geomagneticUpdates = other.geomagneticUpdates;
+		gated = other.gated;
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Moves the compass card towards its target bearing as a critically damped spring.
+ * Each step uses the closed form solution of the spring, so for a given target the card ends up in
+ * the same place however the time is divided into frames. The frame rate can then be chosen freely.
+ * Bearings are in degrees and the card always takes the shortest way round.
+ */
+public class NeedleSpring {
+	public static final float DEFAULT_STIFFNESS = 10f; // natural frequency, radians per second
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private final double omega;
+	private double position; // degrees, 0 <= x < 360
+	private double velocity; // degrees per second
+	
+	private static double wrapBearing(double bearing) {
+		bearing %= 360;
+		if(bearing < 0) {
+			bearing += 360;
+		}
+		return bearing;
+	}
+	
+	/** the signed distance from target to bearing, between -180 and 180 **/
+	private static double offsetFrom(double bearing, double target) {
+		double offset = (bearing - target) % 360;
+		if(offset > 180) {
+			offset -= 360;
+		} else if(offset < -180) {
+			offset += 360;
+		}
+		return offset;
+	}
+	
+	/** moves the card to the given bearing, at rest **/
+	public void reset(float bearing) {
+		position = wrapBearing(bearing);
+		velocity = 0;
+	}
+	
+	/** advances the card towards the target by the given time **/
+	public void update(float target, long deltaNanos) {
+		if(deltaNanos <= 0) {
+			return;
+		}
+		double dt = deltaNanos / NANOS_PER_SECOND;
+		double offset = offsetFrom(position, target);
+		
+		// x(t) = (x0 + (v0 + w x0) t) e^(-w t), differentiated for the velocity
+		double decay = Math.exp(-omega * dt);
+		double temp = (velocity + omega * offset) * dt;
+		double newOffset = (offset + temp) * decay;
+		velocity = (velocity - omega * temp) * decay;
+		position = wrapBearing(target + newOffset);
+	}
+	
+	/** true if the card is within the given distance of the target and slower than the given speed **/
+	public boolean isSettled(float target, float distance, float speed) {
+		return Math.abs(offsetFrom(position, target)) < distance && Math.abs(velocity) < speed;
+	}
+	
+	public float getBearing() {
+		return (float)position;
+	}
+	
+	public float getVelocity() {
+		return (float)velocity;
+	}
+	
+	public NeedleSpring(float stiffness) {
+		omega = stiffness;
+	}
+	
+	public NeedleSpring() {
+		this(DEFAULT_STIFFNESS);
+	}
+}
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Turns raw sensor samples into an orientation. Implementations are plain java and keep all of their state
+ * preallocated, so they can be driven from synthetic traces off the device as well as from CompassManager.
+ * Timestamps are in nanoseconds, as found in SensorEvent.timestamp.
+ * Each method returns true if the orientation changed and should be published.
+ */
+public interface OrientationEngine {
+	boolean onAccelerometer(float x, float y, float z, long timestamp);
+	
+	boolean onMagneticField(float x, float y, float z, long timestamp);
+	
+	/** rates are in radians per second, engines that do not fuse the gyroscope ignore them **/
+	boolean onGyroscope(float x, float y, float z, long timestamp);
+	
+	/**
+	 * A rotation vector fused elsewhere, w is the scalar part.
+	 * Engines that compute the orientation themselves ignore it.
+	 */
+	boolean onRotationVector(float x, float y, float z, float w, long timestamp);
+	
+	/** true if this engine wants the gyroscope registered **/
+	boolean usesGyroscope();
+	
+	boolean hasOrientation();
+	
+	/** fills values with azimuth, pitch and roll in radians **/
+	void getOrientation(float[] values);
+	
+	/** forgets all state, called when the sensors are unregistered **/
+	void reset();
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Plain java versions of the orientation maths we need, so the engines can run off the device.
+ * Rotation matrices are 3x3 row major and map device coordinates onto the world (east, north, up) frame,
+ * the same convention as SensorManager. Quaternions are stored as {w, x, y, z}.
+ * Nothing in here allocates.
+ */
+public final class OrientationMath {
+	private static final float STANDARD_GRAVITY = 9.80665f;
+	private static final float FREE_FALL_GRAVITY_SQUARED = 0.01f * STANDARD_GRAVITY * STANDARD_GRAVITY;
+	private static final float MIN_HORIZONTAL_FIELD = 0.1f;
+	
+	private OrientationMath() {
+	}
+	
+	/**
+	 * Fills r with the rotation matrix for the given gravity and geomagnetic vectors.
+	 * Returns false, leaving r untouched, when the device is in free fall or the field is parallel to gravity.
+	 */
+	public static boolean getRotationMatrix(float[] r, float ax, float ay, float az, float ex, float ey, float ez) {
+		float normSquaredA = ax * ax + ay * ay + az * az;
+		if(normSquaredA < FREE_FALL_GRAVITY_SQUARED) {
+			return false; // the device is in free fall
+		}
+		// east is the cross product of the field and up
+		float hx = ey * az - ez * ay;
+		float hy = ez * ax - ex * az;
+		float hz = ex * ay - ey * ax;
+		float normH = (float)Math.sqrt(hx * hx + hy * hy + hz * hz);
+		if(normH < MIN_HORIZONTAL_FIELD) {
+			return false; // the device is close to magnetic north or south
+		}
+		float invH = 1f / normH;
+		hx *= invH;
+		hy *= invH;
+		hz *= invH;
+		float invA = 1f / (float)Math.sqrt(normSquaredA);
+		ax *= invA;
+		ay *= invA;
+		az *= invA;
+		// north is the cross product of up and east
+		float mx = ay * hz - az * hy;
+		float my = az * hx - ax * hz;
+		float mz = ax * hy - ay * hx;
+		r[0] = hx; r[1] = hy; r[2] = hz;
+		r[3] = mx; r[4] = my; r[5] = mz;
+		r[6] = ax; r[7] = ay; r[8] = az;
+		return true;
+	}
+	
+	/** fills values with azimuth, pitch and roll in radians, exactly as SensorManager.getOrientation **/
+	public static void getOrientation(float[] r, float[] values) {
+		values[0] = (float)Math.atan2(r[1], r[4]);
+		values[1] = (float)Math.asin(-r[7]);
+		values[2] = (float)Math.atan2(-r[6], r[8]);
+	}
+	
+	/** the azimuth in radians of a rotation matrix, for when pitch and roll are not needed **/
+	public static float getAzimuth(float[] r) {
+		return (float)Math.atan2(r[1], r[4]);
+	}
+	
+	/** converts a rotation matrix into a unit quaternion **/
+	public static void quaternionFromMatrix(float[] r, float[] q) {
+		float trace = r[0] + r[4] + r[8];
+		if(trace > 0) {
+			float s = 0.5f / (float)Math.sqrt(trace + 1f);
+			q[0] = 0.25f / s;
+			q[1] = (r[7] - r[5]) * s;
+			q[2] = (r[2] - r[6]) * s;
+			q[3] = (r[3] - r[1]) * s;
+		} else if(r[0] > r[4] && r[0] > r[8]) {
+			float s = 2f * (float)Math.sqrt(1f + r[0] - r[4] - r[8]);
+			q[0] = (r[7] - r[5]) / s;
+			q[1] = 0.25f * s;
+			q[2] = (r[1] + r[3]) / s;
+			q[3] = (r[2] + r[6]) / s;
+		} else if(r[4] > r[8]) {
+			float s = 2f * (float)Math.sqrt(1f + r[4] - r[0] - r[8]);
+			q[0] = (r[2] - r[6]) / s;
+			q[1] = (r[1] + r[3]) / s;
+			q[2] = 0.25f * s;
+			q[3] = (r[5] + r[7]) / s;
+		} else {
+			float s = 2f * (float)Math.sqrt(1f + r[8] - r[0] - r[4]);
+			q[0] = (r[3] - r[1]) / s;
+			q[1] = (r[2] + r[6]) / s;
+			q[2] = (r[5] + r[7]) / s;
+			q[3] = 0.25f * s;
+		}
+		normalizeQuaternion(q);
+	}
+	
+	/**
+	 * The scalar part of a rotation vector, for devices that only report x, y and z.
+	 */
+	public static float rotationVectorScalar(float x, float y, float z) {
+		float w = 1 - x * x - y * y - z * z;
+		return (w > 0) ? (float)Math.sqrt(w) : 0f;
+	}
+	
+	/** converts a unit quaternion into a rotation matrix **/
+	public static void matrixFromQuaternion(float[] q, float[] r) {
+		float w = q[0], x = q[1], y = q[2], z = q[3];
+		float xx = x * x, yy = y * y, zz = z * z;
+		float xy = x * y, xz = x * z, yz = y * z;
+		float wx = w * x, wy = w * y, wz = w * z;
+		r[0] = 1 - 2 * (yy + zz); r[1] = 2 * (xy - wz);     r[2] = 2 * (xz + wy);
+		r[3] = 2 * (xy + wz);     r[4] = 1 - 2 * (xx + zz); r[5] = 2 * (yz - wx);
+		r[6] = 2 * (xz - wy);     r[7] = 2 * (yz + wx);     r[8] = 1 - 2 * (xx + yy);
+	}
+	
+	/**
+	 * Fills dq with the rotation made by the body rates (radians per second) over dt seconds, exp(w * dt / 2).
+	 */
+	public static void gyroDeltaQuaternion(float[] dq, float wx, float wy, float wz, float dt) {
+		float magnitude = (float)Math.sqrt(wx * wx + wy * wy + wz * wz);
+		if(magnitude > 1e-6f) {
+			float halfAngle = magnitude * dt * 0.5f;
+			float sinHalf = (float)Math.sin(halfAngle) / magnitude;
+			dq[0] = (float)Math.cos(halfAngle);
+			dq[1] = wx * sinHalf;
+			dq[2] = wy * sinHalf;
+			dq[3] = wz * sinHalf;
+		} else {
+			// small angle approximation avoids dividing by almost nothing
+			dq[0] = 1f;
+			dq[1] = wx * dt * 0.5f;
+			dq[2] = wy * dt * 0.5f;
+			dq[3] = wz * dt * 0.5f;
+		}
+	}
+	
+	/** q = q * dq, the result is normalised **/
+	public static void multiplyQuaternion(float[] q, float[] dq) {
+		float w = q[0], x = q[1], y = q[2], z = q[3];
+		float dw = dq[0], dx = dq[1], dy = dq[2], dz = dq[3];
+		q[0] = w * dw - x * dx - y * dy - z * dz;
+		q[1] = w * dx + x * dw + y * dz - z * dy;
+		q[2] = w * dy - x * dz + y * dw + z * dx;
+		q[3] = w * dz + x * dy - y * dx + z * dw;
+		normalizeQuaternion(q);
+	}
+	
+	/** flips target onto the same hemisphere as reference, q and -q are the same rotation **/
+	public static void alignQuaternion(float[] reference, float[] target) {
+		float dot = reference[0] * target[0] + reference[1] * target[1] + reference[2] * target[2] + reference[3] * target[3];
+		if(dot < 0) {
+			target[0] = -target[0];
+			target[1] = -target[1];
+			target[2] = -target[2];
+			target[3] = -target[3];
+		}
+	}
+	
+	/** moves q towards target by the given fraction, target must already be aligned with q **/
+	public static void nlerpQuaternion(float[] q, float[] target, float fraction) {
+		q[0] += (target[0] - q[0]) * fraction;
+		q[1] += (target[1] - q[1]) * fraction;
+		q[2] += (target[2] - q[2]) * fraction;
+		q[3] += (target[3] - q[3]) * fraction;
+		normalizeQuaternion(q);
+	}
+	
+	public static void normalizeQuaternion(float[] q) {
+		float norm = (float)Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+		if(norm > 0) {
+			float inv = 1f / norm;
+			q[0] *= inv;
+			q[1] *= inv;
+			q[2] *= inv;
+			q[3] *= inv;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * A reader owned copy of the orientation published by an {@link OrientationState}.
+ * A snapshot is reused frame after frame, it is only rewritten when a newer version is available.
+ */
+public class OrientationSnapshot {
+	private static final float DEGREES_PER_RADIAN = 360 / (2 * (float)Math.PI);
+	
+	long version = -1; // the version this copy was taken at, -1 if nothing has been read yet
+	boolean hasOrientation;
+	float azimuth; // radians
+	float pitch; // radians
+	float roll; // radians
+	float declination; // degrees
+	long timestamp; // nanoseconds, on the sensor event clock
+	float headingRate; // radians per second
+	float rateConfidence;
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	public boolean hasOrientation() {
+		return hasOrientation;
+	}
+	
+	public float getAzimuth() {
+		return azimuth;
+	}
+	
+	public float getPitch() {
+		return pitch;
+	}
+	
+	public float getRoll() {
+		return roll;
+	}
+	
+	public float getDeclination() {
+		return declination;
+	}
+	
+	/** when the sensor event the orientation was worked out from happened **/
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/** how fast the azimuth was turning at the timestamp, in radians per second, see HeadingPredictor **/
+	public float getHeadingRate() {
+		return headingRate;
+	}
+	
+	/** 0 when the heading rate is no better than noise, 1 when it can be trusted **/
+	public float getRateConfidence() {
+		return rateConfidence;
+	}
+	
+	/**
+	 * The bearing extrapolated to the given time on the sensor event clock, e.g. when a frame will be shown.
+	 * In the range 0 <= x < 360.
+	 */
+	public float getPredictedBearing(boolean trueNorth, long sensorTime) {
+		if(!hasOrientation) {
+			return 0f;
+		}
+		float bearing = HeadingPredictor.extrapolate(getBearing(trueNorth), headingRate, rateConfidence, sensorTime - timestamp);
+		bearing %= 360;
+		if(bearing < 0) {
+			bearing += 360;
+		}
+		return bearing;
+	}
+	
+	public float getBearing(boolean trueNorth) {
+		// without orientation data there is no bearing
+		if(!hasOrientation) {
+			return 0f;
+		}
+		
+		float bearing = azimuth * DEGREES_PER_RADIAN; // convert from radians into degrees
+		if(trueNorth) {
+			bearing += declination;
+		}
+		return bearing;
+	}
+	
+	public float getPositiveBearing(boolean trueNorth) {
+		// take the given bearing and convert it into 0 <= x < 360
+		float bearing = getBearing(trueNorth);
+		if(bearing < 0) {
+			bearing += 360;
+		}
+		return bearing;
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Holds the latest orientation and declination as a versioned tuple.
+ * Writers are serialised on this object's monitor, readers never take it. Instead they use a sequence lock:
+ * the sequence is odd whilst a write is in progress and a reader retries if the sequence moved under it.
+ */
+public class OrientationState {
+	private static final float DEGREES_PER_RADIAN = 360 / (2 * (float)Math.PI);
+	
+	// all fields are volatile so the retry check in read() is valid under the java memory model
+	private volatile long sequence;
+	private volatile boolean hasOrientation;
+	private volatile float azimuth;
+	private volatile float pitch;
+	private volatile float roll;
+	private volatile float declination;
+	private volatile long timestamp; // of the sensor event the orientation came from
+	private volatile float headingRate; // radians per second
+	private volatile float rateConfidence;
+	
+	public void publishOrientation(float azimuth, float pitch, float roll, long timestamp) {
+		publishOrientation(azimuth, pitch, roll, timestamp, 0f, 0f);
+	}
+	
+	/** the rate the heading is turning at goes with it, so a reader can extrapolate from a consistent pair **/
+	public synchronized void publishOrientation(float azimuth, float pitch, float roll, long timestamp,
+			float headingRate, float rateConfidence) {
+		sequence++; // odd, readers will retry
+		this.azimuth = azimuth;
+		this.pitch = pitch;
+		this.roll = roll;
+		this.timestamp = timestamp;
+		this.headingRate = headingRate;
+		this.rateConfidence = rateConfidence;
+		hasOrientation = true;
+		sequence++; // even, the tuple is consistent again
+	}
+	
+	public synchronized void publishDeclination(float declination) {
+		sequence++;
+		this.declination = declination;
+		sequence++;
+	}
+	
+	public synchronized void clearOrientation() {
+		sequence++;
+		hasOrientation = false;
+		sequence++;
+	}
+	
+	/** the version of the current tuple, it increases every time something is published **/
+	public long getVersion() {
+		return sequence >>> 1;
+	}
+	
+	/**
+	 * Copies the current tuple into the given snapshot.
+	 * Returns false without touching the snapshot if it already holds the current version.
+	 */
+	public boolean read(OrientationSnapshot snapshot) {
+		while(true) {
+			long start = sequence;
+			if((start & 1) != 0) {
+				// a writer is part way through, give it a chance to finish
+				Thread.yield();
+				continue;
+			}
+			long version = start >>> 1;
+			if(version == snapshot.version) {
+				return false; // nothing has changed, this is the cheap path
+			}
+			
+			boolean newHasOrientation = hasOrientation;
+			float newAzimuth = azimuth;
+			float newPitch = pitch;
+			float newRoll = roll;
+			float newDeclination = declination;
+			long newTimestamp = timestamp;
+			float newHeadingRate = headingRate;
+			float newRateConfidence = rateConfidence;
+			
+			// only accept the values if no write happened whilst we were copying
+			if(sequence == start) {
+				snapshot.version = version;
+				snapshot.hasOrientation = newHasOrientation;
+				snapshot.azimuth = newAzimuth;
+				snapshot.pitch = newPitch;
+				snapshot.roll = newRoll;
+				snapshot.declination = newDeclination;
+				snapshot.timestamp = newTimestamp;
+				snapshot.headingRate = newHeadingRate;
+				snapshot.rateConfidence = newRateConfidence;
+				return true;
+			}
+		}
+	}
+	
+	public float getDeclination() {
+		return declination; // a single volatile read is always consistent
+	}
+	
+	/** reads just the bearing, without needing a snapshot **/
+	public float getBearing(boolean trueNorth) {
+		while(true) {
+			long start = sequence;
+			if((start & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			
+			boolean currentHasOrientation = hasOrientation;
+			float currentAzimuth = azimuth;
+			float currentDeclination = declination;
+			
+			if(sequence == start) {
+				if(!currentHasOrientation) {
+					return 0f;
+				}
+				float bearing = currentAzimuth * DEGREES_PER_RADIAN;
+				if(trueNorth) {
+					bearing += currentDeclination;
+				}
+				return bearing;
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Counts what happens inside a CompassPipeline, cheaply enough to leave on all the time.
+ * Read the counters through a MetricsSnapshot.
+ */
+public class PipelineMetrics {
+	static final int MAX_SENSOR_TYPE = 31; // higher types are counted under 0
+	
+	private final StripedCounter[] sensorEvents; // indexed by sensor type
+	private final StripedCounter recomputes; // events that produced a new orientation
+	private final StripedCounter freshReads; // snapshot reads that found a newer version
+	private final StripedCounter cachedReads; // snapshot reads that found nothing new, so cost nothing
+	private final StripedCounter overwritten; // versions replaced before any reader saw them
+	private final StripedCounter interferenceTransitions;
+	private final StripedCounter geomagneticUpdates;
+	private final StripedCounter gated; // readings a prefilter kept from the engine
+	private final LatencyHistogram ingestTime; // handling one sensor event, recorded by whoever delivers them
+	
+	void countEvent(int type, boolean recomputed) {
+		sensorEvents[(type >= 0 && type <= MAX_SENSOR_TYPE) ? type : 0].increment();
+		if(recomputed) {
+			recomputes.increment();
+		}
+	}
+	
+	void countRead(long previousVersion, long version, boolean fresh) {
+		if(!fresh) {
+			cachedReads.increment();
+			return;
+		}
+		freshReads.increment();
+		// every version the reader skipped over was published for nothing
+		if(previousVersion >= 0 && version - previousVersion > 1) {
+			overwritten.add(version - previousVersion - 1);
+		}
+	}
+	
+	void countInterferenceTransition() {
+		interferenceTransitions.increment();
+	}
+	
+	void countGeomagneticUpdate() {
+		geomagneticUpdates.increment();
+	}
+	
+	void countGated() {
+		gated.increment();
+	}
+	
+	/** how long each sensor event took to handle, from arrival until the orientation was published **/
+	public LatencyHistogram getIngestTime() {
+		return ingestTime;
+	}
+	
+	/** copies the current counts into the given snapshot, allocating nothing **/
+	public void snapshot(MetricsSnapshot snapshot) {
+		snapshot.nanoTime = System.nanoTime();
+		for(int type = 0; type <= MAX_SENSOR_TYPE; type++) {
+			snapshot.sensorEvents[type] = sensorEvents[type].sum();
+		}
+		snapshot.recomputes = recomputes.sum();
+		snapshot.freshReads = freshReads.sum();
+		snapshot.cachedReads = cachedReads.sum();
+		snapshot.overwritten = overwritten.sum();
+		snapshot.interferenceTransitions = interferenceTransitions.sum();
+		snapshot.geomagneticUpdates = geomagneticUpdates.sum();
+		snapshot.gated = gated.sum();
+	}
+	
+	public void reset() {
+		for(int type = 0; type <= MAX_SENSOR_TYPE; type++) {
+			sensorEvents[type].reset();
+		}
+		recomputes.reset();
+		freshReads.reset();
+		cachedReads.reset();
+		overwritten.reset();
+		interferenceTransitions.reset();
+		geomagneticUpdates.reset();
+		gated.reset();
+		ingestTime.reset();
+	}
+	
+	public PipelineMetrics() {
+		sensorEvents = new StripedCounter[MAX_SENSOR_TYPE + 1];
+		for(int type = 0; type <= MAX_SENSOR_TYPE; type++) {
+			sensorEvents[type] = new StripedCounter();
+		}
+		recomputes = new StripedCounter();
+		freshReads = new StripedCounter();
+		cachedReads = new StripedCounter();
+		overwritten = new StripedCounter();
+		interferenceTransitions = new StripedCounter();
+		geomagneticUpdates = new StripedCounter();
+		gated = new StripedCounter();
+		ingestTime = new LatencyHistogram();
+	}
+}
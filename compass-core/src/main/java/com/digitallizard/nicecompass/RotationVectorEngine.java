@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Takes the orientation from a rotation vector that has already been fused, usually by a sensor hub.
+ * The raw sensors are ignored.
+ */
+public class RotationVectorEngine implements OrientationEngine {
+	private final float[] quaternion;
+	private final float[] rotationMatrix;
+	private boolean hasOrientation;
+	
+	public boolean onAccelerometer(float x, float y, float z, long timestamp) {
+		return false; // not used
+	}
+	
+	public boolean onMagneticField(float x, float y, float z, long timestamp) {
+		return false; // not used
+	}
+	
+	public boolean onGyroscope(float x, float y, float z, long timestamp) {
+		return false; // not used
+	}
+	
+	public boolean onRotationVector(float x, float y, float z, float w, long timestamp) {
+		quaternion[0] = w;
+		quaternion[1] = x;
+		quaternion[2] = y;
+		quaternion[3] = z;
+		OrientationMath.normalizeQuaternion(quaternion);
+		OrientationMath.matrixFromQuaternion(quaternion, rotationMatrix);
+		hasOrientation = true;
+		return true;
+	}
+	
+	public boolean usesGyroscope() {
+		return false; // the hub does that for us
+	}
+	
+	public boolean hasOrientation() {
+		return hasOrientation;
+	}
+	
+	public void getOrientation(float[] values) {
+		OrientationMath.getOrientation(rotationMatrix, values);
+	}
+	
+	public void reset() {
+		hasOrientation = false;
+	}
+	
+	public RotationVectorEngine() {
+		quaternion = new float[4];
+		rotationMatrix = new float[9];
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * The median of the last few values. The values are kept twice, in arrival order in a ring and in
+ * value order in a sorted array. Each new value replaces the oldest in both, which costs a shift of the
+ * sorted array, cheap for the handful of values a sensor filter needs and free of allocation.
+ */
+public class RunningMedian {
+	private final float[] ring;
+	private final float[] sorted;
+	private int next; // where the next value goes in the ring
+	private int count;
+	
+	public void add(float value) {
+		int index;
+		if(count == ring.length) {
+			// take the oldest value out of the sorted array, leaving a gap
+			float oldest = ring[next];
+			index = 0;
+			while(sorted[index] != oldest && index < count - 1) {
+				index++;
+			}
+			// slide the gap to where the new value belongs
+			while(index > 0 && sorted[index - 1] > value) {
+				sorted[index] = sorted[index - 1];
+				index--;
+			}
+			while(index < count - 1 && sorted[index + 1] < value) {
+				sorted[index] = sorted[index + 1];
+				index++;
+			}
+		} else {
+			index = count;
+			while(index > 0 && sorted[index - 1] > value) {
+				sorted[index] = sorted[index - 1];
+				index--;
+			}
+			count++;
+		}
+		sorted[index] = value;
+		ring[next] = value;
+		next++;
+		if(next == ring.length) {
+			next = 0;
+		}
+	}
+	
+	/** the middle value, or the mean of the middle two while there are an even number. NaN when empty **/
+	public float getMedian() {
+		if(count == 0) {
+			return Float.NaN;
+		}
+		int middle = count >> 1;
+		return ((count & 1) == 1) ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) * 0.5f;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	public void reset() {
+		next = 0;
+		count = 0;
+	}
+	
+	public RunningMedian(int size) {
+		if(size < 1) {
+			throw new IllegalArgumentException("the median needs at least one value");
+		}
+		ring = new float[size];
+		sorted = new float[size];
+	}
+}
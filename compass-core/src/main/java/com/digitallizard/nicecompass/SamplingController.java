@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Picks how fast the sensors should run from how fast the heading is turning.
+ * The heading is fed in with the sensor timestamps, so the controller can be driven by a fake clock.
+ * Speeds are measured over a short window rather than between events, so sensor noise does not add up.
+ * Slowing down needs the heading to stay calm for a while, speeding up happens straight away.
+ */
+public class SamplingController {
+	/** modes, slowest first **/
+	public static final int MODE_STATIONARY = 0; // slow and batched, nothing is moving
+	public static final int MODE_ACTIVE = 1; // the normal rate
+	public static final int MODE_MOVING = 2; // as fast as is useful, the heading is swinging round
+	
+	private static final long NANOS_PER_SECOND = 1000000000l;
+	static final long WINDOW_NANOS = 250000000l; // speeds are measured over at least this long
+	private static final long MAX_WINDOW_NANOS = 2000000000l; // longer gaps start the measurement again
+	static final float WAKE_SPEED = 15f; // degrees per second, leaves stationary
+	static final float STATIONARY_SPEED = 6f; // degrees per second, below this for long enough is stationary
+	static final long STATIONARY_HOLD_NANOS = 3000000000l;
+	static final float MOVING_SPEED = 45f; // degrees per second, enters moving
+	static final float SLOW_SPEED = 20f; // degrees per second, below this for long enough leaves moving
+	static final long SLOW_HOLD_NANOS = 1000000000l;
+	
+	private int mode;
+	private long windowStart; // -1 until the first heading arrives
+	private float windowHeading;
+	private long calmSince; // when the speed last went over the threshold for slowing down
+	private float speed; // degrees per second over the last window
+	private long modeChanges;
+	
+	/** the absolute difference between two bearings, between 0 and 180 **/
+	private static float angleBetween(float a, float b) {
+		float difference = Math.abs(a - b) % 360;
+		return (difference > 180) ? 360 - difference : difference;
+	}
+	
+	private void setMode(int newMode, long timestamp) {
+		mode = newMode;
+		calmSince = timestamp;
+		modeChanges++;
+	}
+	
+	/**
+	 * Feeds in the latest heading in degrees, with the sensor timestamp it was measured at.
+	 * Returns true if the mode changed and the sensors should be registered again.
+	 */
+	public boolean onHeading(float heading, long timestamp) {
+		long elapsed = timestamp - windowStart;
+		if(windowStart < 0 || elapsed < 0 || elapsed > MAX_WINDOW_NANOS) {
+			// nothing to measure against yet
+			windowStart = timestamp;
+			windowHeading = heading;
+			calmSince = timestamp;
+			return false;
+		}
+		if(elapsed < WINDOW_NANOS) {
+			return false;
+		}
+		speed = angleBetween(heading, windowHeading) * NANOS_PER_SECOND / (float)elapsed;
+		windowStart = timestamp;
+		windowHeading = heading;
+		
+		int previousMode = mode;
+		switch(mode) {
+		case MODE_STATIONARY:
+			if(speed >= MOVING_SPEED) {
+				setMode(MODE_MOVING, timestamp);
+			} else if(speed >= WAKE_SPEED) {
+				setMode(MODE_ACTIVE, timestamp);
+			}
+			break;
+		case MODE_ACTIVE:
+			if(speed >= MOVING_SPEED) {
+				setMode(MODE_MOVING, timestamp);
+			} else if(speed >= STATIONARY_SPEED) {
+				calmSince = timestamp;
+			} else if(timestamp - calmSince >= STATIONARY_HOLD_NANOS) {
+				setMode(MODE_STATIONARY, timestamp);
+			}
+			break;
+		case MODE_MOVING:
+			if(speed >= SLOW_SPEED) {
+				calmSince = timestamp;
+			} else if(timestamp - calmSince >= SLOW_HOLD_NANOS) {
+				setMode(MODE_ACTIVE, timestamp);
+			}
+			break;
+		}
+		return mode != previousMode;
+	}
+	
+	public int getMode() {
+		return mode;
+	}
+	
+	/** degrees per second over the last complete window **/
+	public float getSpeed() {
+		return speed;
+	}
+	
+	/** how many times the mode has changed, each one costs a sensor registration **/
+	public long getModeChanges() {
+		return modeChanges;
+	}
+	
+	/** goes back to the active mode and forgets the heading, for when the sensors start again **/
+	public void reset() {
+		mode = MODE_ACTIVE;
+		windowStart = -1;
+		speed = 0;
+	}
+	
+	public SamplingController() {
+		reset();
+	}
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Cleans up one sensor's readings before an engine sees them, each axis on its own.
+ * Three stages, each of which can be turned off:
+ * - gating drops readings whose magnitude is too far from the expected one, e.g. an accelerometer jolted
+ *   by a footstep is measuring the jolt rather than gravity. A run of dropped readings is let through,
+ *   after that the phone really is accelerating and freezing the heading would be worse
+ * - a running median over a few readings removes single spikes without smearing real turns
+ * - a low pass filter with a time constant, worked out from the timestamps so it behaves the same at any rate
+ * Everything is held in fixed size float arrays, so filtering allocates nothing at the fastest sensor rate.
+ */
+public class SensorPrefilter {
+	public static final float GRAVITY = 9.80665f; // m/s^2, the accelerometer's expected magnitude
+	// the settings the compass uses. a jolt rarely lasts more than a couple of readings, a median of five outlasts it
+	public static final int ACCELEROMETER_MEDIAN = 5;
+	public static final float ACCELEROMETER_GATE = 3f; // m/s^2 of linear acceleration
+	public static final int MAGNETOMETER_MEDIAN = 3;
+	public static final long DEFAULT_TIME_CONSTANT = 40000000L; // 40 ms, well inside the needle's own response
+	static final int MAX_GATED_RUN = 25; // half a second at SENSOR_DELAY_GAME
+	private static final long MAX_GAP = 1000000000L; // 1 s, after a longer gap the low pass starts again
+	
+	private final RunningMedian[] medians; // null when the median is off
+	private final float expectedMagnitude;
+	private final float gateLimit; // 0 when gating is off
+	private final long timeConstant; // nanoseconds, 0 when the low pass is off
+	private final float[] smoothed;
+	private boolean hasSmoothed;
+	private long previousTimestamp;
+	private int gatedRun;
+	private long gatedTotal;
+	
+	private float median(int axis, float value) {
+		if(medians == null) {
+			return value;
+		}
+		medians[axis].add(value);
+		return medians[axis].getMedian();
+	}
+	
+	/**
+	 * Filters one reading into out. Returns false, leaving out alone, if the reading was gated,
+	 * the engine should not be given anything for it.
+	 */
+	public boolean filter(float x, float y, float z, long timestamp, float[] out) {
+		if(gateLimit > 0) {
+			float magnitude = (float)Math.sqrt(x * x + y * y + z * z);
+			if(Math.abs(magnitude - expectedMagnitude) > gateLimit && gatedRun < MAX_GATED_RUN) {
+				gatedRun++;
+				gatedTotal++;
+				return false;
+			}
+			gatedRun = 0;
+		}
+		
+		x = median(0, x);
+		y = median(1, y);
+		z = median(2, z);
+		
+		long elapsed = timestamp - previousTimestamp;
+		previousTimestamp = timestamp;
+		if(timeConstant > 0 && hasSmoothed && elapsed > 0 && elapsed < MAX_GAP) {
+			// the exact decay over the gap, dt / (tau + dt) only approximates it and drifts with the rate
+			float alpha = 1f - (float)Math.exp(-(double)elapsed / timeConstant);
+			smoothed[0] += alpha * (x - smoothed[0]);
+			smoothed[1] += alpha * (y - smoothed[1]);
+			smoothed[2] += alpha * (z - smoothed[2]);
+		} else {
+			smoothed[0] = x;
+			smoothed[1] = y;
+			smoothed[2] = z;
+			hasSmoothed = true;
+		}
+		out[0] = smoothed[0];
+		out[1] = smoothed[1];
+		out[2] = smoothed[2];
+		return true;
+	}
+	
+	public static SensorPrefilter createAccelerometerFilter() {
+		return new SensorPrefilter(ACCELEROMETER_MEDIAN, GRAVITY, ACCELEROMETER_GATE, DEFAULT_TIME_CONSTANT);
+	}
+	
+	/** the field strength varies from place to place, so the magnetometer is not gated, the interference detector watches it **/
+	public static SensorPrefilter createMagnetometerFilter() {
+		return new SensorPrefilter(MAGNETOMETER_MEDIAN, 0f, 0f, DEFAULT_TIME_CONSTANT);
+	}
+	
+	/** how many readings have been dropped by the gate since the filter was made **/
+	public long getGatedCount() {
+		return gatedTotal;
+	}
+	
+	public void reset() {
+		if(medians != null) {
+			for(int axis = 0; axis < 3; axis++) {
+				medians[axis].reset();
+			}
+		}
+		hasSmoothed = false;
+		gatedRun = 0;
+	}
+	
+	/**
+	 * medianSize is the number of readings the median is taken over, 1 or less turns it off.
+	 * Readings more than gateLimit away from expectedMagnitude are gated, a gateLimit of 0 turns gating off.
+	 * timeConstant is in nanoseconds, 0 turns the low pass off.
+	 */
+	public SensorPrefilter(int medianSize, float expectedMagnitude, float gateLimit, long timeConstant) {
+		if(medianSize > 1) {
+			medians = new RunningMedian[3];
+			for(int axis = 0; axis < 3; axis++) {
+				medians[axis] = new RunningMedian(medianSize);
+			}
+		} else {
+			medians = null;
+		}
+		this.expectedMagnitude = expectedMagnitude;
+		this.gateLimit = gateLimit;
+		this.timeConstant = timeConstant;
+		smoothed = new float[3];
+	}
+}
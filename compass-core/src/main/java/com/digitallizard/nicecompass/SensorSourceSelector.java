@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Decides which sensors the heading should come from.
+ * Fused sources computed on a sensor hub are preferred, they cost the application processor almost nothing.
+ * Fusing in software is the fallback, with the gyroscope if there is one.
+ */
+public class SensorSourceSelector {
+	// the same values as android.hardware.Sensor, repeated so this class stays plain java
+	public static final int TYPE_ACCELEROMETER = 1;
+	public static final int TYPE_MAGNETIC_FIELD = 2;
+	public static final int TYPE_GYROSCOPE = 4;
+	public static final int TYPE_ROTATION_VECTOR = 11;
+	public static final int TYPE_MAGNETIC_FIELD_UNCALIBRATED = 14;
+	public static final int TYPE_GEOMAGNETIC_ROTATION_VECTOR = 20;
+	
+	// the api levels the fused sensor types were introduced in
+	private static final int ROTATION_VECTOR_API = 9;
+	private static final int GEOMAGNETIC_ROTATION_VECTOR_API = 19;
+	private static final int MAGNETIC_FIELD_UNCALIBRATED_API = 18;
+	
+	public static final int SOURCE_NONE = 0;
+	public static final int SOURCE_ACCEL_MAG = 1;
+	public static final int SOURCE_GYRO_FUSION = 2;
+	public static final int SOURCE_GEOMAGNETIC_ROTATION_VECTOR = 3;
+	public static final int SOURCE_ROTATION_VECTOR = 4;
+	
+	/** what the selector needs to know about the device, implemented over SensorManager or faked **/
+	public interface SensorCatalog {
+		boolean hasSensor(int type);
+	}
+	
+	public static int select(SensorCatalog catalog, int sdkInt) {
+		// nothing gives a heading without a magnetometer
+		if(!catalog.hasSensor(TYPE_MAGNETIC_FIELD)) {
+			return SOURCE_NONE;
+		}
+		// the full rotation vector fuses the gyroscope as well, so it is both accurate and cheap
+		if(sdkInt >= ROTATION_VECTOR_API && catalog.hasSensor(TYPE_ROTATION_VECTOR)) {
+			return SOURCE_ROTATION_VECTOR;
+		}
+		if(sdkInt >= GEOMAGNETIC_ROTATION_VECTOR_API && catalog.hasSensor(TYPE_GEOMAGNETIC_ROTATION_VECTOR)) {
+			return SOURCE_GEOMAGNETIC_ROTATION_VECTOR;
+		}
+		if(!catalog.hasSensor(TYPE_ACCELEROMETER)) {
+			return SOURCE_NONE;
+		}
+		if(catalog.hasSensor(TYPE_GYROSCOPE)) {
+			return SOURCE_GYRO_FUSION;
+		}
+		return SOURCE_ACCEL_MAG;
+	}
+	
+	/**
+	 * The magnetometer to listen to. The uncalibrated one is preferred when there is one,
+	 * the pipeline fits its own calibration and the platform's bias estimate comes along with each reading.
+	 */
+	public static int selectMagnetometer(SensorCatalog catalog, int sdkInt) {
+		if(sdkInt >= MAGNETIC_FIELD_UNCALIBRATED_API && catalog.hasSensor(TYPE_MAGNETIC_FIELD_UNCALIBRATED)) {
+			return TYPE_MAGNETIC_FIELD_UNCALIBRATED;
+		}
+		return TYPE_MAGNETIC_FIELD;
+	}
+	
+	public static boolean isMagneticField(int type) {
+		return type == TYPE_MAGNETIC_FIELD || type == TYPE_MAGNETIC_FIELD_UNCALIBRATED;
+	}
+	
+	public static boolean isHardwareSource(int source) {
+		return source == SOURCE_ROTATION_VECTOR || source == SOURCE_GEOMAGNETIC_ROTATION_VECTOR;
+	}
+	
+	public static String getSourceName(int source) {
+		switch(source) {
+		case SOURCE_ACCEL_MAG:
+			return "accelerometer + magnetometer";
+		case SOURCE_GYRO_FUSION:
+			return "gyroscope fusion";
+		case SOURCE_GEOMAGNETIC_ROTATION_VECTOR:
+			return "geomagnetic rotation vector";
+		case SOURCE_ROTATION_VECTOR:
+			return "rotation vector";
+		default:
+			return "none";
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * The binary format shared by SensorTraceWriter and SensorTraceReader.
+ * 
+ * A trace is a file header followed by blocks, all big endian:
+ * <pre>
+ * file header:  int FILE_MAGIC, int VERSION
+ * block header: int BLOCK_MAGIC, int payload length, int record count, long first timestamp
+ * record:       byte type, varint zigzag(timestamp - previous timestamp), body
+ * sensor body:  byte count, count x varint(float bits xor the previous bits for this type and axis)
+ * location:     double latitude, double longitude, double altitude, long time, float declination, float field strength,
+ *               float inclination (version 2 and later)
+ * </pre>
+ * The delta state is reset at the start of every block, so each block decodes on its own.
+ * That lets a reader split a file between threads, and drop a block cut short by a crash.
+ * Timestamps are in nanoseconds, on the sensor event clock.
+ */
+final class SensorTrace {
+	static final int FILE_MAGIC = 0x4E435452; // NCTR
+	static final int VERSION = 2;
+	static final int MIN_VERSION = 1; // older versions can still be read
+	static final int FILE_HEADER_SIZE = 8;
+	static final int BLOCK_MAGIC = 0x4E43424B; // NCBK
+	static final int BLOCK_HEADER_SIZE = 20;
+	static final int BLOCK_SIZE = 64 * 1024; // roughly 20 seconds of every sensor at game rate
+	static final int MAX_RECORD_SIZE = 64;
+	
+	static final int TYPE_LOCATION = 0; // sensor types start at 1
+	static final int MAX_TYPE = 31; // covers every sensor type a compass uses
+	static final int MAX_VALUES = 6; // the longest event we record, e.g. uncalibrated sensors
+	
+	private SensorTrace() {
+	}
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a trace written by SensorTraceWriter, see SensorTrace for the format.
+ * The file is memory mapped rather than loaded, so hours of events cost address space, not heap.
+ * Blocks decode independently, so separate threads can read separate ranges of blocks at the same time.
+ */
+public class SensorTraceReader implements Closeable {
+	/** receives the events in the order they were recorded **/
+	public interface Handler {
+		/** values is reused for every event, copy anything that must be kept **/
+		void onSensor(int type, float[] values, int count, long timestamp);
+		
+		/** inclination is NaN in traces older than version 2 **/
+		void onLocation(long timestamp, double latitude, double longitude, double altitude, long time,
+				float declination, float fieldStrength, float inclination);
+	}
+	
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int[] blockOffsets;
+	private final int blockCount;
+	private final boolean hasInclination;
+	
+	/** the number of complete blocks, a block cut short at the end of the file is left out **/
+	public int getBlockCount() {
+		return blockCount;
+	}
+	
+	public int getRecordCount(int block) {
+		return buffer.getInt(blockOffsets[block] + 8);
+	}
+	
+	/** the timestamp of the first event in the block **/
+	public long getFirstTimestamp(int block) {
+		return buffer.getLong(blockOffsets[block] + 12);
+	}
+	
+	private static long getVarint(ByteBuffer in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			int next = in.get();
+			value |= (long)(next & 0x7F) << shift;
+			if((next & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("malformed varint in sensor trace");
+	}
+	
+	/** decodes every event in the file, returns the number of events **/
+	public int read(Handler handler) throws IOException {
+		return readBlocks(0, blockCount, handler);
+	}
+	
+	/** decodes the events in blocks first up to but not including end, returns the number of events **/
+	public int readBlocks(int first, int end, Handler handler) throws IOException {
+		ByteBuffer in = buffer.duplicate(); // a position of our own, the mapping is shared
+		float[] values = new float[SensorTrace.MAX_VALUES];
+		int[] previousBits = new int[(SensorTrace.MAX_TYPE + 1) * SensorTrace.MAX_VALUES];
+		int events = 0;
+		try {
+			for(int block = first; block < end; block++) {
+				int offset = blockOffsets[block];
+				int records = in.getInt(offset + 8);
+				long timestamp = in.getLong(offset + 12);
+				in.position(offset + SensorTrace.BLOCK_HEADER_SIZE);
+				Arrays.fill(previousBits, 0); // deltas start again in every block
+				for(int record = 0; record < records; record++) {
+					int type = in.get() & 0xFF;
+					long delta = getVarint(in);
+					timestamp += (delta >>> 1) ^ -(delta & 1); // undo the zigzag encoding
+					if(type == SensorTrace.TYPE_LOCATION) {
+						double latitude = in.getDouble();
+						double longitude = in.getDouble();
+						double altitude = in.getDouble();
+						long time = in.getLong();
+						float declination = in.getFloat();
+						float fieldStrength = in.getFloat();
+						float inclination = hasInclination ? in.getFloat() : Float.NaN;
+						handler.onLocation(timestamp, latitude, longitude, altitude, time, declination, fieldStrength, inclination);
+					} else {
+						int count = in.get();
+						if(type > SensorTrace.MAX_TYPE || count < 0 || count > SensorTrace.MAX_VALUES) {
+							throw new IOException("corrupt record in sensor trace block " + block);
+						}
+						int base = type * SensorTrace.MAX_VALUES;
+						for(int i = 0; i < count; i++) {
+							int bits = (int)getVarint(in) ^ previousBits[base + i];
+							previousBits[base + i] = bits;
+							values[i] = Float.intBitsToFloat(bits);
+						}
+						handler.onSensor(type, values, count, timestamp);
+					}
+					events++;
+				}
+			}
+		} catch(BufferUnderflowException e) {
+			throw new IOException("sensor trace block overruns its length");
+		}
+		return events;
+	}
+	
+	public void close() throws IOException {
+		file.close(); // the mapping stays valid until it is garbage collected
+	}
+	
+	private int[] findBlocks(int size) {
+		// walk the block headers, stopping at the first one that is damaged or incomplete
+		int[] offsets = new int[16];
+		int count = 0;
+		int offset = SensorTrace.FILE_HEADER_SIZE;
+		while(offset + SensorTrace.BLOCK_HEADER_SIZE <= size) {
+			int length = buffer.getInt(offset + 4);
+			if(buffer.getInt(offset) != SensorTrace.BLOCK_MAGIC || length < 0
+					|| length > size - offset - SensorTrace.BLOCK_HEADER_SIZE) {
+				break;
+			}
+			if(count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			offsets[count++] = offset;
+			offset += SensorTrace.BLOCK_HEADER_SIZE + length;
+		}
+		return Arrays.copyOf(offsets, count);
+	}
+	
+	public SensorTraceReader(File trace) throws IOException {
+		file = new RandomAccessFile(trace, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("sensor traces over 2GB must be split, one buffer cannot map them");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if(size < SensorTrace.FILE_HEADER_SIZE || buffer.getInt(0) != SensorTrace.FILE_MAGIC) {
+				throw new IOException(trace + " is not a sensor trace");
+			}
+			int version = buffer.getInt(4);
+			if(version < SensorTrace.MIN_VERSION || version > SensorTrace.VERSION) {
+				throw new IOException(trace + " is sensor trace version " + version + ", only " + SensorTrace.MIN_VERSION
+						+ " to " + SensorTrace.VERSION + " are supported");
+			}
+			hasInclination = version >= 2;
+			blockOffsets = findBlocks((int)size);
+			blockCount = blockOffsets.length;
+		} catch(IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.io.IOException;
+
+/**
+ * Feeds a recorded trace through a CompassPipeline, the same path live sensor events take.
+ * Replays are deterministic: the pipeline sees the same events with the same timestamps every time.
+ * In real time mode the caller's thread sleeps between events to keep the recorded spacing,
+ * otherwise events are delivered as fast as the pipeline takes them.
+ */
+public class SensorTraceReplayer implements SensorTraceReader.Handler {
+	private static final long NANOS_PER_MILLI = 1000000L;
+	
+	private final CompassPipeline pipeline;
+	private final boolean realTime;
+	private boolean started;
+	private long firstTimestamp;
+	private long startNanos;
+	
+	private void pace(long timestamp) {
+		if(!realTime) {
+			return;
+		}
+		if(!started) {
+			started = true;
+			firstTimestamp = timestamp;
+			startNanos = System.nanoTime();
+			return;
+		}
+		long wait = startNanos + (timestamp - firstTimestamp) - System.nanoTime();
+		if(wait > 0) {
+			try {
+				Thread.sleep(wait / NANOS_PER_MILLI, (int)(wait % NANOS_PER_MILLI));
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt(); // let the caller see it, the event is still delivered
+			}
+		}
+	}
+	
+	public void onSensor(int type, float[] values, int count, long timestamp) {
+		pace(timestamp);
+		pipeline.onSensorChanged(type, values, count, timestamp);
+	}
+	
+	public void onLocation(long timestamp, double latitude, double longitude, double altitude, long time,
+			float declination, float fieldStrength, float inclination) {
+		pace(timestamp);
+		// use the field the device's model gave, so the replay needs no model of its own
+		pipeline.setGeomagneticModel(new FixedGeomagneticModel(declination, fieldStrength, inclination));
+	}
+	
+	/** replays the whole trace, returns the number of events **/
+	public int replay(SensorTraceReader reader) throws IOException {
+		return reader.read(this);
+	}
+	
+	public SensorTraceReplayer(CompassPipeline pipeline, boolean realTime) {
+		this.pipeline = pipeline;
+		this.realTime = realTime;
+	}
+}
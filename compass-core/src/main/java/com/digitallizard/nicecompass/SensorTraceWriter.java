@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Appends sensor and location events to a trace file, in the format described in SensorTrace.
+ * Events are encoded into a block in memory. When it fills up, on flush and on close the block is handed to a
+ * writer thread of its own, so the caller never waits for storage unless the writer falls several blocks behind.
+ * Each record is a delta from the one before, so a sensor event usually takes well under its 12 raw bytes.
+ * Safe to call from several threads, e.g. the sensor and location threads.
+ * A failed write is reported by the next call that hands over a block, flush or close.
+ */
+public class SensorTraceWriter implements Closeable {
+	private static final int BLOCKS = 4; // the one being filled and the ones waiting to be written, recycled
+	// markers on the queue to the writer thread
+	private static final byte[] FLUSH = new byte[0];
+	private static final byte[] CLOSE = new byte[0];
+	
+	private final OutputStream out;
+	private final BlockingQueue<byte[]> freeBlocks;
+	private final BlockingQueue<byte[]> fullBlocks;
+	private final Object progress; // guards completed and failure, shared with the writer thread
+	private long submitted; // blocks and markers handed to the writer thread
+	private long completed; // blocks and markers the writer thread has finished with
+	private IOException failure; // the first write that failed, everything after it is dropped
+	private byte[] block;
+	private final int[] previousBits; // the last float bits written, per type and axis
+	private int position;
+	private int recordCount;
+	private long firstTimestamp;
+	private long previousTimestamp;
+	private boolean closed;
+	
+	private void putByte(int value) {
+		block[position++] = (byte)value;
+	}
+	
+	private static int getInt(byte[] block, int offset) {
+		return (block[offset] << 24) | ((block[offset + 1] & 0xFF) << 16) | ((block[offset + 2] & 0xFF) << 8)
+				| (block[offset + 3] & 0xFF);
+	}
+	
+	private void putInt(int offset, int value) {
+		block[offset] = (byte)(value >>> 24);
+		block[offset + 1] = (byte)(value >>> 16);
+		block[offset + 2] = (byte)(value >>> 8);
+		block[offset + 3] = (byte)value;
+	}
+	
+	private void putLong(int offset, long value) {
+		putInt(offset, (int)(value >>> 32));
+		putInt(offset + 4, (int)value);
+	}
+	
+	private void putLong(long value) {
+		putLong(position, value);
+		position += 8;
+	}
+	
+	/** seven bits a byte, low bits first, the top bit is set on every byte but the last **/
+	private void putVarint(long value) {
+		while((value & ~0x7FL) != 0) {
+			block[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		block[position++] = (byte)value;
+	}
+	
+	private void startRecord(int type, long timestamp) throws IOException {
+		if(position + SensorTrace.MAX_RECORD_SIZE > block.length) {
+			writeBlock();
+		}
+		if(recordCount == 0) {
+			firstTimestamp = timestamp;
+			previousTimestamp = timestamp;
+		}
+		// zigzag encoding keeps small negative deltas small, events from different sensors can arrive out of order
+		long delta = timestamp - previousTimestamp;
+		putByte(type);
+		putVarint((delta << 1) ^ (delta >> 63));
+		previousTimestamp = timestamp;
+		recordCount++;
+	}
+	
+	/** runs on the writer thread until it takes the close marker **/
+	private void writeBlocks() {
+		while(true) {
+			byte[] next;
+			try {
+				next = fullBlocks.take();
+			} catch(InterruptedException e) {
+				continue; // only close stops the writer, the file must not be left open
+			}
+			IOException error = null;
+			try {
+				if(next == CLOSE) {
+					out.close();
+				} else if(next == FLUSH) {
+					out.flush();
+				} else {
+					if(!hasFailed()) {
+						// the length is in the block header
+						out.write(next, 0, SensorTrace.BLOCK_HEADER_SIZE + getInt(next, 4));
+					}
+					freeBlocks.add(next);
+				}
+			} catch(IOException e) {
+				error = e;
+			}
+			synchronized(progress) {
+				if(failure == null) {
+					failure = error;
+				}
+				completed++;
+				progress.notifyAll();
+			}
+			if(next == CLOSE) {
+				return;
+			}
+		}
+	}
+	
+	private boolean hasFailed() {
+		synchronized(progress) {
+			return failure != null;
+		}
+	}
+	
+	private void checkFailure() throws IOException {
+		synchronized(progress) {
+			if(failure != null) {
+				throw new IOException("writing the sensor trace failed", failure);
+			}
+		}
+	}
+	
+	/** queues a block or marker for the writer thread, returns the ticket to wait for it with **/
+	private long submit(byte[] item) throws InterruptedIOException {
+		try {
+			fullBlocks.put(item);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while handing over a sensor trace block");
+		}
+		return ++submitted;
+	}
+	
+	/** waits until the writer thread has finished with everything up to the given ticket **/
+	private void waitFor(long ticket) throws IOException {
+		synchronized(progress) {
+			while(completed < ticket) {
+				try {
+					progress.wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while writing the sensor trace");
+				}
+			}
+		}
+	}
+	
+	private void writeBlock() throws IOException {
+		if(recordCount == 0) {
+			return; // nothing to write
+		}
+		checkFailure();
+		putInt(0, SensorTrace.BLOCK_MAGIC);
+		putInt(4, position - SensorTrace.BLOCK_HEADER_SIZE);
+		putInt(8, recordCount);
+		putLong(12, firstTimestamp);
+		submit(block);
+		try {
+			// only waits if storage has fallen behind by every other block
+			block = freeBlocks.take();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a free sensor trace block");
+		}
+		// the next block must decode without this one
+		position = SensorTrace.BLOCK_HEADER_SIZE;
+		recordCount = 0;
+		Arrays.fill(previousBits, 0);
+	}
+	
+	/**
+	 * Records a sensor event. Type is the android sensor type, values past SensorTrace.MAX_VALUES are dropped.
+	 * Events arriving after close are ignored, so a sensor thread does not have to stop before the trace does.
+	 */
+	public synchronized void writeSensor(int type, float[] values, int count, long timestamp) throws IOException {
+		if(closed) {
+			return;
+		}
+		if(type <= SensorTrace.TYPE_LOCATION || type > SensorTrace.MAX_TYPE) {
+			throw new IllegalArgumentException("sensor type " + type + " cannot be traced");
+		}
+		count = Math.min(count, SensorTrace.MAX_VALUES);
+		startRecord(type, timestamp);
+		putByte(count);
+		int base = type * SensorTrace.MAX_VALUES;
+		for(int i = 0; i < count; i++) {
+			// similar floats share their sign, exponent and high mantissa bits, so the xor is mostly leading zeros
+			int bits = Float.floatToRawIntBits(values[i]);
+			putVarint((bits ^ previousBits[base + i]) & 0xFFFFFFFFL);
+			previousBits[base + i] = bits;
+		}
+	}
+	
+	/** records a location fix, with the declination, field strength and inclination the device's model gave for it **/
+	public synchronized void writeLocation(long timestamp, double latitude, double longitude, double altitude, long time,
+			float declination, float fieldStrength, float inclination) throws IOException {
+		if(closed) {
+			return;
+		}
+		// fixes are rare, so they are stored whole
+		startRecord(SensorTrace.TYPE_LOCATION, timestamp);
+		putLong(Double.doubleToRawLongBits(latitude));
+		putLong(Double.doubleToRawLongBits(longitude));
+		putLong(Double.doubleToRawLongBits(altitude));
+		putLong(time);
+		putInt(position, Float.floatToRawIntBits(declination));
+		putInt(position + 4, Float.floatToRawIntBits(fieldStrength));
+		putInt(position + 8, Float.floatToRawIntBits(inclination));
+		position += 12;
+	}
+	
+	/** records in an older version cannot be mixed with ours, they would be read the wrong way **/
+	private static void checkVersion(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			if(in.readInt() != SensorTrace.FILE_MAGIC) {
+				throw new IOException(file + " is not a sensor trace");
+			}
+			int version = in.readInt();
+			if(version != SensorTrace.VERSION) {
+				throw new IOException("cannot append to " + file + ", it is sensor trace version " + version);
+			}
+		} catch(EOFException e) {
+			throw new IOException(file + " is not a sensor trace");
+		} finally {
+			in.close();
+		}
+	}
+	
+	/** writes out the current block and waits for it, everything recorded so far survives a crash after this **/
+	public synchronized void flush() throws IOException {
+		if(!closed) {
+			writeBlock();
+			waitFor(submit(FLUSH));
+			checkFailure();
+		}
+	}
+	
+	/** writes out the current block, then waits for the writer thread to close the file **/
+	public synchronized void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writeBlock();
+		} finally {
+			waitFor(submit(CLOSE));
+		}
+		checkFailure();
+	}
+	
+	/** opens the file for appending, a new or empty file gets a header first **/
+	public SensorTraceWriter(File file) throws IOException {
+		boolean append = file.length() > 0;
+		if(append) {
+			checkVersion(file);
+		}
+		out = new FileOutputStream(file, true);
+		block = new byte[SensorTrace.BLOCK_SIZE];
+		freeBlocks = new ArrayBlockingQueue<byte[]>(BLOCKS);
+		for(int i = 1; i < BLOCKS; i++) {
+			freeBlocks.add(new byte[SensorTrace.BLOCK_SIZE]);
+		}
+		// room for every block and a marker, so handing over never waits
+		fullBlocks = new ArrayBlockingQueue<byte[]>(BLOCKS + 1);
+		progress = new Object();
+		previousBits = new int[(SensorTrace.MAX_TYPE + 1) * SensorTrace.MAX_VALUES];
+		position = SensorTrace.BLOCK_HEADER_SIZE;
+		if(!append) {
+			// the block is empty, so its start can hold the header until it is written
+			putInt(0, SensorTrace.FILE_MAGIC);
+			putInt(4, SensorTrace.VERSION);
+			out.write(block, 0, SensorTrace.FILE_HEADER_SIZE);
+		}
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBlocks();
+			}
+		}, "sensor trace writer");
+		// an unclosed trace must not keep a jvm running
+		writer.setDaemon(true);
+		writer.start();
+	}
+}
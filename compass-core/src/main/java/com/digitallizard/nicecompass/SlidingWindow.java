@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * The mean and variance of the last few values, updated in constant time as each value arrives.
+ * The values are kept in a ring of floats. The running sums are worked out again from the ring
+ * every time it wraps, so rounding errors cannot build up however long it runs.
+ */
+public class SlidingWindow {
+	private final float[] values;
+	private int next; // where the next value goes
+	private int count;
+	private double sum;
+	private double sumOfSquares;
+	
+	public void add(float value) {
+		if(count == values.length) {
+			float oldest = values[next];
+			sum -= oldest;
+			sumOfSquares -= (double)oldest * oldest;
+		} else {
+			count++;
+		}
+		values[next] = value;
+		sum += value;
+		sumOfSquares += (double)value * value;
+		next++;
+		if(next == values.length) {
+			next = 0;
+			recalculate();
+		}
+	}
+	
+	private void recalculate() {
+		sum = 0;
+		sumOfSquares = 0;
+		for(int i = 0; i < count; i++) {
+			sum += values[i];
+			sumOfSquares += (double)values[i] * values[i];
+		}
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	public boolean isFull() {
+		return count == values.length;
+	}
+	
+	/** NaN when empty **/
+	public float getMean() {
+		return (float)(sum / count);
+	}
+	
+	/** the population variance, 0 with fewer than two values **/
+	public float getVariance() {
+		if(count < 2) {
+			return 0f;
+		}
+		double mean = sum / count;
+		double variance = sumOfSquares / count - mean * mean;
+		return (variance > 0) ? (float)variance : 0f; // rounding can take it just below zero
+	}
+	
+	public float getStandardDeviation() {
+		return (float)Math.sqrt(getVariance());
+	}
+	
+	public void reset() {
+		next = 0;
+		count = 0;
+		sum = 0;
+		sumOfSquares = 0;
+	}
+	
+	public SlidingWindow(int size) {
+		values = new float[size];
+	}
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads can increment at the same time without fighting over one cache line.
+ * Each thread adds into a stripe picked by its id, reading the total adds the stripes up.
+ * The same idea as java.util.concurrent.atomic.LongAdder, which android does not have.
+ */
+public class StripedCounter {
+	private static final int STRIPES = 4; // a power of two, the compass only has a few busy threads
+	private static final int PADDING = 8; // longs in a 64 byte cache line, so stripes never share one
+	
+	private final AtomicLongArray cells;
+	
+	private static int stripe() {
+		return (int)(Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+	}
+	
+	public void increment() {
+		cells.incrementAndGet(stripe());
+	}
+	
+	public void add(long amount) {
+		cells.addAndGet(stripe(), amount);
+	}
+	
+	/** the total, increments made during the call may or may not be included **/
+	public long sum() {
+		long total = 0;
+		for(int i = 0; i < STRIPES; i++) {
+			total += cells.get(i * PADDING);
+		}
+		return total;
+	}
+	
+	public void reset() {
+		for(int i = 0; i < STRIPES; i++) {
+			cells.set(i * PADDING, 0);
+		}
+	}
+	
+	public StripedCounter() {
+		cells = new AtomicLongArray(STRIPES * PADDING);
+	}
+}
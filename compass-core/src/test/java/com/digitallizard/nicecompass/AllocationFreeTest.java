@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The ingest path, from a sensor event to the bearing a frame reads, must not allocate,
+ * at high sensor rates the garbage shows up as needle stutter.
+ */
+public class AllocationFreeTest {
+	private static final int WARMUP_EVENTS = 20000; // enough for the jit to settle, it may allocate while compiling
+	private static final int EVENTS = 5000;
+	private static final int ROUNDS = 3; // the jvm itself may allocate now and then, e.g. when it recompiles something
+	private static final long INTERVAL = 5000000L; // 200 Hz, SENSOR_DELAY_FASTEST
+	
+	private com.sun.management.ThreadMXBean threads;
+	private SyntheticSensors sensors;
+	private float[] accel;
+	private float[] mag;
+	private float[] gyro;
+	private OrientationSnapshot snapshot;
+	private long timestamp;
+	private double bearing;
+	
+	@Before
+	public void setUp() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue("the jvm cannot count allocations", bean instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean)bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		sensors = new SyntheticSensors(1, 0.5f);
+		accel = new float[3];
+		mag = new float[3];
+		gyro = new float[3];
+		snapshot = new OrientationSnapshot();
+	}
+	
+	/** one round of events for every sensor, then the reads a frame does **/
+	private float step(CompassPipeline pipeline) {
+		timestamp += INTERVAL;
+		bearing += 0.2;
+		sensors.accelerometer(accel);
+		sensors.magnetometer(bearing, mag);
+		sensors.gyroscope(40, gyro);
+		pipeline.onSensorChanged(SensorSourceSelector.TYPE_ACCELEROMETER, accel, 3, timestamp);
+		pipeline.onSensorChanged(SensorSourceSelector.TYPE_MAGNETIC_FIELD, mag, 3, timestamp);
+		pipeline.onSensorChanged(SensorSourceSelector.TYPE_GYROSCOPE, gyro, 3, timestamp);
+		pipeline.readSnapshot(snapshot);
+		pipeline.readSnapshot(snapshot); // the cheap path, nothing new
+		return snapshot.getPredictedBearing(true, timestamp + INTERVAL) + pipeline.getBearing(false);
+	}
+	
+	private long allocatedDuringEvents(OrientationEngine engine) {
+		// configured as CompassManager configures it
+		CompassPipeline pipeline = new CompassPipeline(engine);
+		pipeline.setPrefilters(SensorPrefilter.createAccelerometerFilter(), SensorPrefilter.createMagnetometerFilter());
+		pipeline.setHeadingSmoother(HeadingSmoother.create(HeadingSmoother.PRESET_BALANCED));
+		pipeline.setGeomagneticModel(new FixedGeomagneticModel(2f, SyntheticSensors.FIELD_STRENGTH * 1000,
+				SyntheticSensors.INCLINATION));
+		float sink = 0;
+		for(int i = 0; i < WARMUP_EVENTS; i++) {
+			sink += step(pipeline);
+		}
+		// the least any round allocated, an allocation on the path itself would show up in every round
+		long threadId = Thread.currentThread().getId();
+		long allocated = Long.MAX_VALUE;
+		for(int round = 0; round < ROUNDS && allocated > 0; round++) {
+			long before = threads.getThreadAllocatedBytes(threadId);
+			for(int i = 0; i < EVENTS; i++) {
+				sink += step(pipeline);
+			}
+			allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - before);
+		}
+		// keeps the reads from being optimised away
+		if(Float.isInfinite(sink)) {
+			throw new AssertionError();
+		}
+		return allocated;
+	}
+	
+	@Test
+	public void accelMagEngineAllocatesNothing() {
+		assertEquals(0, allocatedDuringEvents(new AccelMagEngine()));
+	}
+	
+	@Test
+	public void complementaryFilterEngineAllocatesNothing() {
+		assertEquals(0, allocatedDuringEvents(new ComplementaryFilterEngine()));
+	}
+	
+	@Test
+	public void kalmanFilterEngineAllocatesNothing() {
+		assertEquals(0, allocatedDuringEvents(new KalmanFilterEngine()));
+	}
+}
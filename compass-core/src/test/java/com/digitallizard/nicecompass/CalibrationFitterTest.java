@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Waves a simulated phone around in the earth's field, distorted by known hard and soft iron.
+ */
+public class CalibrationFitterTest {
+	private static final double[] OFFSET = {35, -20, 60}; // microtesla, hard iron
+	private static final double[] SOFT_IRON = {1.12, 0.05, -0.03, 0.05, 0.93, 0.04, -0.03, 0.04, 1.0}; // row major
+	private static final double[] SQUASHED = {2.2, 0, 0, 0, 1, 0, 0, 0, 1}; // far more than a phone's soft iron
+	private static final double NOISE = 0.4; // microtesla
+	private static final int MAX_SAMPLES = 20000;
+	
+	private final Random random = new Random(5);
+	
+	/** the earth's field in the frame of a phone at the given yaw, pitch and roll, y north and z up in the world **/
+	private static double[] field(double yaw, double pitch, double roll) {
+		double dip = Math.toRadians(SyntheticSensors.INCLINATION);
+		double[] v = {0, SyntheticSensors.FIELD_STRENGTH * Math.cos(dip), -SyntheticSensors.FIELD_STRENGTH * Math.sin(dip)};
+		v = rotate(v, 2, -yaw);
+		v = rotate(v, 0, -pitch);
+		return rotate(v, 1, -roll);
+	}
+	
+	private static double[] rotate(double[] v, int axis, double angle) {
+		double c = Math.cos(angle);
+		double s = Math.sin(angle);
+		if(axis == 0) {
+			return new double[] {v[0], c * v[1] - s * v[2], s * v[1] + c * v[2]};
+		} else if(axis == 1) {
+			return new double[] {c * v[0] + s * v[2], v[1], -s * v[0] + c * v[2]};
+		}
+		return new double[] {c * v[0] - s * v[1], s * v[0] + c * v[1], v[2]};
+	}
+	
+	/** what the magnetometer reads for the given field, through the given soft iron and the hard iron offset **/
+	private float[] distort(double[] softIron, double[] field, double noise) {
+		float[] reading = new float[3];
+		for(int i = 0; i < 3; i++) {
+			reading[i] = (float)(softIron[i * 3] * field[0] + softIron[i * 3 + 1] * field[1] + softIron[i * 3 + 2] * field[2]
+					+ OFFSET[i] + random.nextGaussian() * noise);
+		}
+		return reading;
+	}
+	
+	private float[] randomReading(double[] softIron, double noise) {
+		double[] field = field(random.nextDouble() * 2 * Math.PI, (random.nextDouble() - 0.5) * Math.PI,
+				(random.nextDouble() - 0.5) * 2 * Math.PI);
+		return distort(softIron, field, noise);
+	}
+	
+	private MagneticCalibration fit(CalibrationFitter fitter, double[] softIron) {
+		for(int i = 0; i < MAX_SAMPLES; i++) {
+			float[] reading = randomReading(softIron, NOISE);
+			MagneticCalibration calibration = fitter.addSample(reading[0], reading[1], reading[2]);
+			if(calibration != null) {
+				return calibration;
+			}
+		}
+		return null;
+	}
+	
+	@Test
+	public void recoversHardAndSoftIron() {
+		MagneticCalibration calibration = fit(new CalibrationFitter(), SOFT_IRON);
+		assertNotNull(calibration);
+		for(int axis = 0; axis < 3; axis++) {
+			assertEquals(OFFSET[axis], calibration.getOffset(axis), 1.0);
+		}
+		
+		// corrected, every direction is about as strong as every other
+		float[] out = new float[3];
+		double minimum = Double.MAX_VALUE;
+		double maximum = 0;
+		for(int i = 0; i < 1000; i++) {
+			float[] reading = randomReading(SOFT_IRON, 0);
+			calibration.apply(reading[0], reading[1], reading[2], out);
+			double strength = Math.sqrt(out[0] * out[0] + out[1] * out[1] + out[2] * out[2]);
+			minimum = Math.min(minimum, strength);
+			maximum = Math.max(maximum, strength);
+		}
+		assertTrue("strength ranges from " + minimum + " to " + maximum, maximum / minimum < 1.05);
+		
+		// and a flat phone reads the right heading all the way round
+		double worst = 0;
+		for(int degrees = 0; degrees < 360; degrees++) {
+			double[] field = field(Math.toRadians(degrees), 0, 0);
+			float[] reading = distort(SOFT_IRON, field, 0);
+			calibration.apply(reading[0], reading[1], reading[2], out);
+			double error = Math.toDegrees(Math.atan2(out[0], out[1]) - Math.atan2(field[0], field[1]));
+			error = Math.abs(SyntheticSensors.bearingDifference((float)error, 0f));
+			worst = Math.max(worst, error);
+		}
+		assertTrue("heading out by " + worst + " degrees", worst < 1.5);
+	}
+	
+	@Test
+	public void keepsFollowingTheField() {
+		CalibrationFitter fitter = new CalibrationFitter();
+		int fits = 0;
+		for(int i = 0; i < MAX_SAMPLES && fits < 3; i++) {
+			float[] reading = randomReading(SOFT_IRON, NOISE);
+			if(fitter.addSample(reading[0], reading[1], reading[2]) != null) {
+				fits++;
+			}
+		}
+		assertEquals(3, fits);
+	}
+	
+	@Test
+	public void rejectsASquashedField() {
+		CalibrationFitter fitter = new CalibrationFitter();
+		for(int i = 0; i < MAX_SAMPLES && fitter.getRounds() < 3; i++) {
+			float[] reading = randomReading(SQUASHED, NOISE);
+			assertNull(fitter.addSample(reading[0], reading[1], reading[2]));
+		}
+		assertTrue(fitter.getRounds() >= 3);
+	}
+	
+	@Test
+	public void aStillPhoneAddsNothing() {
+		CalibrationFitter fitter = new CalibrationFitter();
+		double[] field = field(1, 0.2, 0.1);
+		for(int i = 0; i < 1000; i++) {
+			float[] reading = distort(SOFT_IRON, field, 0.2);
+			assertNull(fitter.addSample(reading[0], reading[1], reading[2]));
+		}
+		// readings closer together than the noise are not new information
+		assertEquals(1, fitter.getSampleCount());
+		assertEquals(0, fitter.getRounds());
+	}
+	
+	@Test
+	public void binsEveryDirection() {
+		boolean[] seen = new boolean[CalibrationFitter.BINS];
+		for(int i = 0; i < 10000; i++) {
+			int bin = CalibrationFitter.binOf((float)random.nextGaussian(), (float)random.nextGaussian(),
+					(float)random.nextGaussian());
+			seen[bin] = true;
+		}
+		for(int bin = 0; bin < CalibrationFitter.BINS; bin++) {
+			assertTrue("bin " + bin, seen[bin]);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class CardinalConverterTest {
+	private static final int STEPS_PER_DEGREE = 100;
+	
+	/** the converter as it was before the lookup table, a chain of range checks **/
+	private static String legacyCardinalFromBearing(float bearing) {
+		if(bearing < 0){
+			bearing += 360;
+		}
+		if(bearing >= 0 && bearing < 22.5){
+			return CardinalConverter.NORTH;
+		}
+		if(bearing >= 22.5 && bearing < 67.5){
+			return CardinalConverter.NORTH_EAST;
+		}
+		if(bearing >= 67.5 && bearing < 112.5){
+			return CardinalConverter.EAST;
+		}
+		if(bearing >= 112.5 && bearing < 157.5){
+			return CardinalConverter.SOUTH_EAST;
+		}
+		if(bearing >= 157.5 && bearing < 202.5){
+			return CardinalConverter.SOUTH;
+		}
+		if(bearing >= 202.5 && bearing < 247.5){
+			return CardinalConverter.SOUTH_WEST;
+		}
+		if(bearing >= 247.5 && bearing < 292.5){
+			return CardinalConverter.WEST;
+		}
+		if(bearing >= 292.5 && bearing < 337.5){
+			return CardinalConverter.NORTH_WEST;
+		}
+		if(bearing >= 337.5 && bearing < 360){
+			return CardinalConverter.NORTH;
+		}
+		return "??";
+	}
+	
+	@Test
+	public void matchesLegacyConverterEveryHundredthOfADegree() {
+		// the range the old converter handled, a full turn either side of north
+		for(int i = -360 * STEPS_PER_DEGREE + 1; i < 360 * STEPS_PER_DEGREE; i++) {
+			float bearing = i / (float)STEPS_PER_DEGREE;
+			String expected = legacyCardinalFromBearing(bearing);
+			assertEquals("bearing " + bearing, expected, CardinalConverter.cardinalFromBearing(bearing));
+			if(bearing >= 0) {
+				assertEquals("bearing " + bearing, expected, CardinalConverter.cardinalFromPositiveBearing(bearing));
+			}
+		}
+	}
+	
+	@Test
+	public void wrapsAnyBearing() {
+		assertEquals("N", CardinalConverter.cardinalFromBearing(360f));
+		assertEquals("E", CardinalConverter.cardinalFromBearing(450f));
+		assertEquals("W", CardinalConverter.cardinalFromBearing(-450f));
+		assertEquals("N", CardinalConverter.cardinalFromBearing(Float.NaN));
+		assertEquals("N", CardinalConverter.cardinalFromBearing(Float.POSITIVE_INFINITY));
+	}
+	
+	@Test
+	public void largerRosesUseTheirOwnLabels() {
+		assertEquals("NNE", CardinalConverter.cardinalFromBearing(22.5f, CardinalConverter.POINTS_16));
+		assertEquals("NbE", CardinalConverter.cardinalFromBearing(11.25f, CardinalConverter.POINTS_32));
+		assertEquals("NbW", CardinalConverter.cardinalFromBearing(-11.25f, CardinalConverter.POINTS_32));
+		assertEquals("E", CardinalConverter.cardinalFromBearing(60f, CardinalConverter.POINTS_4));
+	}
+	
+	@Test
+	public void rejectsOtherRoseSizes() {
+		for(int points : new int[] {0, 1, 2, 3, 6, 12, 24, 64, -8}) {
+			try {
+				CardinalConverter.pointFromBearing(0f, points);
+				fail("accepted " + points + " points");
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
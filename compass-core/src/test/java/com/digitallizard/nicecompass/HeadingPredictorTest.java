@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HeadingPredictorTest {
+	private static final long MILLIS = 1000000L;
+	private static final long INTERVAL = 20 * MILLIS; // 50 Hz
+	
+	private HeadingPredictor predictor;
+	private long timestamp;
+	
+	@Before
+	public void setUp() {
+		predictor = new HeadingPredictor();
+		timestamp = 0;
+	}
+	
+	/** feeds headings turning at the given rate in degrees per second, with the given noise, for the given time **/
+	private void turn(double heading, double rate, double noise, Random random, double seconds) {
+		long end = timestamp + (long)(seconds * 1e9);
+		while(timestamp < end) {
+			double reading = Math.toRadians(heading + rate * timestamp / 1e9 + ((random != null) ? random.nextGaussian() * noise : 0));
+			predictor.onHeading((float)Math.atan2(Math.sin(reading), Math.cos(reading)), timestamp);
+			timestamp += INTERVAL;
+		}
+	}
+	
+	@Test
+	public void extrapolatesByTheRate() {
+		// 90 degrees a second for 50 ms is 4.5 degrees, scaled by the confidence
+		float rate = (float)Math.toRadians(90);
+		assertEquals(14.5f, HeadingPredictor.extrapolate(10f, rate, 1f, 50 * MILLIS), 1e-4f);
+		assertEquals(12.25f, HeadingPredictor.extrapolate(10f, rate, 0.5f, 50 * MILLIS), 1e-4f);
+		assertEquals(5.5f, HeadingPredictor.extrapolate(10f, -rate, 1f, 50 * MILLIS), 1e-4f);
+		// nothing without confidence or for a time already past
+		assertEquals(10f, HeadingPredictor.extrapolate(10f, rate, 0f, 50 * MILLIS), 0f);
+		assertEquals(10f, HeadingPredictor.extrapolate(10f, rate, Float.NaN, 50 * MILLIS), 0f);
+		assertEquals(10f, HeadingPredictor.extrapolate(10f, rate, 1f, -50 * MILLIS), 0f);
+	}
+	
+	@Test
+	public void clampsTheHorizon() {
+		// 90 degrees a second, a second ahead is clamped to 100 ms, 9 degrees
+		float rate = (float)Math.toRadians(90);
+		assertEquals(9f, HeadingPredictor.extrapolate(0f, rate, 1f, 1000 * MILLIS), 1e-4f);
+		assertEquals(HeadingPredictor.extrapolate(0f, rate, 1f, HeadingPredictor.MAX_HORIZON),
+				HeadingPredictor.extrapolate(0f, rate, 1f, 10 * HeadingPredictor.MAX_HORIZON), 0f);
+	}
+	
+	@Test
+	public void clampsTheChange() {
+		// 720 degrees a second for 100 ms would be 72 degrees
+		float rate = (float)Math.toRadians(720);
+		assertEquals(100f + HeadingPredictor.MAX_EXTRAPOLATION,
+				HeadingPredictor.extrapolate(100f, rate, 1f, HeadingPredictor.MAX_HORIZON), 1e-4f);
+		assertEquals(100f - HeadingPredictor.MAX_EXTRAPOLATION,
+				HeadingPredictor.extrapolate(100f, -rate, 1f, HeadingPredictor.MAX_HORIZON), 1e-4f);
+	}
+	
+	@Test
+	public void doesNotTrustJitterAtRest() {
+		Random random = new Random(9);
+		turn(40, 0, 0.5, random, 1);
+		// one degree rms of jitter, at rest, for ten seconds
+		double confidence = 0;
+		double worstChange = 0;
+		int headings = 0;
+		long end = timestamp + 10000 * MILLIS;
+		while(timestamp < end) {
+			turn(40, 0, 1, random, INTERVAL / 1e9);
+			confidence += predictor.getConfidence();
+			float predicted = HeadingPredictor.extrapolate(0f, predictor.getRate(), predictor.getConfidence(),
+					HeadingPredictor.MAX_HORIZON);
+			worstChange = Math.max(worstChange, Math.abs(predicted));
+			headings++;
+		}
+		assertTrue("mean confidence " + confidence / headings, confidence / headings < 0.1);
+		// never worse than the jitter itself
+		assertTrue("moved " + worstChange + " degrees", worstChange < 1);
+	}
+	
+	@Test
+	public void trustsASteadyTurn() {
+		Random random = new Random(9);
+		turn(40, 90, 0.3, random, 1);
+		assertEquals(Math.toRadians(90), predictor.getRate(), Math.toRadians(10));
+		assertTrue(predictor.getConfidence() > 0.9f);
+	}
+	
+	@Test
+	public void followsTheRateAcrossTheWrap() {
+		// 120 degrees a second either way through south, where the heading jumps between pi and -pi
+		for(double rate : new double[] {120, -120}) {
+			setUp();
+			// a second to settle, reaching 150 degrees either side of north, then a second more through south
+			turn(30 * Math.signum(rate), rate, 0, null, 1);
+			for(int i = 0; i < 50; i++) {
+				turn(30 * Math.signum(rate), rate, 0, null, INTERVAL / 1e9);
+				assertEquals(Math.toRadians(rate), predictor.getRate(), 1e-3);
+			}
+		}
+	}
+	
+	@Test
+	public void usesTheGyroscopeAboutGravity() {
+		SyntheticSensors sensors = new SyntheticSensors(1, 0f);
+		float[] accel = new float[3];
+		float[] gyro = new float[3];
+		sensors.accelerometer(accel);
+		sensors.gyroscope(90, gyro); // clockwise seen from above, the bearing going up
+		predictor.onAccelerometer(accel[0], accel[1], accel[2]);
+		predictor.onGyroscope(gyro[0], gyro[1], gyro[2], timestamp);
+		// the headings say nothing is moving, the gyroscope wins
+		predictor.onHeading(1f, timestamp);
+		predictor.onHeading(1f, timestamp + INTERVAL);
+		assertEquals(Math.toRadians(90), predictor.getRate(), 1e-5);
+		assertEquals(1f, predictor.getConfidence(), 0f);
+		
+		// face down the phone's z axis points the other way, the same turn reads the other way round
+		predictor.reset();
+		predictor.onAccelerometer(0f, 0f, -SyntheticSensors.GRAVITY);
+		predictor.onGyroscope(0f, 0f, (float)Math.toRadians(90), timestamp);
+		predictor.onHeading(1f, timestamp);
+		assertEquals(Math.toRadians(90), predictor.getRate(), 1e-5);
+		
+		// and tilted on its side, the rotation about gravity is what counts
+		predictor.reset();
+		predictor.onAccelerometer(SyntheticSensors.GRAVITY, 0f, 0f);
+		predictor.onGyroscope((float)-Math.toRadians(90), 0f, 5f, timestamp);
+		predictor.onHeading(1f, timestamp);
+		assertEquals(Math.toRadians(90), predictor.getRate(), 1e-5);
+	}
+	
+	@Test
+	public void fallsBackToHeadingsWhenTheGyroscopeGoesQuiet() {
+		predictor.onAccelerometer(0f, 0f, SyntheticSensors.GRAVITY);
+		predictor.onGyroscope(0f, 0f, (float)-Math.toRadians(200), timestamp);
+		predictor.onHeading(0f, timestamp);
+		assertEquals(Math.toRadians(200), predictor.getRate(), 1e-5);
+		// the gyroscope stops, the headings show a turn at 60 degrees a second the other way
+		long gyroTime = timestamp;
+		boolean fellBack = false;
+		for(int i = 1; i <= 100; i++) {
+			timestamp += INTERVAL;
+			predictor.onHeading((float)Math.toRadians(-60 * timestamp / 1e9), timestamp);
+			if(timestamp - gyroTime <= HeadingPredictor.MAX_GYRO_AGE) {
+				assertEquals(Math.toRadians(200), predictor.getRate(), 1e-5);
+			} else {
+				fellBack = true;
+			}
+		}
+		assertTrue(fellBack);
+		assertEquals(Math.toRadians(-60), predictor.getRate(), Math.toRadians(1));
+		assertTrue(predictor.getConfidence() > 0.9f);
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HeadingSmootherTest {
+	private static final long MILLIS = 1000000L;
+	private static final long DURATION = 6000 * MILLIS;
+	private static final long COMMON_INTERVAL = 20 * MILLIS; // where the 50 and 200 Hz readings line up
+	private static final float TOLERANCE = (float)Math.toRadians(0.5);
+	
+	/** held still, then swung back and forth across south while turning slowly, in radians **/
+	private static float heading(long time) {
+		double seconds = time / 1e9;
+		// eased in, a sudden start would be seen a reading sooner at the higher rate
+		double swing = (seconds < 1) ? 0 : Math.min(seconds - 1, 1);
+		swing = swing * swing * (3 - 2 * swing);
+		double angle = 2.8 + swing * (0.2 * (seconds - 1) + 1.2 * Math.sin(2 * Math.PI * 0.4 * (seconds - 1)));
+		return (float)Math.atan2(Math.sin(angle), Math.cos(angle));
+	}
+	
+	/** the smoothed heading at every common time, reading the same motion at the given interval **/
+	private static float[] smooth(int preset, long interval) {
+		HeadingSmoother smoother = HeadingSmoother.create(preset);
+		float[] headings = new float[(int)(DURATION / COMMON_INTERVAL)];
+		for(long time = 0; time < DURATION; time += interval) {
+			float smoothed = smoother.update(heading(time), time);
+			if(time % COMMON_INTERVAL == 0) {
+				headings[(int)(time / COMMON_INTERVAL)] = smoothed;
+			}
+		}
+		return headings;
+	}
+	
+	private static float difference(float a, float b) {
+		return (float)Math.toRadians(SyntheticSensors.bearingDifference((float)Math.toDegrees(a), (float)Math.toDegrees(b)));
+	}
+	
+	@Test
+	public void sameHeadingAtAnySensorRate() {
+		for(int preset : new int[] {HeadingSmoother.PRESET_RESPONSIVE, HeadingSmoother.PRESET_BALANCED,
+				HeadingSmoother.PRESET_SMOOTH}) {
+			float[] slow = smooth(preset, 20 * MILLIS); // 50 Hz
+			float[] fast = smooth(preset, 5 * MILLIS); // 200 Hz
+			for(int i = 0; i < slow.length; i++) {
+				assertEquals("preset " + preset + " at " + i * COMMON_INTERVAL / MILLIS + " ms", 0f,
+						difference(fast[i], slow[i]), TOLERANCE);
+			}
+		}
+	}
+	
+	@Test
+	public void ignoresReadingsFromThePast() {
+		HeadingSmoother reference = HeadingSmoother.create(HeadingSmoother.PRESET_BALANCED);
+		HeadingSmoother smoother = HeadingSmoother.create(HeadingSmoother.PRESET_BALANCED);
+		for(long time = 0; time < 1000 * MILLIS; time += 20 * MILLIS) {
+			reference.update(heading(time), time);
+			smoother.update(heading(time), time);
+		}
+		float before = smoother.getHeading();
+		// out of order and repeated readings change nothing, now or later
+		assertEquals(before, smoother.update(2f, 970 * MILLIS), 0f);
+		assertEquals(before, smoother.update(-2f, 500 * MILLIS), 0f);
+		assertEquals(before, smoother.update(2f, 980 * MILLIS), 0f);
+		for(long time = 1000 * MILLIS; time < 3000 * MILLIS; time += 20 * MILLIS) {
+			assertEquals(reference.update(heading(time), time), smoother.update(heading(time), time), 0f);
+		}
+	}
+	
+	@Test
+	public void wrapsAcrossSouth() {
+		HeadingSmoother smoother = HeadingSmoother.create(HeadingSmoother.PRESET_SMOOTH);
+		// readings either side of +-pi average to pi, not to 0
+		for(int i = 0; i < 100; i++) {
+			float heading = (i % 2 == 0) ? (float)Math.PI - 0.05f : -(float)Math.PI + 0.05f;
+			smoother.update(heading, i * 20 * MILLIS);
+		}
+		assertEquals(0f, difference(smoother.getHeading(), (float)Math.PI), 0.05f);
+	}
+	
+	@Test
+	public void startsAgainAfterAGap() {
+		HeadingSmoother smoother = HeadingSmoother.create(HeadingSmoother.PRESET_SMOOTH);
+		smoother.update(0f, 0);
+		smoother.update(0f, 20 * MILLIS);
+		assertEquals(1.5f, smoother.update(1.5f, 3000 * MILLIS), 1e-6f);
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the detector over synthetic traces of a flat phone turning slowly, with episodes of interference added.
+ */
+public class InterferenceDetectorTest {
+	private static final GeomagneticModel MODEL = new FixedGeomagneticModel(2f,
+			SyntheticSensors.FIELD_STRENGTH * 1000, SyntheticSensors.INCLINATION);
+	
+	private InterferenceDetector detector;
+	private SyntheticSensors sensors;
+	private float[] accel;
+	private float[] mag;
+	private int sample;
+	private int transitions;
+	private int lastFlagged; // the sample interference was last raised at, -1 if never
+	private int lastCleared; // the sample it was last cleared at, -1 if never
+	
+	@Before
+	public void setUp() {
+		detector = new InterferenceDetector();
+		sensors = new SyntheticSensors(3, 0.5f);
+		accel = new float[3];
+		mag = new float[3];
+		sample = 0;
+		transitions = 0;
+		lastFlagged = -1;
+		lastCleared = -1;
+	}
+	
+	/** feeds in samples of the earth's field scaled by the given factor, with the given vertical field added **/
+	private void run(int samples, float scale, float offsetZ, GeomagneticModel model) {
+		for(int i = 0; i < samples; i++) {
+			sensors.accelerometer(accel);
+			sensors.magnetometer(sample * 0.5, mag);
+			detector.onAccelerometer(accel[0], accel[1], accel[2]);
+			boolean before = detector.hasInterference();
+			boolean after = detector.onMagneticField(mag[0] * scale, mag[1] * scale, mag[2] * scale + offsetZ, model);
+			if(after != before) {
+				transitions++;
+				if(after) {
+					lastFlagged = sample;
+				} else {
+					lastCleared = sample;
+				}
+			}
+			sample++;
+		}
+	}
+	
+	@Test
+	public void cleanFieldIsNeverFlagged() {
+		run(2000, 1f, 0f, MODEL);
+		assertEquals(0, transitions);
+		assertEquals(SyntheticSensors.FIELD_STRENGTH, detector.getMeanStrength(), 1f);
+		assertEquals(SyntheticSensors.INCLINATION, detector.getMeanDip(), 2f);
+	}
+	
+	@Test
+	public void cleanFieldIsNeverFlaggedWithoutAModel() {
+		run(2000, 1f, 0f, null);
+		assertEquals(0, transitions);
+	}
+	
+	@Test
+	public void detectsASustainedEpisode() {
+		run(200, 1f, 0f, MODEL);
+		// a car door, say, adds a steady field of its own for a few seconds
+		int start = sample;
+		run(300, 1f, -30f, MODEL);
+		assertTrue(detector.hasInterference());
+		assertTrue(lastFlagged - start < InterferenceDetector.WINDOW);
+		int end = sample;
+		run(200, 1f, 0f, MODEL);
+		assertFalse(detector.hasInterference());
+		// cleared once the window has forgotten the episode and the field has looked fine for long enough
+		assertTrue(lastCleared - end >= InterferenceDetector.CLEAR_SAMPLES);
+		assertTrue(lastCleared - end < InterferenceDetector.WINDOW + InterferenceDetector.CLEAR_SAMPLES);
+		assertEquals(2, transitions);
+	}
+	
+	@Test
+	public void detectsAWrongDipOnlyWithAModel() {
+		// the right strength at the wrong angle, e.g. a magnet held beside the phone
+		float[] tilted = new float[3];
+		for(int i = 0; i < 100; i++) {
+			sensors.accelerometer(accel);
+			sensors.magnetometer(0, mag);
+			float strength = (float)Math.sqrt(mag[0] * mag[0] + mag[1] * mag[1] + mag[2] * mag[2]);
+			tilted[0] = 0;
+			tilted[1] = strength * (float)Math.cos(Math.toRadians(85));
+			tilted[2] = -strength * (float)Math.sin(Math.toRadians(85));
+			detector.onAccelerometer(accel[0], accel[1], accel[2]);
+			detector.onMagneticField(tilted[0], tilted[1], tilted[2], null);
+		}
+		assertFalse(detector.hasInterference());
+		detector.onMagneticField(tilted[0], tilted[1], tilted[2], MODEL);
+		assertTrue(detector.hasInterference());
+	}
+	
+	@Test
+	public void ignoresSingleSpikes() {
+		// one odd sample in every fifty, over half as strong again as the earth's field
+		for(int i = 0; i < 40; i++) {
+			run(49, 1f, 0f, MODEL);
+			run(1, 1f, -25f, MODEL);
+		}
+		assertEquals(0, transitions);
+	}
+	
+	@Test
+	public void doesNotFlickerAtTheThreshold() {
+		run(100, 1f, 0f, MODEL);
+		// a field that wanders either side of the strength that raises the alarm
+		for(int i = 0; i < 20; i++) {
+			run(20, 1.2f, 0f, MODEL);
+			run(20, 1.3f, 0f, MODEL);
+		}
+		assertEquals(1, transitions);
+		assertTrue(detector.hasInterference());
+	}
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NeedleSpringTest {
+	private static final long MILLIS = 1000000L;
+	private static final long[] FRAME_TIMES = {8 * MILLIS, 16 * MILLIS, 33 * MILLIS}; // 120, 60 and 30 fps
+	private static final long COMMON_TIME = 528 * MILLIS; // a multiple of every frame time
+	private static final float TOLERANCE = 0.001f; // degrees
+	
+	/** steps a spring from start to target in frames of the given length, recording where it is at each common time **/
+	private static float[] run(float start, float target, long frameTime, int commonTimes) {
+		NeedleSpring spring = new NeedleSpring();
+		spring.reset(start);
+		float[] bearings = new float[commonTimes];
+		long elapsed = 0;
+		for(int i = 0; i < commonTimes; i++) {
+			while(elapsed < (i + 1) * COMMON_TIME) {
+				spring.update(target, frameTime);
+				elapsed += frameTime;
+			}
+			bearings[i] = spring.getBearing();
+		}
+		return bearings;
+	}
+	
+	@Test
+	public void sameBearingWhateverTheFrameRate() {
+		float[][] starts = {{0f, 90f}, {350f, 20f}, {10f, 200f}, {123.4f, 123.5f}};
+		for(float[] start : starts) {
+			float[] reference = run(start[0], start[1], FRAME_TIMES[0], 4);
+			for(int f = 1; f < FRAME_TIMES.length; f++) {
+				float[] bearings = run(start[0], start[1], FRAME_TIMES[f], 4);
+				for(int i = 0; i < reference.length; i++) {
+					assertEquals(0f, SyntheticSensors.bearingDifference(bearings[i], reference[i]), TOLERANCE);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void settlesWithoutOvershoot() {
+		for(long frameTime : FRAME_TIMES) {
+			for(float target : new float[] {90f, -90f, 179f, -179f}) {
+				NeedleSpring spring = new NeedleSpring();
+				spring.reset(0f);
+				float direction = Math.signum(target);
+				float previous = target;
+				long elapsed = 0;
+				while(elapsed < 3000 * MILLIS) {
+					spring.update(target, frameTime);
+					elapsed += frameTime;
+					float remaining = SyntheticSensors.bearingDifference(target, spring.getBearing());
+					// never past the target, and always getting closer
+					assertTrue("overshot at " + elapsed / MILLIS + " ms", remaining * direction >= -TOLERANCE);
+					assertTrue(Math.abs(remaining) <= Math.abs(previous) + TOLERANCE);
+					previous = remaining;
+				}
+				assertTrue(spring.isSettled(target, 0.1f, 0.1f));
+			}
+		}
+	}
+	
+	@Test
+	public void takesTheShortWayRound() {
+		NeedleSpring spring = new NeedleSpring();
+		spring.reset(350f);
+		spring.update(10f, 50 * MILLIS);
+		float bearing = spring.getBearing();
+		assertTrue(bearing > 350f || bearing < 10f);
+	}
+	
+	@Test
+	public void ignoresEmptySteps() {
+		NeedleSpring spring = new NeedleSpring();
+		spring.reset(45f);
+		spring.update(90f, 0);
+		spring.update(90f, -16 * MILLIS);
+		assertEquals(45f, spring.getBearing(), 0f);
+		assertEquals(0f, spring.getVelocity(), 0f);
+	}
+}
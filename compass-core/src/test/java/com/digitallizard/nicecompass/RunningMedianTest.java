@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RunningMedianTest {
+	/** the median of the last size values added, worked out the slow way **/
+	private static float bruteForce(float[] values, int added, int size) {
+		int count = Math.min(added, size);
+		float[] window = Arrays.copyOfRange(values, added - count, added);
+		Arrays.sort(window);
+		int middle = count / 2;
+		return (count % 2 == 1) ? window[middle] : (window[middle - 1] + window[middle]) * 0.5f;
+	}
+	
+	@Test
+	public void matchesBruteForce() {
+		Random random = new Random(11);
+		for(int size = 1; size <= 9; size++) {
+			RunningMedian median = new RunningMedian(size);
+			float[] values = new float[2000];
+			for(int i = 0; i < values.length; i++) {
+				// whole numbers from a small range, so there are plenty of duplicates
+				values[i] = (i % 3 == 0) ? random.nextInt(5) : (float)random.nextGaussian() * 10;
+				median.add(values[i]);
+				assertEquals(Math.min(i + 1, size), median.getCount());
+				assertEquals("size " + size + " value " + i, bruteForce(values, i + 1, size), median.getMedian(), 0f);
+			}
+		}
+	}
+	
+	@Test
+	public void startsAgainAfterReset() {
+		RunningMedian median = new RunningMedian(3);
+		median.add(100f);
+		median.add(200f);
+		median.add(300f);
+		median.reset();
+		assertEquals(0, median.getCount());
+		assertTrue(Float.isNaN(median.getMedian()));
+		median.add(1f);
+		median.add(3f);
+		assertEquals(2f, median.getMedian(), 0f);
+		median.add(2f);
+		median.add(10f);
+		assertEquals(3f, median.getMedian(), 0f);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void needsAtLeastOneValue() {
+		new RunningMedian(0);
+	}
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives the controller with scripted motion on a fake clock, the sensor timestamps.
+ */
+public class SamplingControllerTest {
+	private static final long INTERVAL = 20000000L; // 50 Hz
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private SamplingController controller;
+	private Random random;
+	private long clock;
+	private float heading;
+	private int changes; // mode changes the controller reported
+	private long lastChange; // the clock at the last reported change
+	
+	@Before
+	public void setUp() {
+		controller = new SamplingController();
+		random = new Random(7);
+		clock = 1000000000L;
+		heading = 0f;
+		changes = 0;
+		lastChange = -1;
+	}
+	
+	/** turns at the given speed in degrees per second for the given time, with some jitter on every reading **/
+	private void turn(float speed, double seconds, float jitter) {
+		long end = clock + (long)(seconds * NANOS_PER_SECOND);
+		while(clock < end) {
+			clock += INTERVAL;
+			heading += speed * INTERVAL / (float)NANOS_PER_SECOND;
+			float reading = heading + (random.nextFloat() * 2 - 1) * jitter;
+			if(controller.onHeading((reading % 360 + 360) % 360, clock)) {
+				changes++;
+				lastChange = clock;
+			}
+		}
+	}
+	
+	private void hold(double seconds) {
+		turn(0f, seconds, 0.5f);
+	}
+	
+	@Test
+	public void followsAScriptedDay() {
+		assertEquals(SamplingController.MODE_ACTIVE, controller.getMode());
+		
+		// lying on a table, sensor noise alone must not keep it awake
+		hold(2);
+		assertEquals(SamplingController.MODE_ACTIVE, controller.getMode());
+		hold(2);
+		assertEquals(SamplingController.MODE_STATIONARY, controller.getMode());
+		assertEquals(1, changes);
+		
+		// picked up and swung round, straight to moving within a window or two
+		long start = clock;
+		turn(90f, 2, 0.5f);
+		assertEquals(SamplingController.MODE_MOVING, controller.getMode());
+		assertTrue(lastChange - start <= 2 * SamplingController.WINDOW_NANOS);
+		
+		// slowing between the two moving thresholds stays moving
+		turn(30f, 3, 0.5f);
+		assertEquals(SamplingController.MODE_MOVING, controller.getMode());
+		assertEquals(2, changes);
+		
+		// a slow drift drops back to active once it has been slow for a while
+		start = clock;
+		turn(10f, 3, 0.5f);
+		assertEquals(SamplingController.MODE_ACTIVE, controller.getMode());
+		// the last fast window may have ended up to a window before the drift started
+		assertTrue(lastChange - start >= SamplingController.SLOW_HOLD_NANOS - SamplingController.WINDOW_NANOS);
+		assertEquals(3, changes);
+		
+		// and put down again
+		start = clock;
+		hold(5);
+		assertEquals(SamplingController.MODE_STATIONARY, controller.getMode());
+		assertTrue(lastChange - start >= SamplingController.STATIONARY_HOLD_NANOS - SamplingController.WINDOW_NANOS);
+		assertEquals(4, changes);
+		assertEquals(changes, controller.getModeChanges());
+	}
+	
+	@Test
+	public void doesNotThrashAroundTheMovingThreshold() {
+		// a turn whose speed wanders either side of the threshold for entering moving
+		for(int i = 0; i < 20; i++) {
+			turn(40f, 0.5, 0.5f);
+			turn(50f, 0.5, 0.5f);
+		}
+		assertEquals(SamplingController.MODE_MOVING, controller.getMode());
+		assertEquals(1, changes);
+	}
+	
+	@Test
+	public void doesNotThrashAroundTheWakeThreshold() {
+		hold(4);
+		assertEquals(SamplingController.MODE_STATIONARY, controller.getMode());
+		// fidgeting either side of the wake speed, well above the speed for going back to sleep
+		for(int i = 0; i < 20; i++) {
+			turn(12f, 0.5, 0.5f);
+			turn(18f, 0.5, 0.5f);
+		}
+		assertEquals(SamplingController.MODE_ACTIVE, controller.getMode());
+		assertEquals(2, changes);
+	}
+	
+	@Test
+	public void shortPausesDoNotSleep() {
+		// a pause shorter than the hold, then moving again, many times
+		for(int i = 0; i < 10; i++) {
+			turn(10f, 1, 0.5f);
+			hold(2);
+		}
+		assertEquals(SamplingController.MODE_ACTIVE, controller.getMode());
+		assertEquals(0, changes);
+	}
+	
+	@Test
+	public void startsMeasuringAgainAfterAGap() {
+		hold(1);
+		// the sensors were off for a long time and the phone was turned round in between
+		clock += 10 * (long)NANOS_PER_SECOND;
+		heading += 170f;
+		hold(0.2);
+		assertEquals(SamplingController.MODE_ACTIVE, controller.getMode());
+		assertEquals(0, changes);
+	}
+}
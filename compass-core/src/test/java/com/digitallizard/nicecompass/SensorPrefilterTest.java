@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SensorPrefilterTest {
+	private static final long MILLIS = 1000000L;
+	private static final long INTERVAL = 20 * MILLIS; // SENSOR_DELAY_GAME
+	
+	private float[] out;
+	private long timestamp;
+	
+	@Before
+	public void setUp() {
+		out = new float[3];
+		timestamp = 0;
+	}
+	
+	private boolean feed(SensorPrefilter filter, float x, float y, float z) {
+		timestamp += INTERVAL;
+		return filter.filter(x, y, z, timestamp, out);
+	}
+	
+	@Test
+	public void gatesJolts() {
+		SensorPrefilter filter = SensorPrefilter.createAccelerometerFilter();
+		for(int i = 0; i < 10; i++) {
+			assertTrue(feed(filter, 0f, 0f, SensorPrefilter.GRAVITY));
+		}
+		float[] before = out.clone();
+		// a footstep, well over the gate either way
+		assertFalse(feed(filter, 0f, 3f, SensorPrefilter.GRAVITY + 4f));
+		assertFalse(feed(filter, 0f, -1f, SensorPrefilter.GRAVITY - 5f));
+		assertArrayEquals(before, out, 0f);
+		assertEquals(2, filter.getGatedCount());
+		// a tilt changes the direction, not the magnitude, so it goes through
+		float tilt = (float)Math.toRadians(30);
+		assertTrue(feed(filter, 0f, SensorPrefilter.GRAVITY * (float)Math.sin(tilt), SensorPrefilter.GRAVITY * (float)Math.cos(tilt)));
+		assertEquals(2, filter.getGatedCount());
+	}
+	
+	@Test
+	public void letsSustainedAccelerationThrough() {
+		SensorPrefilter filter = SensorPrefilter.createAccelerometerFilter();
+		feed(filter, 0f, 0f, SensorPrefilter.GRAVITY);
+		// a lift starting, say. frozen for a while, then the readings are believed
+		for(int i = 0; i < SensorPrefilter.MAX_GATED_RUN; i++) {
+			assertFalse(feed(filter, 0f, 0f, SensorPrefilter.GRAVITY + 5f));
+		}
+		assertTrue(feed(filter, 0f, 0f, SensorPrefilter.GRAVITY + 5f));
+		assertEquals(SensorPrefilter.MAX_GATED_RUN, filter.getGatedCount());
+		// and the run starts again once the readings are back to normal
+		assertTrue(feed(filter, 0f, 0f, SensorPrefilter.GRAVITY));
+		assertFalse(feed(filter, 0f, 0f, SensorPrefilter.GRAVITY + 5f));
+	}
+	
+	@Test
+	public void removesSingleSpikes() {
+		// the median alone, so the output is exactly what it lets through
+		SensorPrefilter filter = new SensorPrefilter(SensorPrefilter.MAGNETOMETER_MEDIAN, 0f, 0f, 0);
+		for(int i = 0; i < 50; i++) {
+			float spike = (i % 7 == 3) ? 200f : 0f;
+			assertTrue(feed(filter, 20f + spike, -30f - spike, 40f + spike));
+			assertArrayEquals(new float[] {20f, -30f, 40f}, out, 0f);
+		}
+	}
+	
+	@Test
+	public void followsARealChangeAfterHalfTheMedian() {
+		SensorPrefilter filter = new SensorPrefilter(SensorPrefilter.ACCELEROMETER_MEDIAN, 0f, 0f, 0);
+		for(int i = 0; i < 10; i++) {
+			feed(filter, 0f, 0f, 10f);
+		}
+		feed(filter, 0f, 0f, 0f);
+		feed(filter, 0f, 0f, 0f);
+		assertEquals(10f, out[2], 0f);
+		feed(filter, 0f, 0f, 0f);
+		assertEquals(0f, out[2], 0f);
+	}
+	
+	/** the low pass response to a step, after the given time at the given rate **/
+	private static float stepResponse(long interval, long duration) {
+		SensorPrefilter filter = new SensorPrefilter(1, 0f, 0f, SensorPrefilter.DEFAULT_TIME_CONSTANT);
+		float[] out = new float[3];
+		long timestamp = 0;
+		filter.filter(0f, 0f, 0f, timestamp, out);
+		while(timestamp < duration) {
+			timestamp += interval;
+			filter.filter(1f, 0f, 0f, timestamp, out);
+		}
+		return out[0];
+	}
+	
+	@Test
+	public void lowPassHasTheSameTimeConstantAtAnyRate() {
+		for(long duration : new long[] {40 * MILLIS, 100 * MILLIS, 200 * MILLIS}) {
+			float expected = 1f - (float)Math.exp(-(double)duration / SensorPrefilter.DEFAULT_TIME_CONSTANT);
+			for(long interval : new long[] {5 * MILLIS, 10 * MILLIS, 20 * MILLIS}) {
+				assertEquals("every " + interval / MILLIS + " ms for " + duration / MILLIS + " ms", expected,
+						stepResponse(interval, duration), 0.001f);
+			}
+		}
+	}
+	
+	@Test
+	public void startsAgainAfterAGap() {
+		SensorPrefilter filter = new SensorPrefilter(1, 0f, 0f, SensorPrefilter.DEFAULT_TIME_CONSTANT);
+		feed(filter, 0f, 0f, 0f);
+		timestamp += 5000 * MILLIS;
+		feed(filter, 1f, 2f, 3f);
+		assertArrayEquals(new float[] {1f, 2f, 3f}, out, 0f);
+	}
+	
+	@Test
+	public void resetForgetsEverything() {
+		SensorPrefilter filter = SensorPrefilter.createMagnetometerFilter();
+		for(int i = 0; i < 10; i++) {
+			feed(filter, 50f, 0f, 0f);
+		}
+		filter.reset();
+		feed(filter, -50f, 0f, 0f);
+		assertEquals(-50f, out[0], 0f);
+	}
+}
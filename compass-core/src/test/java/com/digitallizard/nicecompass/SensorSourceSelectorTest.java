@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SensorSourceSelectorTest {
+	private static final int GINGERBREAD = 9;
+	private static final int JELLY_BEAN_MR2 = 18;
+	private static final int KITKAT = 19;
+	private static final int LATEST = 34;
+	
+	/** a device with exactly the given sensors **/
+	private static SensorSourceSelector.SensorCatalog device(int... types) {
+		final Set<Integer> sensors = new HashSet<Integer>();
+		for(int type : types) {
+			sensors.add(type);
+		}
+		return new SensorSourceSelector.SensorCatalog() {
+			@Override
+			public boolean hasSensor(int type) {
+				return sensors.contains(type);
+			}
+		};
+	}
+	
+	private static final SensorSourceSelector.SensorCatalog EVERYTHING = device(
+			SensorSourceSelector.TYPE_ACCELEROMETER, SensorSourceSelector.TYPE_MAGNETIC_FIELD,
+			SensorSourceSelector.TYPE_GYROSCOPE, SensorSourceSelector.TYPE_ROTATION_VECTOR,
+			SensorSourceSelector.TYPE_MAGNETIC_FIELD_UNCALIBRATED,
+			SensorSourceSelector.TYPE_GEOMAGNETIC_ROTATION_VECTOR);
+	
+	@Test
+	public void noMagnetometerMeansNoHeading() {
+		SensorSourceSelector.SensorCatalog catalog = device(SensorSourceSelector.TYPE_ACCELEROMETER,
+				SensorSourceSelector.TYPE_GYROSCOPE, SensorSourceSelector.TYPE_ROTATION_VECTOR);
+		assertEquals(SensorSourceSelector.SOURCE_NONE, SensorSourceSelector.select(catalog, LATEST));
+	}
+	
+	@Test
+	public void noAccelerometerWithoutFusedSourceMeansNoHeading() {
+		SensorSourceSelector.SensorCatalog catalog = device(SensorSourceSelector.TYPE_MAGNETIC_FIELD,
+				SensorSourceSelector.TYPE_GYROSCOPE);
+		assertEquals(SensorSourceSelector.SOURCE_NONE, SensorSourceSelector.select(catalog, LATEST));
+	}
+	
+	@Test
+	public void prefersRotationVector() {
+		assertEquals(SensorSourceSelector.SOURCE_ROTATION_VECTOR, SensorSourceSelector.select(EVERYTHING, LATEST));
+		assertEquals(SensorSourceSelector.SOURCE_ROTATION_VECTOR, SensorSourceSelector.select(EVERYTHING, GINGERBREAD));
+	}
+	
+	@Test
+	public void fallsBackToGeomagneticRotationVector() {
+		SensorSourceSelector.SensorCatalog catalog = device(SensorSourceSelector.TYPE_ACCELEROMETER,
+				SensorSourceSelector.TYPE_MAGNETIC_FIELD, SensorSourceSelector.TYPE_GEOMAGNETIC_ROTATION_VECTOR);
+		assertEquals(SensorSourceSelector.SOURCE_GEOMAGNETIC_ROTATION_VECTOR,
+				SensorSourceSelector.select(catalog, KITKAT));
+		// the sensor type does not exist before kitkat, whatever the catalog claims
+		assertEquals(SensorSourceSelector.SOURCE_ACCEL_MAG, SensorSourceSelector.select(catalog, KITKAT - 1));
+	}
+	
+	@Test
+	public void rotationVectorNeedsGingerbread() {
+		SensorSourceSelector.SensorCatalog catalog = device(SensorSourceSelector.TYPE_ACCELEROMETER,
+				SensorSourceSelector.TYPE_MAGNETIC_FIELD, SensorSourceSelector.TYPE_GYROSCOPE,
+				SensorSourceSelector.TYPE_ROTATION_VECTOR);
+		assertEquals(SensorSourceSelector.SOURCE_GYRO_FUSION, SensorSourceSelector.select(catalog, GINGERBREAD - 1));
+	}
+	
+	@Test
+	public void softwareFusion() {
+		assertEquals(SensorSourceSelector.SOURCE_GYRO_FUSION, SensorSourceSelector.select(device(
+				SensorSourceSelector.TYPE_ACCELEROMETER, SensorSourceSelector.TYPE_MAGNETIC_FIELD,
+				SensorSourceSelector.TYPE_GYROSCOPE), LATEST));
+		assertEquals(SensorSourceSelector.SOURCE_ACCEL_MAG, SensorSourceSelector.select(device(
+				SensorSourceSelector.TYPE_ACCELEROMETER, SensorSourceSelector.TYPE_MAGNETIC_FIELD), LATEST));
+	}
+	
+	@Test
+	public void prefersUncalibratedMagnetometer() {
+		assertEquals(SensorSourceSelector.TYPE_MAGNETIC_FIELD_UNCALIBRATED,
+				SensorSourceSelector.selectMagnetometer(EVERYTHING, JELLY_BEAN_MR2));
+		assertEquals(SensorSourceSelector.TYPE_MAGNETIC_FIELD,
+				SensorSourceSelector.selectMagnetometer(EVERYTHING, JELLY_BEAN_MR2 - 1));
+		assertEquals(SensorSourceSelector.TYPE_MAGNETIC_FIELD, SensorSourceSelector.selectMagnetometer(device(
+				SensorSourceSelector.TYPE_ACCELEROMETER, SensorSourceSelector.TYPE_MAGNETIC_FIELD), LATEST));
+	}
+	
+	@Test
+	public void classifiesSources() {
+		assertTrue(SensorSourceSelector.isMagneticField(SensorSourceSelector.TYPE_MAGNETIC_FIELD));
+		assertTrue(SensorSourceSelector.isMagneticField(SensorSourceSelector.TYPE_MAGNETIC_FIELD_UNCALIBRATED));
+		assertFalse(SensorSourceSelector.isMagneticField(SensorSourceSelector.TYPE_ACCELEROMETER));
+		assertTrue(SensorSourceSelector.isHardwareSource(SensorSourceSelector.SOURCE_ROTATION_VECTOR));
+		assertTrue(SensorSourceSelector.isHardwareSource(SensorSourceSelector.SOURCE_GEOMAGNETIC_ROTATION_VECTOR));
+		assertFalse(SensorSourceSelector.isHardwareSource(SensorSourceSelector.SOURCE_GYRO_FUSION));
+		assertFalse(SensorSourceSelector.isHardwareSource(SensorSourceSelector.SOURCE_ACCEL_MAG));
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SensorTraceWriterTest {
+	private static final int EVENTS = 100000; // many blocks, more than the writer keeps in flight
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/** counts the events read back and checks they arrive in the order written **/
+	private static class Checker implements SensorTraceReader.Handler {
+		int sensors;
+		int locations;
+		
+		@Override
+		public void onSensor(int type, float[] values, int count, long timestamp) {
+			assertEquals(SensorSourceSelector.TYPE_MAGNETIC_FIELD, type);
+			assertEquals(3, count);
+			assertEquals(sensors * 5000000L, timestamp);
+			assertEquals(sensors, values[0], 0f);
+			assertEquals(-sensors * 0.5f, values[1], 0f);
+			assertEquals(42f, values[2], 0f);
+			sensors++;
+		}
+		
+		@Override
+		public void onLocation(long timestamp, double latitude, double longitude, double altitude, long time,
+				float declination, float fieldStrength, float inclination) {
+			assertEquals(51.5, latitude, 0);
+			assertEquals(2f, declination, 0f);
+			locations++;
+		}
+	}
+	
+	private static void write(SensorTraceWriter writer, int first, int end) throws IOException {
+		float[] values = new float[3];
+		for(int i = first; i < end; i++) {
+			values[0] = i;
+			values[1] = -i * 0.5f;
+			values[2] = 42f;
+			writer.writeSensor(SensorSourceSelector.TYPE_MAGNETIC_FIELD, values, 3, i * 5000000L);
+		}
+	}
+	
+	@Test
+	public void readsBackEverythingWritten() throws IOException {
+		File file = folder.newFile("trace");
+		SensorTraceWriter writer = new SensorTraceWriter(file);
+		write(writer, 0, EVENTS / 2);
+		writer.writeLocation(EVENTS / 2 * 5000000L, 51.5, -0.1, 20, 0, 2f, 48000f, 66f);
+		write(writer, EVENTS / 2, EVENTS);
+		writer.close();
+		// events after close are dropped
+		write(writer, 0, 1);
+		
+		SensorTraceReader reader = new SensorTraceReader(file);
+		try {
+			assertTrue(reader.getBlockCount() > 4);
+			Checker checker = new Checker();
+			assertEquals(EVENTS + 1, reader.read(checker));
+			assertEquals(EVENTS, checker.sensors);
+			assertEquals(1, checker.locations);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void flushWritesThrough() throws IOException {
+		File file = folder.newFile("trace");
+		SensorTraceWriter writer = new SensorTraceWriter(file);
+		try {
+			write(writer, 0, 10);
+			writer.flush();
+			SensorTraceReader reader = new SensorTraceReader(file);
+			try {
+				Checker checker = new Checker();
+				assertEquals(10, reader.read(checker));
+			} finally {
+				reader.close();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	@Test
+	public void appendsToAnExistingTrace() throws IOException {
+		File file = folder.newFile("trace");
+		SensorTraceWriter writer = new SensorTraceWriter(file);
+		write(writer, 0, 1000);
+		writer.close();
+		writer = new SensorTraceWriter(file);
+		write(writer, 1000, 2000);
+		writer.close();
+		
+		SensorTraceReader reader = new SensorTraceReader(file);
+		try {
+			Checker checker = new Checker();
+			assertEquals(2000, reader.read(checker));
+		} finally {
+			reader.close();
+		}
+	}
+}
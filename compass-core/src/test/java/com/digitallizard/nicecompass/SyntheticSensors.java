@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.util.Random;
+
+/**
+ * Readings from a phone lying flat and turning about the vertical, in the units android reports.
+ * The field is 45 micro tesla dipping 60 degrees. The noise is repeatable, so tests can compare runs exactly.
+ */
+final class SyntheticSensors {
+	static final float FIELD_STRENGTH = 45f; // micro tesla
+	static final float INCLINATION = 60f; // degrees
+	static final float GRAVITY = 9.81f;
+	
+	private final Random random;
+	private final float noise; // standard deviation of the magnetometer noise, a fiftieth of it on the accelerometer
+	
+	/** the accelerometer of a flat phone, into values **/
+	void accelerometer(float[] values) {
+		values[0] = gaussian(noise / 50);
+		values[1] = gaussian(noise / 50);
+		values[2] = GRAVITY + gaussian(noise / 50);
+	}
+	
+	/** the magnetometer of a flat phone pointing at the given bearing in degrees, into values **/
+	void magnetometer(double bearing, float[] values) {
+		double heading = Math.toRadians(bearing);
+		double dip = Math.toRadians(INCLINATION);
+		double horizontal = FIELD_STRENGTH * Math.cos(dip);
+		values[0] = (float)(-horizontal * Math.sin(heading)) + gaussian(noise);
+		values[1] = (float)(horizontal * Math.cos(heading)) + gaussian(noise);
+		values[2] = (float)(-FIELD_STRENGTH * Math.sin(dip)) + gaussian(noise);
+	}
+	
+	/** the gyroscope of a flat phone turning at the given rate in degrees per second, clockwise seen from above **/
+	void gyroscope(double rate, float[] values) {
+		values[0] = gaussian(noise / 50);
+		values[1] = gaussian(noise / 50);
+		values[2] = (float)-Math.toRadians(rate) + gaussian(noise / 50);
+	}
+	
+	private float gaussian(float deviation) {
+		return (deviation > 0) ? (float)random.nextGaussian() * deviation : 0f;
+	}
+	
+	/** the signed difference between two bearings in degrees, in the range -180 < x <= 180 **/
+	static float bearingDifference(float to, float from) {
+		float difference = (to - from) % 360;
+		if(difference > 180) {
+			difference -= 360;
+		} else if(difference <= -180) {
+			difference += 360;
+		}
+		return difference;
+	}
+	
+	SyntheticSensors(long seed, float noise) {
+		random = new Random(seed);
+		this.noise = noise;
+	}
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.util.Arrays;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * The label table along with the measured width of each label, so the render loop never measures text either.
+ * Only used from the render thread.
+ */
+class BearingLabels extends BearingLabelTable {
+	private final float[][] halfWidths; // negative until measured
+	private final float[] measuredTextSize;
+	private final Typeface[] measuredTypeface;
+	
+	/** half the width of the label when drawn with the given paint **/
+	float getCenterOffset(int label, Paint paint) {
+		int table = tableOf(label);
+		int index = indexOf(label);
+		// widths only hold for the paint settings they were measured with
+		if(paint.getTextSize() != measuredTextSize[table] || paint.getTypeface() != measuredTypeface[table]) {
+			Arrays.fill(halfWidths[table], -1f);
+			measuredTextSize[table] = paint.getTextSize();
+			measuredTypeface[table] = paint.getTypeface();
+		}
+		float halfWidth = halfWidths[table][index];
+		if(halfWidth < 0) {
+			halfWidth = paint.measureText(getText(label)) / 2;
+			halfWidths[table][index] = halfWidth;
+		}
+		return halfWidth;
+	}
+	
+	BearingLabels() {
+		halfWidths = new float[TABLE_COUNT][];
+		for(int table = 0; table < TABLE_COUNT; table++) {
+			halfWidths[table] = new float[tableSize(table)];
+			Arrays.fill(halfWidths[table], -1f);
+		}
+		measuredTextSize = new float[TABLE_COUNT];
+		measuredTypeface = new Typeface[TABLE_COUNT];
+	}
+}
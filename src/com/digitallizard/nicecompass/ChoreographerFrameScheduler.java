@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Choreographer;
+
+/**
+ * Aligns frames to the display's vsync using Choreographer, on a render thread with its own looper.
+ * The thread is created on the first start and only stops on shutdown, stopping just stops the frames.
+ * Only usable on api 16 and up.
+ */
+public class ChoreographerFrameScheduler extends FrameScheduler implements Choreographer.FrameCallback {
+	private static final long VSYNC_TOLERANCE_NANOS = 2000000l; // vsync timestamps jitter by a millisecond or so
+	
+	private final AtomicBoolean frameRequested;
+	private final Runnable postFrame;
+	private final Runnable removeFrame;
+	private final Object lock;
+	// guarded by lock
+	private boolean running;
+	private boolean inFrame;
+	private HandlerThread thread;
+	private volatile Handler handler;
+	private Choreographer choreographer; // only touched on the render thread
+	private long lastFrameTime;
+	
+	public void doFrame(long frameTimeNanos) {
+		synchronized(lock) {
+			if(!running) {
+				frameRequested.set(false); // the next start asks again
+				return; // stopped whilst this vsync was on its way
+			}
+			inFrame = true;
+		}
+		try {
+			// skip vsyncs that come too soon, so the display rate does not raise our frame rate and power use
+			if(frameTimeNanos - lastFrameTime < frameIntervalNanos - VSYNC_TOLERANCE_NANOS) {
+				choreographer.postFrameCallback(this);
+				return;
+			}
+			lastFrameTime = frameTimeNanos;
+			
+			frameRequested.set(false); // requests made during the frame will schedule the next one
+			onFrameStart(System.nanoTime());
+			callback.doFrame(frameTimeNanos);
+			onFrameEnd(System.nanoTime(), frameRequested.get());
+		} finally {
+			synchronized(lock) {
+				inFrame = false;
+				lock.notifyAll();
+			}
+		}
+	}
+	
+	@Override
+	public void requestFrame() {
+		// only the first request is posted, the rest piggyback on it
+		if(frameRequested.compareAndSet(false, true)) {
+			Handler currentHandler = handler;
+			if(currentHandler != null) {
+				currentHandler.post(postFrame);
+			}
+		}
+	}
+	
+	@Override
+	public void start() {
+		synchronized(lock) {
+			if(thread == null) {
+				thread = new HandlerThread("compass render", Process.THREAD_PRIORITY_DISPLAY);
+				thread.start();
+				handler = new Handler(thread.getLooper());
+			}
+			running = true;
+		}
+		frameRequested.set(false);
+		requestFrame(); // draw at least once
+	}
+	
+	@Override
+	public void stop() {
+		synchronized(lock) {
+			running = false;
+			// a frame part way through must finish before the caller carries on
+			while(inFrame && (thread == null || Thread.currentThread() != thread)) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					// keep waiting, the frame will not be long
+				}
+			}
+			// take back the callback already posted for the next vsync, so a quick start does not post a second one.
+			// it runs after anything already queued on the render thread, and before whatever start queues next
+			if(handler != null) {
+				handler.post(removeFrame);
+			}
+		}
+	}
+	
+	@Override
+	public void shutdown() {
+		HandlerThread oldThread;
+		synchronized(lock) {
+			stop();
+			oldThread = thread;
+			thread = null;
+			handler = null;
+		}
+		if(oldThread != null) {
+			oldThread.quit();
+			if(oldThread != Thread.currentThread()) {
+				try {
+					oldThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+	public ChoreographerFrameScheduler(Callback callback, int targetFps) {
+		super(callback, targetFps);
+		frameRequested = new AtomicBoolean();
+		lock = new Object();
+		postFrame = new Runnable() {
+			public void run() {
+				// the choreographer belongs to the looper it was first asked for on
+				if(choreographer == null) {
+					choreographer = Choreographer.getInstance();
+				}
+				choreographer.postFrameCallback(ChoreographerFrameScheduler.this);
+			}
+		};
+		removeFrame = new Runnable() {
+			public void run() {
+				if(choreographer != null) {
+					choreographer.removeFrameCallback(ChoreographerFrameScheduler.this);
+				}
+			}
+		};
+	}
+}
@@ -10,6 +10,7 @@ import android.app.Dialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.view.Menu;
@@ -24,6 +25,7 @@ public class CompassActivity extends FragmentActivity {
 	public static final String PREFKEY_USE_TRUE_NORTH = "useTrueNorth";
 	public static final String PREFKEY_USE_MANUAL_DECLINATION = "useManualDeclination";
 	public static final String PREFKEY_MANUAL_DECLINATION_VALUE = "manualDeclinationValue";
+	public static final String PREFKEY_DEBUG_OVERLAY = "debugOverlay";
 	public static final boolean DEFAULT_USE_TRUE_NORTH = true;
 	public static final float DEFAULT_MANUAL_DECLINATION = 0.0f;
 	
@@ -177,6 +179,10 @@ public class CompassActivity extends FragmentActivity {
     	} else if(item.getItemId() == R.id.menuItemManualLockedBearing) {
     		showDialog(DIALOG_SELECT_LOCKED_BEARING);
     		return true; // we have received the press so we can report true
+    	} else if(item.getItemId() == R.id.menuItemDebugOverlay) {
+    		surface.setDebugOverlay(!surface.isDebugOverlay());
+    		item.setChecked(surface.isDebugOverlay());
+    		return true; // we have received the press so we can report true
     	} else {
     		return super.onOptionsItemSelected(item);
     	}
@@ -187,9 +193,17 @@ public class CompassActivity extends FragmentActivity {
     	super.onCreateOptionsMenu(menu);
     	// inflate the menu XML file
     	getMenuInflater().inflate(R.menu.menu, menu);
+    	// the debug overlay is only offered in debug builds
+    	MenuItem debugItem = menu.findItem(R.id.menuItemDebugOverlay);
+    	debugItem.setVisible(isDebuggable());
+    	debugItem.setChecked(surface.isDebugOverlay());
     	return true; // we have made the menu so we can return true
     }
 
+	boolean isDebuggable() {
+		return (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+	}
+	
 	@Override
 	public void onPause() {
 		// save the current north state
@@ -198,6 +212,7 @@ public class CompassActivity extends FragmentActivity {
 		editor.putBoolean(PREFKEY_USE_TRUE_NORTH, surface.useTrueNorth());
 		editor.putBoolean(PREFKEY_USE_MANUAL_DECLINATION, surface.isUsingManualDeclination());
 		editor.putFloat(PREFKEY_MANUAL_DECLINATION_VALUE, surface.getManualDeclination());
+		editor.putBoolean(PREFKEY_DEBUG_OVERLAY, surface.isDebugOverlay());
 		editor.commit();
 		
 		// unregister from the compass to prevent undue battery drain
@@ -208,6 +223,14 @@ public class CompassActivity extends FragmentActivity {
 		super.onPause();
 	}
 	
+	@Override
+	public void onDestroy() {
+		// the sensor and render threads outlive pauses, they only stop with the activity
+		surface.release();
+		compass.shutdown();
+		super.onDestroy();
+	}
+	
 	@Override
 	public void onResume() {
 		// class the superclass
@@ -239,6 +262,11 @@ public class CompassActivity extends FragmentActivity {
         	surface.setManualDeclination(settings.getFloat(PREFKEY_MANUAL_DECLINATION_VALUE, DEFAULT_MANUAL_DECLINATION));
         }
         
+        // the overlay stays off in release builds even if it was left on in a debug one
+        if(isDebuggable()) {
+        	surface.setDebugOverlay(settings.getBoolean(PREFKEY_DEBUG_OVERLAY, false));
+        }
+        
         // prevent gradient banding
         surface.getHolder().setFormat(android.graphics.PixelFormat.TRANSPARENT);
         
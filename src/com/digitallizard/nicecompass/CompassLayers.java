@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Offscreen copies of the parts of the compass that rarely change, so a frame is a few blits
+ * instead of redrawing and rescaling the artwork every time.
+ * The card is prescaled to its exact size, the centre (inner circle and status icon) is rebuilt
+ * when the lock or status changes, the bezel only when the size changes.
+ * Only used from the render thread.
+ */
+class CompassLayers {
+	private static final float BEZEL_OFFSET = 2f;
+	private static final float BEZEL_STROKE_WIDTH = 6f;
+	private static final int LAYER_MARGIN = 2; // pixels of slack around each layer for stroke overhang
+	
+	private final Bitmap cardImage;
+	private final Bitmap interferenceImage;
+	private final Bitmap openPadlockImage;
+	private final Bitmap closedPadlockImage;
+	private final Paint imagePaint;
+	private final Paint greyPaint;
+	private final Paint bluePaint;
+	private final Paint darkGreyPaint;
+	private final Rect workRect;
+	
+	// the layout the layers were built for
+	private float centerX;
+	private float centerY;
+	private int cardDiameter;
+	private int cardX;
+	private int cardY;
+	
+	private Bitmap scaledCard;
+	private Bitmap bezelLayer;
+	private int bezelX;
+	private int bezelY;
+	private Bitmap centerLayer;
+	private int centerX0;
+	private int centerY0;
+	private int centerState; // the lock and status the centre was drawn for, -1 if it needs rebuilding
+	
+	private static int stateKey(boolean locked, int status) {
+		return (locked ? 1 : 0) | ((status + 1) << 1);
+	}
+	
+	private static void recycle(Bitmap bitmap) {
+		if(bitmap != null) {
+			bitmap.recycle();
+		}
+	}
+	
+	private void buildBezel(float innerRatio) {
+		float radius = cardDiameter / 2 + BEZEL_OFFSET + BEZEL_STROKE_WIDTH / 2;
+		bezelX = (int)Math.floor(centerX - radius) - LAYER_MARGIN;
+		bezelY = (int)Math.floor(centerY - radius) - LAYER_MARGIN;
+		int size = (int)Math.ceil(radius * 2) + LAYER_MARGIN * 2 + 1;
+		bezelLayer = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bezelLayer);
+		canvas.translate(-bezelX, -bezelY); // so we can draw in screen coordinates
+		
+		darkGreyPaint.setStyle(Paint.Style.STROKE);
+		darkGreyPaint.setStrokeWidth(BEZEL_STROKE_WIDTH);
+		canvas.drawCircle(centerX, centerY, cardDiameter / 2 + BEZEL_OFFSET, darkGreyPaint);
+		// the lubber line
+		canvas.drawLine(centerX, cardY, centerX, cardY + ((1 - innerRatio) * cardDiameter / 2), darkGreyPaint);
+		darkGreyPaint.setStyle(Paint.Style.FILL);
+	}
+	
+	private void buildCenter(float innerRatio, boolean locked, int status) {
+		float radius = (cardDiameter * innerRatio) / 2;
+		if(centerLayer == null) {
+			centerX0 = (int)Math.floor(centerX - radius) - LAYER_MARGIN;
+			centerY0 = (int)Math.floor(centerY - radius) - LAYER_MARGIN;
+			int size = (int)Math.ceil(radius * 2) + LAYER_MARGIN * 2 + 1;
+			centerLayer = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		} else {
+			centerLayer.eraseColor(0);
+		}
+		Canvas canvas = new Canvas(centerLayer);
+		canvas.translate(-centerX0, -centerY0);
+		
+		// the inside of the compass card
+		if(!locked) {
+			canvas.drawCircle(centerX, centerY, radius, greyPaint);
+		} else {
+			bluePaint.setStyle(Paint.Style.FILL_AND_STROKE);
+			canvas.drawCircle(centerX, centerY, radius, bluePaint);
+		}
+		
+		// the right status, or the bearing lock indicator if there is no status
+		workRect.set((int)Math.floor(centerX - radius), (int)Math.floor(centerY - radius),
+				(int)Math.floor(centerX + radius), (int)Math.floor(centerY + radius));
+		if(status == CompassManager.STATUS_INTERFERENCE) {
+			canvas.drawBitmap(interferenceImage, null, workRect, imagePaint);
+		} else if(status == CompassSurface.STATUS_NO_EVENT) {
+			canvas.drawBitmap(locked ? closedPadlockImage : openPadlockImage, null, workRect, imagePaint);
+		}
+		centerState = stateKey(locked, status);
+	}
+	
+	/** rebuilds whatever is out of date, cheap when nothing has changed **/
+	void update(float newCenterX, float newCenterY, int newCardDiameter, float innerRatio, boolean locked, int status) {
+		if(newCenterX != centerX || newCenterY != centerY || newCardDiameter != cardDiameter || scaledCard == null) {
+			release();
+			centerX = newCenterX;
+			centerY = newCenterY;
+			cardDiameter = newCardDiameter;
+			cardX = (int)Math.floor(centerX - (cardDiameter / 2));
+			cardY = (int)Math.floor(centerY - (cardDiameter / 2));
+			scaledCard = Bitmap.createScaledBitmap(cardImage, cardDiameter, cardDiameter, true);
+			buildBezel(innerRatio);
+		}
+		if(centerState != stateKey(locked, status)) {
+			buildCenter(innerRatio, locked, status);
+		}
+	}
+	
+	void drawCenter(Canvas canvas) {
+		canvas.drawBitmap(centerLayer, centerX0, centerY0, imagePaint);
+	}
+	
+	/** draws the card unrotated, the caller rotates the canvas **/
+	void drawCard(Canvas canvas) {
+		canvas.drawBitmap(scaledCard, cardX, cardY, imagePaint);
+	}
+	
+	void drawBezel(Canvas canvas) {
+		canvas.drawBitmap(bezelLayer, bezelX, bezelY, imagePaint);
+	}
+	
+	int getCardY() {
+		return cardY;
+	}
+	
+	void release() {
+		recycle(scaledCard);
+		recycle(bezelLayer);
+		recycle(centerLayer);
+		scaledCard = null;
+		bezelLayer = null;
+		centerLayer = null;
+		centerState = -1;
+	}
+	
+	CompassLayers(Bitmap cardImage, Bitmap interferenceImage, Bitmap openPadlockImage, Bitmap closedPadlockImage,
+			Paint imagePaint, Paint greyPaint, Paint bluePaint, Paint darkGreyPaint) {
+		this.cardImage = cardImage;
+		this.interferenceImage = interferenceImage;
+		this.openPadlockImage = openPadlockImage;
+		this.closedPadlockImage = closedPadlockImage;
+		this.imagePaint = imagePaint;
+		this.greyPaint = greyPaint;
+		this.bluePaint = bluePaint;
+		this.darkGreyPaint = darkGreyPaint;
+		workRect = new Rect();
+		centerState = -1;
+	}
+}
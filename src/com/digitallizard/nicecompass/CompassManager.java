@@ -6,8 +6,11 @@
  ******************************************************************************/
 package com.digitallizard.nicecompass;
 
+import java.io.File;
+import java.io.IOException;
+
 import android.content.Context;
-import android.hardware.GeomagneticField;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -15,200 +18,378 @@ import android.hardware.SensorManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
 
 public class CompassManager implements SensorEventListener {
 	/** constants **/
 	private static final int LOCATION_UPDATE_MIN_TIME = 60000; // the min time in millisecs
 	private static final int LOCATION_UPDATE_MIN_DISTANCE = 10000; // the min distance in metres
-	public static final int STATUS_GOOD = 0;
-	public static final int STATUS_INTERFERENCE = 1;
-	public static final int STATUS_INACTIVE = 2;
-	private static final float MAGNETIC_INTERFERENCE_THRESHOLD_MODIFIER = 1.05f;
+	public static final int STATUS_GOOD = CompassPipeline.STATUS_GOOD;
+	public static final int STATUS_INTERFERENCE = CompassPipeline.STATUS_INTERFERENCE;
+	public static final int STATUS_INACTIVE = CompassPipeline.STATUS_INACTIVE;
+	private static final int BATCHING_API = 19; // registerListener with a max report latency
+	private static final int APPLY_API = 9; // SharedPreferences.Editor.apply
+	private static final int STATIONARY_REPORT_LATENCY = 300000; // microseconds, how long a still compass may wait for events
+	public static final int SMOOTHING_OFF = -1;
+	private static final String PREFKEY_CALIBRATION = "magneticCalibration";
+	private static final String PREFKEY_CALIBRATION_SENSOR = "magneticCalibrationSensor"; // the magnetometer it was fitted to
 	
 	/** variables **/
 	private final LocationManager locationManager;
 	private final LocationListener locationListener;
 	private final SensorManager sensorManager;
-	private final Sensor magSensor;
+	private final Sensor magSensor; // the uncalibrated magnetometer where there is one
+	private final SharedPreferences preferences;
 	private final Sensor accelSensor;
-	private GeomagneticField geoField;
+	private final Sensor gyroSensor; // null if the device does not have one
+	private final SensorSourceSelector.SensorCatalog sensorCatalog;
+	private Sensor rotationVectorSensor; // the fused sensor in use, if any
+	private volatile int activeSource;
+	private final CompassPipeline pipeline; // does everything with the readings once they arrive
 	private boolean sensorsRegistered; // stores the event listener state
-	private boolean sensorHasNewData; // improves performance by only computing the data when required
-	private float[] magValues;
-	private float[] accelValues;
-	private float[] orientationDataCache;
-	private Location locationCache;
-	private int status;
-	
-	private boolean useManualDeclination;
-	private float manualDeclination;
+	private final Object registrationLock; // guards the registration state, the sensor thread never waits on the manager
+	// sensor events are delivered on their own thread so the ui thread can never hold them up
+	private HandlerThread sensorThread;
+	private Handler sensorHandler;
+	private final Runnable startEngine;
+	private final Runnable stopEngine;
+	// the engines are only touched from the sensor thread
+	private final RotationVectorEngine rotationVectorEngine;
+	private final AccelMagEngine accelMagEngine;
+	private volatile GyroFusionEngine fusionEngine;
+	private volatile SensorTraceWriter traceWriter; // null unless a trace is being recorded
+	private volatile long lastEventTimestamp; // locations are traced with the time of the latest sensor event
+	private volatile long sensorClockOffset; // System.nanoTime() minus the sensor clock, Long.MAX_VALUE until known
+	private final SamplingController samplingController; // only touched from the thread sensor events are delivered on
 	
 	
-	private synchronized float[] getAccelValues() {
-		return accelValues;
+	private void updateGeoField(Location location) {
+		// we can do nothing without location
+		if(location != null) {
+			// update the geomagnetic field
+			GeomagneticModel model = new GeomagneticFieldModel(location, System.currentTimeMillis());
+			traceLocation(location, model);
+			pipeline.setGeomagneticModel(model);
+		}
 	}
-
-	private synchronized void setAccelValues(float[] accelValues) {
-		this.accelValues = accelValues;
+	
+	/** a calibration only fits the magnetometer it was made with, a restored phone may have a different one **/
+	private static String describeSensor(Sensor sensor) {
+		return sensor.getType() + ":" + sensor.getName() + ":" + sensor.getVendor() + ":" + sensor.getVersion();
 	}
-
-	private synchronized Location getLocation() {
-		return locationCache;
+	
+	private void loadCalibration() {
+		if(magSensor == null || !describeSensor(magSensor).equals(preferences.getString(PREFKEY_CALIBRATION_SENSOR, null))) {
+			return;
+		}
+		String stored = preferences.getString(PREFKEY_CALIBRATION, null);
+		if(stored == null) {
+			return;
+		}
+		String[] parts = stored.split(",");
+		float[] values = new float[parts.length];
+		try {
+			for(int i = 0; i < parts.length; i++) {
+				values[i] = Float.parseFloat(parts[i]);
+			}
+		} catch(NumberFormatException e) {
+			// corrupt, a new one will be fitted
+			return;
+		}
+		pipeline.setCalibration(MagneticCalibration.fromArray(values));
 	}
-
-	private synchronized void updateLocation(Location locationCache) {
-		this.locationCache = locationCache;
+	
+	/** runs on the sensor thread, so the preferences are written out in the background **/
+	private void saveCalibration(MagneticCalibration calibration) {
+		float[] values = calibration.toArray();
+		StringBuilder stored = new StringBuilder();
+		for(int i = 0; i < values.length; i++) {
+			if(i > 0) {
+				stored.append(',');
+			}
+			stored.append(values[i]);
+		}
+		SharedPreferences.Editor editor = preferences.edit();
+		editor.putString(PREFKEY_CALIBRATION, stored.toString());
+		editor.putString(PREFKEY_CALIBRATION_SENSOR, describeSensor(magSensor));
+		if(Build.VERSION.SDK_INT >= APPLY_API) {
+			editor.apply();
+		} else {
+			// commit blocks on the disk, which would hold up the sensor events behind it
+			final SharedPreferences.Editor pending = editor;
+			new Thread(new Runnable() {
+				public void run() {
+					pending.commit();
+				}
+			}, "compass calibration").start();
+		}
 	}
-
-	private synchronized float[] getMagValues() {
-		return magValues;
+	
+	private void traceSensor(int type, float[] values, long timestamp) {
+		SensorTraceWriter writer = traceWriter;
+		lastEventTimestamp = timestamp;
+		if(writer != null) {
+			try {
+				writer.writeSensor(type, values, values.length, timestamp);
+			} catch(IOException e) {
+				traceFailed(e);
+			}
+		}
 	}
 	
-	private synchronized void setMagValues(float[] values) {
-		magValues = values;
+	private void traceLocation(Location location, GeomagneticModel model) {
+		SensorTraceWriter writer = traceWriter;
+		if(writer != null) {
+			try {
+				writer.writeLocation(lastEventTimestamp, location.getLatitude(), location.getLongitude(), location.getAltitude(),
+						location.getTime(), model.getDeclination(), model.getFieldStrength(), model.getInclination());
+			} catch(IOException e) {
+				traceFailed(e);
+			}
+		}
 	}
 	
-	private synchronized boolean sensorHasNewData() {
-		return sensorHasNewData;
+	private void traceFailed(IOException e) {
+		// the compass carries on without the trace
+		Log.w("compass", "sensor trace stopped", e);
+		stopTrace();
 	}
 	
-	private synchronized void setSensorHasNewData(boolean newData) {
-		sensorHasNewData = newData;
+	private void registerSensorListeners() {
+		// use the cheapest source this device can give an accurate heading from
+		activeSource = SensorSourceSelector.select(sensorCatalog, Build.VERSION.SDK_INT);
+		if(activeSource == SensorSourceSelector.SOURCE_ROTATION_VECTOR
+				|| activeSource == SensorSourceSelector.SOURCE_GEOMAGNETIC_ROTATION_VECTOR) {
+			rotationVectorSensor = sensorManager.getDefaultSensor(
+					(activeSource == SensorSourceSelector.SOURCE_ROTATION_VECTOR) ? SensorSourceSelector.TYPE_ROTATION_VECTOR
+							: SensorSourceSelector.TYPE_GEOMAGNETIC_ROTATION_VECTOR);
+		}
+		// the handler runs messages in order, so the engine is ready before the first event arrives
+		sensorHandler.post(startEngine);
+		registerSourceSensors(SamplingController.MODE_ACTIVE);
 	}
 	
+	/** runs on the sensor thread **/
+	private void selectEngine() {
+		switch(activeSource) {
+		case SensorSourceSelector.SOURCE_ROTATION_VECTOR:
+		case SensorSourceSelector.SOURCE_GEOMAGNETIC_ROTATION_VECTOR:
+			pipeline.setEngine(rotationVectorEngine);
+			break;
+		case SensorSourceSelector.SOURCE_GYRO_FUSION:
+			pipeline.setEngine(fusionEngine);
+			break;
+		default:
+			pipeline.setEngine(accelMagEngine); // never fed when there is no source, the status stays inactive
+			break;
+		}
+		samplingController.reset();
+	}
 	
-	private void interferenceTest(float[] values) {
-		// get the expected values
-		float threshold = getExpectedFieldStrength() * MAGNETIC_INTERFERENCE_THRESHOLD_MODIFIER;
-		float totalStrength = 1f;
-		// loop through the values and test that they are not more than X% above the expected values
-		for(int i = 0; i < values.length; i++){
-			totalStrength *= values[i];
+	/** registers the sensors the active source needs at the rates for the given sampling mode **/
+	private void registerSourceSensors(int mode) {
+		int delay = SensorManager.SENSOR_DELAY_UI;
+		if(mode == SamplingController.MODE_STATIONARY) {
+			delay = SensorManager.SENSOR_DELAY_NORMAL;
+		} else if(mode == SamplingController.MODE_MOVING) {
+			delay = SensorManager.SENSOR_DELAY_GAME;
 		}
-		if(totalStrength > threshold){
-			// report possible interference
-			status = STATUS_INTERFERENCE;
-		} else {
-			status = STATUS_GOOD;
+		
+		switch(activeSource) {
+		case SensorSourceSelector.SOURCE_ROTATION_VECTOR:
+		case SensorSourceSelector.SOURCE_GEOMAGNETIC_ROTATION_VECTOR:
+			registerSensor(rotationVectorSensor, delay, mode);
+			// the magnetometer is only needed for the interference test, so it can run slowly
+			registerSensor(magSensor, SensorManager.SENSOR_DELAY_NORMAL, mode);
+			break;
+		case SensorSourceSelector.SOURCE_GYRO_FUSION:
+			registerSensor(magSensor, delay, mode);
+			registerSensor(accelSensor, delay, mode);
+			// integration error grows with the step size, so the gyroscope runs faster than the others
+			registerSensor(gyroSensor, (mode == SamplingController.MODE_MOVING) ? SensorManager.SENSOR_DELAY_FASTEST
+					: (mode == SamplingController.MODE_ACTIVE) ? SensorManager.SENSOR_DELAY_GAME : delay, mode);
+			break;
+		case SensorSourceSelector.SOURCE_ACCEL_MAG:
+			registerSensor(magSensor, delay, mode);
+			registerSensor(accelSensor, delay, mode);
+			break;
 		}
 	}
 	
-	private float getExpectedFieldStrength(){
-		// a geo field is required for accurate data
-		if(getGeoField() != null){
-			return geoField.getFieldStrength();
+	private void registerSensor(Sensor sensor, int delay, int mode) {
+		if(mode == SamplingController.MODE_STATIONARY && Build.VERSION.SDK_INT >= BATCHING_API) {
+			// let the sensor hub hold events back, the compass wakes up for a batch instead of every one
+			sensorManager.registerListener(this, sensor, delay, STATIONARY_REPORT_LATENCY, sensorHandler);
 		} else {
-			// provide a field strength over average
-			return 60*60*60f;
+			sensorManager.registerListener(this, sensor, delay, sensorHandler);
 		}
 	}
 	
-	private synchronized GeomagneticField getGeoField() {
-		return geoField;
+	/** moves the sensors to the rates for a new sampling mode, the engine carries on from where it was **/
+	private void changeSamplingMode(int mode) {
+		synchronized(registrationLock) {
+			// events queued before an unregistration must not register the sensors again
+			if(sensorsRegistered) {
+				sensorManager.unregisterListener(this);
+				registerSourceSensors(mode);
+			}
+		}
 	}
 	
-	private synchronized void updateGeoField() {
-		Location location = getLocation();
-		// we can do nothing without location
-		if(location != null) {
-			// update the geomagnetic field
-			geoField = new GeomagneticField(
-		             Double.valueOf(location.getLatitude()).floatValue(),
-		             Double.valueOf(location.getLongitude()).floatValue(),
-		             Double.valueOf(location.getAltitude()).floatValue(),
-		             System.currentTimeMillis());
+	private void unregisterSensorListeners() {
+		// nothing new is queued after this, whatever is already queued runs before the engine stops
+		sensorManager.unregisterListener(this);
+		sensorHandler.post(stopEngine);
+		rotationVectorSensor = null;
+	}
+	
+	public boolean hasGyroscope() {
+		return gyroSensor != null;
+	}
+	
+	/**
+	 * Turns the median, gating and low pass filtering of the accelerometer and magnetometer on or off,
+	 * see SensorPrefilter. It is on by default, the fused hardware sources are not affected either way.
+	 */
+	public void setPrefiltering(boolean enabled) {
+		if(enabled) {
+			pipeline.setPrefilters(SensorPrefilter.createAccelerometerFilter(), SensorPrefilter.createMagnetometerFilter());
+		} else {
+			pipeline.setPrefilters(null, null);
 		}
 	}
 	
-	private float convertToTrueNorth(float bearing){
-		return bearing + getDeclination();
+	/** one of the HeadingSmoother.PRESET_ constants, or SMOOTHING_OFF. balanced by default **/
+	public void setHeadingSmoothing(int preset) {
+		pipeline.setHeadingSmoother((preset == SMOOTHING_OFF) ? null : HeadingSmoother.create(preset));
 	}
 	
-	private synchronized void setOrientationData(float[] orientationDataCache) {
-		this.orientationDataCache = orientationDataCache;
+	/** the calibration applied to the magnetometer, null until one has been fitted **/
+	public MagneticCalibration getCalibration() {
+		return pipeline.getCalibration();
 	}
 	
-	private synchronized float[] getOrientationData() {
-		// if there is no new data, bail here
-		if(!sensorHasNewData() || getMagValues() == null || getAccelValues() == null){
-			return orientationDataCache;
+	/** the SamplingController mode the sensors are currently running in **/
+	public int getSamplingMode() {
+		return samplingController.getMode();
+	}
+	
+	/** the SensorSourceSelector source the heading currently comes from **/
+	public int getActiveSource() {
+		return activeSource;
+	}
+	
+	/** swaps the engine used for gyroscope fusion, the new engine starts from scratch **/
+	public void setFusionEngine(GyroFusionEngine newEngine) {
+		synchronized(registrationLock) {
+			if(sensorsRegistered && activeSource == SensorSourceSelector.SOURCE_GYRO_FUSION) {
+				unregisterSensorListeners();
+				fusionEngine = newEngine;
+				registerSensorListeners();
+			} else {
+				fusionEngine = newEngine;
+			}
 		}
-		
-		// compute the orientation data
-		float[] R = new float[16];
-        float[] I = new float[16];
-        SensorManager.getRotationMatrix(R, I, getAccelValues(), getMagValues());
-        setOrientationData(new float[3]);
-        SensorManager.getOrientation(R, orientationDataCache);
-		
-		// flag the data as computed
-        setSensorHasNewData(false);
-		
-		// return the new data
-		return orientationDataCache;
 	}
 	
-	public synchronized boolean isActive() {
-		// are the sensors registered
-		return sensorsRegistered;
+	/**
+	 * Starts appending every sensor and location event to the given trace file, see SensorTraceWriter.
+	 * Any trace already being recorded is stopped first.
+	 */
+	public void startTrace(File file) throws IOException {
+		stopTrace();
+		traceWriter = new SensorTraceWriter(file);
+	}
+	
+	public void stopTrace() {
+		SensorTraceWriter writer = traceWriter;
+		traceWriter = null;
+		if(writer != null) {
+			try {
+				writer.close();
+			} catch(IOException e) {
+				Log.w("compass", "could not finish the sensor trace", e);
+			}
+		}
+	}
+	
+	public boolean isTracing() {
+		return traceWriter != null;
+	}
+	
+	/**
+	 * Copies the latest orientation into the given snapshot without blocking.
+	 * Returns false, at almost no cost, if the snapshot is already up to date.
+	 */
+	public boolean readSnapshot(OrientationSnapshot snapshot) {
+		return pipeline.readSnapshot(snapshot);
+	}
+	
+	public void setOnOrientationChangedListener(CompassPipeline.OnOrientationChangedListener listener) {
+		pipeline.setOnOrientationChangedListener(listener);
+	}
+	
+	/** counters for everything the pipeline does, see PipelineMetrics **/
+	public PipelineMetrics getMetrics() {
+		return pipeline.getMetrics();
+	}
+	
+	public long getOrientationVersion() {
+		return pipeline.getOrientationVersion();
+	}
+	
+	public boolean isActive() {
+		synchronized(registrationLock) {
+			// are the sensors registered
+			return sensorsRegistered;
+		}
 	}
 	
 	public int getStatus() {
-		return status;
+		return pipeline.getStatus();
 	}
 	
 	public float getDeclination() {
-		// if the user wanted manual declination, return this
-		if(useManualDeclination) {
-			return manualDeclination; // this exits here
-		}
-		
-		// if there is no geomagnetic field, just use the normal bearing
-		if(getGeoField() != null) {
-			return getGeoField().getDeclination(); // convert magnetic north into true north
-		}
-		else {
-			return 0f; // set the declination to 0
-		}
+		return pipeline.getDeclination();
 	}
 	
-	public synchronized void setManualDeclination(float declination) {
-		useManualDeclination = true;
-		manualDeclination = declination;
+	public void setManualDeclination(float declination) {
+		pipeline.setManualDeclination(declination);
 	}
 	
-	public synchronized void useAutoDeclination() {
-		useManualDeclination = false;
+	public void useAutoDeclination() {
+		pipeline.useAutoDeclination();
 	}
 	
 	public boolean isUsingManualDeclination() {
-		return useManualDeclination;
+		return pipeline.isUsingManualDeclination();
 	}
 	
 	public String getCardinal(boolean trueNorth) {
 		return CardinalConverter.cardinalFromBearing(getBearing(trueNorth));
 	}
 	
+	/** converts a sensor event timestamp to the System.nanoTime() clock, returns -1 before the first event **/
+	public long toNanoTime(long sensorTimestamp) {
+		long offset = sensorClockOffset;
+		return (offset == Long.MAX_VALUE) ? -1 : sensorTimestamp + offset;
+	}
+	
+	/** converts a System.nanoTime() to the sensor event clock, returns -1 before the first event **/
+	public long toSensorTime(long nanoTime) {
+		long offset = sensorClockOffset;
+		return (offset == Long.MAX_VALUE) ? -1 : nanoTime - offset;
+	}
+	
 	public float getBearing(boolean trueNorth) {
-		// update the values
-		float[] orientationData = getOrientationData();
-		
-		// bail if the orientation data was null
-		if(orientationData == null) {
-			return 0f;
-		}
-		
-		// convert the orientation data into a bearing
-		float azimuth = orientationData[0];
-		float bearing = azimuth * (360 / (2 * (float)Math.PI)); // convert from radians into degrees
-		
-		// check if we need to convert this into true
-		if(trueNorth) {
-			bearing = convertToTrueNorth(bearing);
-		}
-		
-		return bearing;
+		// a lock free read of the latest azimuth and declination
+		return pipeline.getBearing(trueNorth);
 	}
 	
 	public float getPositiveBearing(boolean trueNorth) {
@@ -221,61 +402,128 @@ public class CompassManager implements SensorEventListener {
 	}
 	
 	public void unregisterSensors() {
-		if(sensorsRegistered){
-			// unregister our sensor listeners
-			locationManager.removeUpdates(locationListener);
-			sensorManager.unregisterListener(this, magSensor);
-			sensorManager.unregisterListener(this, accelSensor);
-			setSensorHasNewData(false);
-			status = STATUS_INACTIVE;
-			sensorsRegistered = false; // flag the sensors as unregistered
+		synchronized(registrationLock) {
+			if(sensorsRegistered){
+				// unregister our sensor listeners
+				locationManager.removeUpdates(locationListener);
+				unregisterSensorListeners();
+				activeSource = SensorSourceSelector.SOURCE_NONE;
+				sensorsRegistered = false; // flag the sensors as unregistered
+			}
 		}
 	}
 	
 	public void registerSensors() {
-		if(!sensorsRegistered) {
-			// register our sensor listeners
-			// an exception will be thrown if the network provider does not exist
-			try {
-				locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, LOCATION_UPDATE_MIN_TIME, LOCATION_UPDATE_MIN_DISTANCE, locationListener);
-			} catch(IllegalArgumentException e) {
-				// TODO: tell the user that their device does not provide network location data
+		synchronized(registrationLock) {
+			if(!sensorsRegistered) {
+				// the sensor thread lives until shutdown, pausing only unregisters the listeners
+				if(sensorThread == null) {
+					sensorThread = new HandlerThread("compass sensors", Process.THREAD_PRIORITY_DISPLAY);
+					sensorThread.start();
+					sensorHandler = new Handler(sensorThread.getLooper());
+				}
+			
+				// register our sensor listeners
+				// an exception will be thrown if the network provider does not exist
+				try {
+					locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, LOCATION_UPDATE_MIN_TIME, LOCATION_UPDATE_MIN_DISTANCE, locationListener);
+				} catch(IllegalArgumentException e) {
+					// TODO: tell the user that their device does not provide network location data
+				}
+				registerSensorListeners();
+				sensorsRegistered = true; // flag the sensors as registered
+			}
+		}
+	}
+	
+	/** stops the sensors and their thread, the manager cannot be used afterwards **/
+	public void shutdown() {
+		synchronized(registrationLock) {
+			unregisterSensors();
+			if(sensorThread != null) {
+				// quit once the engine has stopped, quitting straight away would drop it
+				sensorHandler.post(new Runnable() {
+					public void run() {
+						Looper.myLooper().quit();
+					}
+				});
+				sensorThread = null;
+				sensorHandler = null;
 			}
-			sensorManager.registerListener(this, magSensor, SensorManager.SENSOR_DELAY_UI);
-			sensorManager.registerListener(this, accelSensor, SensorManager.SENSOR_DELAY_UI);
-			setSensorHasNewData(true);
-			sensorsRegistered = true; // flag the sensors as registered
 		}
 	}
 	
 	public void onSensorChanged(SensorEvent event) {
-		// save the data from the sensor
-		switch(event.sensor.getType()){
-		case Sensor.TYPE_MAGNETIC_FIELD:
-			setMagValues(event.values.clone());
-			// check for interference
-			interferenceTest(getMagValues());
-			setSensorHasNewData(true);
-			break;
-		case Sensor.TYPE_ACCELEROMETER:
-			setAccelValues(event.values.clone());
-			setSensorHasNewData(true);
-			break;
+		// sensor timestamps use a clock of their own. the smallest gap seen to ours is the offset plus the
+		// quickest delivery, and falls when the two clocks drift apart during sleep
+		long received = System.nanoTime();
+		long offset = received - event.timestamp;
+		if(offset < sensorClockOffset) {
+			sensorClockOffset = offset;
+		}
+		
+		// pass the data from the sensor to the engine
+		int type = event.sensor.getType();
+		if(pipeline.onSensorChanged(type, event.values, event.values.length, event.timestamp)
+				&& samplingController.onHeading(pipeline.getBearing(false), event.timestamp)) {
+			// the heading has started or stopped moving, change how often we hear about it
+			changeSamplingMode(samplingController.getMode());
 		}
+		// this is the time the ui thread used to spend on every event
+		pipeline.getMetrics().getIngestTime().record(System.nanoTime() - received);
+		// after the measurement, so recording a trace does not show up in what it records
+		traceSensor(type, event.values, event.timestamp);
 	}
 	
 	public void onAccuracyChanged(Sensor sensor, int accuracy) {
-	} 
+		// delivered on the sensor thread like the events. the readings collected so far may no longer fit
+		// together, e.g. the phone was put in a magnetic case, so the next fit starts again
+		if(sensor == magSensor && accuracy == SensorManager.SENSOR_STATUS_UNRELIABLE) {
+			pipeline.restartCalibration();
+		}
+	}
 	
 	public CompassManager(Context context) {
 		// initialize variables
 		locationManager = (LocationManager)context.getSystemService(Context.LOCATION_SERVICE);
 		sensorManager = (SensorManager)context.getSystemService(Context.SENSOR_SERVICE);
-		magSensor = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
 		accelSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+		gyroSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+		sensorCatalog = new SensorSourceSelector.SensorCatalog() {
+			public boolean hasSensor(int type) {
+				return sensorManager.getDefaultSensor(type) != null;
+			}
+		};
+		magSensor = sensorManager.getDefaultSensor(SensorSourceSelector.selectMagnetometer(sensorCatalog, Build.VERSION.SDK_INT));
+		preferences = context.getSharedPreferences(CompassActivity.PREF_FILE_NAME, Context.MODE_PRIVATE);
+		rotationVectorEngine = new RotationVectorEngine();
+		accelMagEngine = new AccelMagEngine();
+		fusionEngine = new ComplementaryFilterEngine();
+		pipeline = new CompassPipeline(accelMagEngine);
+		loadCalibration();
+		setPrefiltering(true);
+		setHeadingSmoothing(HeadingSmoother.PRESET_BALANCED);
+		pipeline.setOnCalibrationChangedListener(new CompassPipeline.OnCalibrationChangedListener() {
+			public void onCalibrationChanged(MagneticCalibration calibration) {
+				saveCalibration(calibration);
+			}
+		});
+		sensorClockOffset = Long.MAX_VALUE;
+		samplingController = new SamplingController();
+		activeSource = SensorSourceSelector.SOURCE_NONE;
 		sensorsRegistered = false;
-		setSensorHasNewData(false);
-		status = STATUS_INACTIVE;
+		registrationLock = new Object();
+		startEngine = new Runnable() {
+			public void run() {
+				selectEngine();
+			}
+		};
+		stopEngine = new Runnable() {
+			public void run() {
+				// stale samples must not be mixed with fresh ones on the next registration
+				pipeline.deactivate();
+			}
+		};
 		
 		// define a listener that listens for location updates
 		locationListener = new LocationListener() {
@@ -292,9 +540,7 @@ public class CompassManager implements SensorEventListener {
 			}
 			
 			public void onLocationChanged(Location location) {
-				// store the new location
-				updateLocation(location);
-				updateGeoField(); // update the geomagnetic field
+				updateGeoField(location); // update the geomagnetic field
 			}
 		};
 	}
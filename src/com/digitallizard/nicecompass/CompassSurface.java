@@ -6,8 +6,6 @@
  ******************************************************************************/
 package com.digitallizard.nicecompass;
 
-import java.text.DecimalFormat;
-
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -20,19 +18,25 @@ import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.GradientDrawable.Orientation;
 import android.util.Log;
 import android.view.MotionEvent;
+import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-public class CompassSurface extends SurfaceView implements Runnable {
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompassSurface extends SurfaceView implements FrameScheduler.Callback, CompassPipeline.OnOrientationChangedListener,
+		SurfaceHolder.Callback {
 	/** constants **/
-	private static final boolean DRAW_FPS = false;
 	
-	private static final int STATUS_NO_EVENT = -1;
+	static final int STATUS_NO_EVENT = -1;
 	
 	private static final int TARGET_FPS = 30;
-	private static final int MINIMUM_SLEEP_TIME = 10;
+	private static final long NANOS_PER_SECOND = 1000000000l;
+	private static final float SETTLED_DISTANCE = 0.5f; // degrees, closer than this the needle is left alone
+	private static final float MINIMUM_VISIBLE_ROTATION = 0.1f; // degrees, smaller movements are not redrawn
+	private static final int NO_LOCK_REQUEST = -1;
+	private static final int UNLOCK_REQUEST = -2;
 	
-	private static final int REQUIRED_BEARING_CHANGE = 5;
-	private static final int REQUIRED_BEARING_REPEAT = 40;
 	private static final float BEARING_X = 50f;
 	private static final float BEARING_Y = 15f;
 	private static final float DECLENATION_VARIATION_OFFSET = 5f;
@@ -43,15 +47,23 @@ public class CompassSurface extends SurfaceView implements Runnable {
 	private static final float COMPASS_CENTER_Y = 60f;
 	private static final float CARD_DIAMETER = 90f;
 	
-	private static final float COMPASS_ACCEL_RATE = 0.9f;
-	private static final float COMPASS_SPEED_MODIFIER = 0.26f;
+	private static final float OVERLAY_Y = 98f; // baseline of the bottom line of the debug overlay
+	private static final int OVERLAY_LINES = 6;
+	private static final float OVERLAY_TEXT_SIZE = 15f;
+	
+	private static final float SETTLED_SPEED = 1f; // degrees per second
+	private static final long MAX_FRAME_DELTA = 100000000l; // 100 ms, after a pause the needle starts from rest
 	
 	/** variables **/
 	private CompassManager compass;
-	private Thread animationThread;
-	private volatile boolean isRunning;
-	private boolean useTrueNorth;
-	private float currentFps;
+	private OrientationSnapshot orientation; // only touched by the animation thread
+	private FrameScheduler scheduler;
+	private volatile boolean fullRedraw; // set when the whole surface needs drawing again
+	// frames only run whilst the animation is started and there is a surface to draw on, both are ui thread only
+	private boolean animationStarted;
+	private boolean surfaceAvailable;
+	private volatile boolean useTrueNorth;
+	private long lastFrameTime;
 	
 	// images
 	GradientDrawable backgroundGradient;
@@ -72,37 +84,68 @@ public class CompassSurface extends SurfaceView implements Runnable {
 	// typeface
 	private Typeface roboto;
 	
+	// prerendered artwork
+	private CompassLayers layers;
+	
 	private float cachedWidthScale;
 	private float cachedHeightScale;
 	
+	// the update stage, only touched by the animation thread
 	private int displayedStatus;
-	
-	private float bearing;
-	private int repeatedBearingCount;
-	private volatile String bearingText;
-	private DecimalFormat bearingFormat;
-	private volatile String declenationText;
-	private DecimalFormat declenationFormat;
-	
+	private BearingLabels labels;
+	private NeedleSpring needle;
 	private float compassCurrentBearing;
-	private float compassSpeed;
-	
-	private boolean bearingLocked;
+	private volatile boolean bearingLocked; // also read by the ui thread
 	private float currentLockedBearing;
 	
+	// requests from the ui thread, picked up by the next update
+	private final AtomicInteger pendingCardTouches;
+	private final AtomicInteger pendingLock; // a bearing to lock to, or one of the requests above
+	
+	// the update stage publishes what each frame shows, the draw stage takes the newest
+	private final FrameStateHandoff handoff;
+	private FrameState frame; // the state being drawn
+	private final FrameState drawn; // what the last drawn frame showed, to tell which parts would look any different
+	
 	private long totalFrames;
 	private long totalTime;
 	
-	
-	synchronized boolean isBearingLocked() {
+	// the screen area covered by each element, worked out for the current scales
+	private float regionWidthScale;
+	private float regionHeightScale;
+	private Rect headerRegion;
+	private Rect declenationRegion;
+	private Rect cardRegion;
+	private Rect statusRegion;
+	private Rect overlayRegion;
+	private Rect dirtyRegion;
+	
+	// counters to verify how much work the on demand drawing saves
+	private volatile long drawnFrames;
+	private volatile long idleFrames;
+	private final FrameTimings timings;
+	
+	// debug overlay, refreshed about once a second while frames are being drawn
+	private volatile boolean debugOverlay;
+	private boolean overlayChanged;
+	private long predictionLead; // how far ahead of the reading the last frame's heading was extrapolated
+	private final String[] overlayLines;
+	private final MetricsSnapshot currentMetrics;
+	private final MetricsSnapshot previousMetrics;
+	private long previousOverlayFrames;
+	
+	
+	boolean isBearingLocked() {
 		return bearingLocked;
 	}
 	
-	synchronized void setLockedBearing(int bearing) {
-		currentLockedBearing = bearing;
+	/** locks the bearing to the given value on the next frame **/
+	void setLockedBearing(int bearing) {
+		pendingLock.set(bearing);
+		requestUpdate();
 	}
 	
-	synchronized float getLockedBearing() {
+	float getLockedBearing() {
 		if(bearingLocked){
 			return currentLockedBearing;
 		}
@@ -112,11 +155,30 @@ public class CompassSurface extends SurfaceView implements Runnable {
 		}
 	}
 	
-	synchronized void toggleBearingLock() {
+	void toggleBearingLock() {
 		bearingLocked = !bearingLocked;
 		currentLockedBearing = compassCurrentBearing;
 	}
 	
+	/** applies whatever the ui thread asked for since the last frame **/
+	void applyRequests() {
+		for(int touches = pendingCardTouches.getAndSet(0); touches > 0; touches--) {
+			// toggle the locked bearing if no status is being displayed
+			if(displayedStatus == STATUS_NO_EVENT) {
+				toggleBearingLock();
+			}
+			// dismiss any statuses
+			displayedStatus = STATUS_NO_EVENT;
+		}
+		int lock = pendingLock.getAndSet(NO_LOCK_REQUEST);
+		if(lock == UNLOCK_REQUEST) {
+			bearingLocked = false;
+		} else if(lock != NO_LOCK_REQUEST) {
+			bearingLocked = true;
+			currentLockedBearing = lock;
+		}
+	}
+	
 	float getWidthScale() {
 		// check if the scale needs to be initialized
 		if(cachedWidthScale == 0f) {
@@ -133,18 +195,24 @@ public class CompassSurface extends SurfaceView implements Runnable {
 		return cachedHeightScale;
 	}
 	
+	@Override
+	protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+		super.onSizeChanged(width, height, oldWidth, oldHeight);
+		// the scales are worked out again on the next frame, the layers follow them
+		cachedWidthScale = 0f;
+		cachedHeightScale = 0f;
+		requestUpdate();
+	}
+	
 	void bearingTouched() {
 		// toggle magnetic or true north
 		useTrueNorth(!useTrueNorth()); // woah, what a function!
 	}
 	
 	void innerCardTouched() {
-		// toggle the locked bearing if no status is being displayed
-		if(displayedStatus == STATUS_NO_EVENT) {
-			toggleBearingLock();
-		}
-		// dismiss any statuses
-		displayedStatus = STATUS_NO_EVENT;
+		// the next frame toggles the lock or dismisses the status
+		pendingCardTouches.incrementAndGet();
+		requestRedraw();
 	}
 	
 	GradientDrawable getBackgroundGradientDrawable() {
@@ -187,18 +255,10 @@ public class CompassSurface extends SurfaceView implements Runnable {
 		
 		roboto = Typeface.create("Roboto", Typeface.NORMAL);
 		
+		layers = new CompassLayers(cardImage, interferenceImage, openPadlockImage, closedPadlockImage,
+				imagePaint, greyPaint, bluePaint, darkGreyPaint);
 	}
 	 
-	float getTextCenterOffset(String text, Paint paint) {
-		float[] widths = new float[text.length()];
-		paint.getTextWidths(text, widths);
-		float totalWidth = 0;
-		for(int i = 0; i < text.length(); i++){
-			totalWidth += widths[i];
-		}
-		return totalWidth / 2;
-	}
-	
 	void updateAccuracy() {
 		int status = compass.getStatus();
 		// check in case the status is already set to an event
@@ -210,89 +270,172 @@ public class CompassSurface extends SurfaceView implements Runnable {
 		}
 	}
 	
-	void updateCompass() {
-		float newBearing = compass.getPositiveBearing(useTrueNorth());
-		//float newBearing = bearing;
-		// adjust the new bearing to prevent problems involving 360 -- 0
-		if(compassCurrentBearing < 90 && newBearing > 270){
-			newBearing -= 360;
-		}
-		if(compassCurrentBearing > 270 && newBearing < 90){
-			newBearing +=360; 
+	void updateCompass(float newBearing, long deltaNanos) {
+		// the spring takes the shortest way round, so 360 -- 0 needs no special handling
+		needle.update(newBearing, deltaNanos);
+		compassCurrentBearing = needle.getBearing();
+	}
+	
+	boolean isCompassSettled(float newBearing) {
+		return needle.isSettled(newBearing, SETTLED_DISTANCE, SETTLED_SPEED);
+	}
+	
+	void updateBearing(float newBearing, boolean trueNorth, FrameState next) {
+		// the pipeline smooths the heading before publishing it, so the text can follow it exactly
+		// the labels are looked up, they are only built the first time they are shown
+		next.bearingLabel = labels.getBearingLabel(newBearing, trueNorth);
+		next.bearingText = labels.getText(next.bearingLabel);
+		next.declenationLabel = labels.getDeclenationLabel(orientation.getDeclination(), compass.isUsingManualDeclination());
+		next.declenationText = labels.getText(next.declenationLabel);
+	}
+	
+	/**
+	 * The update stage, publishes the next frame state and returns true if it wants another frame.
+	 * presentTime is when the frame is expected on screen, on the System.nanoTime() clock.
+	 */
+	boolean update(long presentTime, long deltaNanos) {
+		applyRequests();
+		// take one consistent reading for the whole frame, this is free if nothing has changed
+		compass.readSnapshot(orientation);
+		boolean trueNorth = useTrueNorth;
+		float newBearing;
+		long sensorPresentTime = compass.toSensorTime(presentTime);
+		if(orientation.hasOrientation() && sensorPresentTime >= 0) {
+			// the reading is a sensor period and a frame old by the time it is seen, show where the heading will be
+			newBearing = orientation.getPredictedBearing(trueNorth, sensorPresentTime);
+			predictionLead = sensorPresentTime - orientation.getTimestamp();
+		} else {
+			newBearing = orientation.getPositiveBearing(trueNorth);
+			predictionLead = 0;
 		}
-		//accuracyText = "target: "+newBearing+" position:"+compassCurrentBearing;
+		FrameState next = handoff.getBack();
+		updateBearing(newBearing, trueNorth, next);
+		updateCompass(newBearing, deltaNanos);
+		updateAccuracy();
 		
-		float distance = newBearing - compassCurrentBearing;
-		float targetSpeed =  distance * COMPASS_SPEED_MODIFIER;
-		// accelerate the compass accordingly
-		if(targetSpeed > compassSpeed){
-			compassSpeed += COMPASS_ACCEL_RATE;
+		next.useTrueNorth = trueNorth;
+		next.compassBearing = compassCurrentBearing;
+		next.bearingLocked = bearingLocked;
+		next.lockedBearing = getLockedBearing();
+		next.status = displayedStatus;
+		next.sensorTimestamp = orientation.hasOrientation() ? orientation.getTimestamp() : -1;
+		handoff.publish();
+		return !isCompassSettled(newBearing);
+	}
+	
+	void setTextRegion(Rect region, float baseline, Paint paint) {
+		// text is centred so it can be anywhere across the width
+		region.set(0, (int)Math.floor(baseline + paint.ascent()) - 1, getWidth(), (int)Math.ceil(baseline + paint.descent()) + 1);
+	}
+	
+	void setCircleRegion(Rect region, float centerX, float centerY, float radius) {
+		region.set((int)Math.floor(centerX - radius), (int)Math.floor(centerY - radius),
+				(int)Math.ceil(centerX + radius), (int)Math.ceil(centerY + radius));
+	}
+	
+	void updateRegions() {
+		float widthScale = getWidthScale();
+		float heightScale = getHeightScale();
+		if(widthScale == regionWidthScale && heightScale == regionHeightScale) {
+			return; // still valid
 		}
-		if(targetSpeed < compassSpeed){
-			compassSpeed -= COMPASS_ACCEL_RATE;
+		regionWidthScale = widthScale;
+		regionHeightScale = heightScale;
+		
+		blackPaint.setTypeface(roboto);
+		blackPaint.setTextSize(70f);
+		setTextRegion(headerRegion, BEARING_Y * heightScale, blackPaint);
+		blackPaint.setTextSize(25f);
+		setTextRegion(declenationRegion, (BEARING_Y + DECLENATION_VARIATION_OFFSET) * heightScale, blackPaint);
+		greyPaint.setTextSize(OVERLAY_TEXT_SIZE);
+		setTextRegion(overlayRegion, OVERLAY_Y * heightScale, greyPaint);
+		overlayRegion.top -= (int)Math.ceil((OVERLAY_LINES - 1) * greyPaint.getFontSpacing());
+		
+		// the card region includes the bezel and its stroke
+		float cardRadius = (float)Math.floor(CARD_DIAMETER * widthScale) / 2;
+		setCircleRegion(cardRegion, COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale, cardRadius + 8f);
+		setCircleRegion(statusRegion, COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale,
+				cardRadius * INNER_COMPASS_CARD_RATIO + 2f);
+	}
+	
+	/** fills dirty with the union of the elements of the given frame that changed since the last drawn frame **/
+	void collectDirtyRegion(FrameState frame, Rect dirty) {
+		if(!frame.bearingText.equals(drawn.bearingText)) {
+			dirty.union(headerRegion);
 		}
-		// stop the compass speed dropping too low
-		/*if(Math.abs(compassSpeed) < COMPASS_MINIMUM_SPEED && compassSpeed < 0 && Math.abs(distance) > COMPASS_LOCKON_DISTANCE){
-			compassSpeed = -COMPASS_MINIMUM_SPEED;
+		boolean showDeclenation = frame.useTrueNorth;
+		if(showDeclenation != drawn.useTrueNorth || (showDeclenation && !frame.declenationText.equals(drawn.declenationText))) {
+			dirty.union(declenationRegion);
 		}
-		if(Math.abs(compassSpeed) < COMPASS_MINIMUM_SPEED && compassSpeed > 0 && Math.abs(distance) > COMPASS_LOCKON_DISTANCE){
-			compassSpeed = COMPASS_MINIMUM_SPEED;
-		}*/
-		compassCurrentBearing += compassSpeed; 
-		
-		// adjust the bearing for a complete circle
-		if(compassCurrentBearing >= 360) {
-			compassCurrentBearing -= 360;
+		if(Math.abs(frame.compassBearing - drawn.compassBearing) >= MINIMUM_VISIBLE_ROTATION
+				|| frame.lockedBearing != drawn.lockedBearing) {
+			dirty.union(cardRegion);
 		}
-		if(compassCurrentBearing < 0) {
-			compassCurrentBearing += 360;
+		if(frame.status != drawn.status || frame.bearingLocked != drawn.bearingLocked) {
+			dirty.union(statusRegion);
 		}
-	}
-	
-	void updateBearing() {
-		// work out the bearing, dampening jitter
-		float newBearing = compass.getPositiveBearing(useTrueNorth());
-		if(Math.abs(bearing - newBearing) > REQUIRED_BEARING_CHANGE) {
-			bearing = newBearing; // the change is to insignificant to be displayed
-			repeatedBearingCount = 0; // reset the repetition count
-		} else {
-			repeatedBearingCount ++;
-			if(repeatedBearingCount > REQUIRED_BEARING_REPEAT) {
-				bearing = newBearing;
-				repeatedBearingCount = 0;
+		if(debugOverlay && (overlayChanged || !dirty.isEmpty())) {
+			dirty.union(overlayRegion);
+			// the overlay can sit over the card, which then has to be drawn again underneath it
+			if(Rect.intersects(overlayRegion, cardRegion)) {
+				dirty.union(cardRegion);
 			}
 		}
-		bearingText = bearingFormat.format(bearing);
-		bearingText += "\u00B0 "; // add the degrees symbol
-		bearingText += CardinalConverter.cardinalFromPositiveBearing(bearing); // add the cardinal information
-		// add the magnetic 
-		bearingText += " " + CardinalConverter.convertUseTrueNorth(useTrueNorth());
-		
-		declenationText = "";
-		if(compass.isUsingManualDeclination()) {
-			declenationText += "manual ";
-		}
-		declenationText += "variation: "+declenationFormat.format(compass.getDeclination())+"\u00B0"; // u00B0 is degrees sign
 	}
 	
-	void update(float delta) {
-		updateBearing();
-		updateCompass();
-		updateAccuracy();
-	}
-	
-	synchronized void triggerDraw() {
+	/**
+	 * The draw stage, redraws the given region of the current frame state and takes no locks.
+	 * The rest of the surface keeps its previous contents, the surface may grow the region.
+	 * Returns false if the surface was not ready to be drawn on.
+	 */
+	boolean triggerDraw(Rect dirty) {
 		Canvas canvas = null;
 		try {
-			canvas = this.getHolder().lockCanvas();
+			canvas = this.getHolder().lockCanvas(dirty);
 			if(canvas != null) {
+				// the surface has grown dirty to what it really needs redrawn, which may be everything
+				boolean full = dirty.left <= 0 && dirty.top <= 0 && dirty.right >= getWidth() && dirty.bottom >= getHeight();
+				long drawStart = System.nanoTime();
 				this.onDraw(canvas);
+				if(debugOverlay) {
+					drawOverlay(canvas);
+				}
+				timings.recordDraw(System.nanoTime() - drawStart, full);
 			}
 		} finally {
 			if (canvas != null) {
+				long postStart = System.nanoTime();
 				this.getHolder().unlockCanvasAndPost(canvas);
+				long posted = System.nanoTime();
+				timings.getPostTime().record(posted - postStart);
+				// how old the reading on screen is, as near to the display as we can measure
+				if(frame.sensorTimestamp >= 0) {
+					long sensorTime = compass.toNanoTime(frame.sensorTimestamp);
+					if(sensorTime >= 0) {
+						timings.getSensorAge().record(posted - sensorTime);
+					}
+				}
 			}
 		}
+		return canvas != null;
+	}
+	
+	/** asks for a frame after something other than the orientation changed, only what changed is drawn **/
+	void requestUpdate() {
+		if(scheduler != null) {
+			scheduler.requestFrame();
+		}
+	}
+	
+	/** asks for a frame that draws the whole surface **/
+	void requestRedraw() {
+		fullRedraw = true;
+		requestUpdate();
+	}
+	
+	public void onOrientationChanged() {
+		// called from the sensor thread, a new reading may move the needle
+		scheduler.requestFrame();
 	}
 	
 	@Override
@@ -309,75 +452,50 @@ public class CompassSurface extends SurfaceView implements Runnable {
 		// draw the bearing information
 		blackPaint.setTextSize(70f);
 		blackPaint.setTypeface(roboto);
-		canvas.drawText(bearingText, (BEARING_X * widthScale) - getTextCenterOffset(bearingText, blackPaint), BEARING_Y * heightScale, blackPaint);
+		canvas.drawText(frame.bearingText, (BEARING_X * widthScale) - labels.getCenterOffset(frame.bearingLabel, blackPaint), BEARING_Y * heightScale, blackPaint);
 		
 		// only draw the declenation text in true north mode
-		if(useTrueNorth()) {
+		if(frame.useTrueNorth) {
 			blackPaint.setTextSize(25f);
-			canvas.drawText(declenationText, (BEARING_X * widthScale) - getTextCenterOffset(declenationText, blackPaint), 
+			canvas.drawText(frame.declenationText, (BEARING_X * widthScale) - labels.getCenterOffset(frame.declenationLabel, blackPaint), 
 					(BEARING_Y + DECLENATION_VARIATION_OFFSET) * heightScale, blackPaint);
 		}
 		
-		// draw the inside of the compass card
-		int cardDiameter = (int)Math.floor(CARD_DIAMETER * widthScale);
-		if(!isBearingLocked()){
-			canvas.drawCircle(50 * widthScale, 60 * heightScale, (cardDiameter * INNER_COMPASS_CARD_RATIO) / 2, greyPaint);
-		}
-		else {
-			bluePaint.setStyle(Paint.Style.FILL_AND_STROKE);
-			canvas.drawCircle(50 * widthScale, 60 * heightScale, (cardDiameter * INNER_COMPASS_CARD_RATIO) / 2, bluePaint);
-		}
-		Rect centerRect = new Rect((int)Math.floor(COMPASS_CENTER_X * widthScale - ((cardDiameter * INNER_COMPASS_CARD_RATIO) / 2)), 
-				(int)Math.floor(COMPASS_CENTER_Y * heightScale - ((cardDiameter * INNER_COMPASS_CARD_RATIO) / 2)), 
-				(int)Math.floor(COMPASS_CENTER_X * widthScale + ((cardDiameter * INNER_COMPASS_CARD_RATIO) / 2)), 
-				(int)Math.floor(COMPASS_CENTER_Y * heightScale + ((cardDiameter * INNER_COMPASS_CARD_RATIO) / 2)));
-		// draw the right status
-		if(displayedStatus == CompassManager.STATUS_INTERFERENCE) {
-			canvas.drawBitmap(interferenceImage, null, centerRect, imagePaint);
+		// the rest is the card, skip it if this frame only redraws the text
+		if(!Rect.intersects(dirtyRegion, cardRegion)) {
+			return;
 		}
 		
-		// if not status draw the bearing lock indicator
-		if(displayedStatus == STATUS_NO_EVENT) {
-			if(!isBearingLocked()) {
-				canvas.drawBitmap(openPadlockImage, null, centerRect, imagePaint);
-			}
-			if(isBearingLocked()) {
-				canvas.drawBitmap(closedPadlockImage, null, centerRect, imagePaint);
-				greyPaint.setTextSize(30f);
-				String lockedBearingText = bearingFormat.format(getLockedBearing());
-				canvas.drawText(lockedBearingText + "\u00B0", 50 * widthScale - getTextCenterOffset(lockedBearingText, greyPaint), 
-						(float)((0.17 * CARD_DIAMETER + COMPASS_CENTER_Y) * heightScale), greyPaint);
-			}
+		// bring the cached artwork up to date, this only does work after a size or state change
+		int cardDiameter = (int)Math.floor(CARD_DIAMETER * widthScale);
+		boolean locked = frame.bearingLocked;
+		layers.update(COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale, cardDiameter, INNER_COMPASS_CARD_RATIO,
+				locked, frame.status);
+		
+		// draw the inside of the compass card and the status
+		layers.drawCenter(canvas);
+		if(frame.status == STATUS_NO_EVENT && locked) {
+			greyPaint.setTextSize(30f);
+			int lockedBearingLabel = labels.getLockedBearingLabel(frame.lockedBearing);
+			canvas.drawText(labels.getText(lockedBearingLabel), 50 * widthScale - labels.getCenterOffset(lockedBearingLabel, greyPaint), 
+					(float)((0.17 * CARD_DIAMETER + COMPASS_CENTER_Y) * heightScale), greyPaint);
 		}
 		
 		// draw the compass card
-		canvas.rotate(compassCurrentBearing * -1, COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale);
-		int cardX = (int)Math.floor(COMPASS_CENTER_X * widthScale - (cardDiameter / 2));
-		int cardY = (int)Math.floor(COMPASS_CENTER_Y * heightScale - (cardDiameter / 2));
-		Rect cardRect = new Rect(cardX, cardY, cardX + cardDiameter, cardY + cardDiameter);
-		canvas.drawBitmap(cardImage, null, cardRect, imagePaint);
-		//canvas.restore();
+		int saveCount = canvas.save();
+		canvas.rotate(frame.compassBearing * -1, COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale);
+		layers.drawCard(canvas);
 		
 		// draw the locked bearing
-		canvas.rotate(getLockedBearing(), COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale);
+		int cardY = layers.getCardY();
+		canvas.rotate(frame.lockedBearing, COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale);
 		bluePaint.setStyle(Paint.Style.STROKE);
 		bluePaint.setStrokeWidth(3f);
 		canvas.drawLine(COMPASS_CENTER_X * widthScale, cardY, COMPASS_CENTER_X * widthScale, cardY + ((1 - INNER_COMPASS_CARD_RATIO) * cardDiameter / 2), bluePaint);
-		canvas.restore();
+		canvas.restoreToCount(saveCount);
 		
 		// draw the bezel
-		darkGreyPaint.setStyle(Paint.Style.STROKE);
-		darkGreyPaint.setStrokeWidth(6f); 
-		canvas.drawCircle(COMPASS_CENTER_X * widthScale, COMPASS_CENTER_Y * heightScale, cardDiameter / 2 + 2f, darkGreyPaint);
-		canvas.drawLine(COMPASS_CENTER_X * widthScale, cardY, COMPASS_CENTER_X * widthScale, cardY + ((1 - INNER_COMPASS_CARD_RATIO) * cardDiameter / 2), darkGreyPaint);
-		darkGreyPaint.setStyle(Paint.Style.FILL);
-		
-		
-		// draw the fps
-		if(DRAW_FPS) {
-			greyPaint.setTextSize(15f);
-			canvas.drawText(Float.toString(currentFps) + " FPS", 1 * widthScale, 98 * heightScale, greyPaint);
-		}
+		layers.drawBezel(canvas);
 	}
 	
 	@Override
@@ -407,22 +525,25 @@ public class CompassSurface extends SurfaceView implements Runnable {
 		return false; // we did not use the touch
 	}
 	
-	public synchronized void useTrueNorth(boolean useTrueNorth) {
+	public void useTrueNorth(boolean useTrueNorth) {
 		this.useTrueNorth = useTrueNorth;
+		requestUpdate();
 	}
 	
-	public synchronized boolean useTrueNorth() {
+	public boolean useTrueNorth() {
 		return useTrueNorth;
 	}
 	
-	public synchronized void setManualDeclination(float declination) {
-		// this is a thread safe wrapper
+	public void setManualDeclination(float declination) {
+		// the pipeline is thread safe, the next frame picks the change up
 		compass.setManualDeclination(declination);
+		requestUpdate();
 	}
 	
-	public synchronized void useAutoDeclination() {
-		// this is a thread safe wrapper
+	public void useAutoDeclination() {
+		// the pipeline is thread safe, the next frame picks the change up
 		compass.useAutoDeclination();
+		requestUpdate();
 	}
 	
 	public float getManualDeclination() {
@@ -435,33 +556,58 @@ public class CompassSurface extends SurfaceView implements Runnable {
 	}
 	
 	public void lockBearingTo(int bearing) {
-		// check if the bearing is locked or not
-		if(!isBearingLocked()) {
-			// lock the bearing
-			toggleBearingLock();
-		}
-		// set the locked bearing to what was requested
+		// the next frame locks the bearing, whether or not it is already locked
 		setLockedBearing(bearing);
 	}
 	
 	public void unlockBearing() {
-		// toggle the lock if the bearing is locked
-		if(isBearingLocked()) {
-			toggleBearingLock();
+		pendingLock.set(UNLOCK_REQUEST);
+		requestUpdate();
+	}
+	
+	/** runs or parks the render thread to match the animation and surface state **/
+	void updateScheduler() {
+		if(animationStarted && surfaceAvailable) {
+			scheduler.start();
+		} else {
+			scheduler.stop(); // returns once any frame in flight has finished
 		}
 	}
 	
+	public void surfaceCreated(SurfaceHolder holder) {
+		surfaceAvailable = true;
+		fullRedraw = true; // a new surface starts out blank
+		updateScheduler();
+	}
+	
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		requestRedraw();
+	}
+	
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		// nothing may draw on the surface once this returns
+		surfaceAvailable = false;
+		updateScheduler();
+	}
+	
 	public void stopAnimation() {
-		isRunning = false; // stop the animation loop
-		float avgFps = (totalFrames * 1000l) / totalTime;
-		if(DRAW_FPS) {
+		animationStarted = false;
+		updateScheduler(); // park the animation loop
+		compass.setOnOrientationChangedListener(null);
+		if(debugOverlay) {
+			// a pause straight after resuming may not have timed a single frame
+			float avgFps = (totalTime > 0) ? (totalFrames * 1000f) / totalTime : 0f;
 			Log.v("compass", "total frames:"+totalFrames+" total time:"+totalTime+" avg. fps:"+Float.toString(avgFps));
+			Log.v("compass", "drawn frames:"+drawnFrames+" idle frames:"+idleFrames+" wakeups:"+scheduler.getWakeups()
+					+" idle time:"+(scheduler.getIdleNanos() / 1000000l)+"ms");
+			Log.v("compass", timings.toString());
 		}
 	}
 	
 	public void startAnimation() {
 		// set the compass position to prevent spinning
 		compassCurrentBearing = compass.getPositiveBearing(useTrueNorth());
+		needle.reset(compassCurrentBearing);
 		
 		// reset the status
 		displayedStatus = STATUS_NO_EVENT;
@@ -469,52 +615,177 @@ public class CompassSurface extends SurfaceView implements Runnable {
 		// set variables for working out avg fps
 		totalFrames = 0;
 		totalTime = 0;
+		lastFrameTime = 0;
 		
-		isRunning = true; // flag the loop as running
-		// create and start the thread
-		animationThread = new Thread(this);
-		animationThread.start();
-	}
-	
-	public void run() {
-		// initialize a timing variable
-		long maxSleepTime = (long) Math.floor(1000 / TARGET_FPS);
-		// loop whilst we are told to
-		while (isRunning) {
-			// record the start time
-			long startTime = System.currentTimeMillis();
-			
-			// update the animation
-			update(1); // TODO set up a delta system
-			triggerDraw(); // draw the update
-			
-	 		// work out how long to sleep for
-			long finishTime = System.currentTimeMillis();
-			long requiredSleepTime = maxSleepTime - (finishTime - startTime);
-			// check if the sleep time was too low
-			if(requiredSleepTime < MINIMUM_SLEEP_TIME) {  
-				requiredSleepTime = MINIMUM_SLEEP_TIME;
+		// forget what was drawn, the surface may have been recreated
+		drawn.forget();
+		fullRedraw = true;
+		
+		// frames are requested whenever a new orientation arrives
+		compass.setOnOrientationChangedListener(this);
+		animationStarted = true;
+		updateScheduler();
+	}
+	
+	/** stops the animation for good and joins the render thread **/
+	public void release() {
+		stopAnimation();
+		scheduler.shutdown();
+	}
+	
+	/** shows frame, sensor and pipeline statistics over the bottom of the compass **/
+	public void setDebugOverlay(boolean debugOverlay) {
+		this.debugOverlay = debugOverlay;
+		requestRedraw();
+	}
+	
+	public boolean isDebugOverlay() {
+		return debugOverlay;
+	}
+	
+	/** rebuilds the overlay text once a second, the rates are averaged over that second **/
+	void updateOverlay(long now) {
+		if(currentMetrics.getNanoTime() != 0 && now - currentMetrics.getNanoTime() < NANOS_PER_SECOND) {
+			return;
+		}
+		previousMetrics.copyFrom(currentMetrics);
+		compass.getMetrics().snapshot(currentMetrics);
+		MetricsSnapshot before = previousMetrics.getNanoTime() != 0 ? previousMetrics : currentMetrics;
+		double seconds = (currentMetrics.getNanoTime() - before.getNanoTime()) / (double)NANOS_PER_SECOND;
+		double fps = seconds > 0 ? (drawnFrames - previousOverlayFrames) / seconds : 0;
+		previousOverlayFrames = drawnFrames;
+		
+		overlayLines[0] = String.format(Locale.US, "%.1f fps  drawn %d  idle %d", fps, drawnFrames, idleFrames);
+		overlayLines[1] = String.format(Locale.US, "accel %.0f/s  mag %.0f/s  gyro %.0f/s  rv %.0f/s",
+				currentMetrics.getEventRate(SensorSourceSelector.TYPE_ACCELEROMETER, before),
+				currentMetrics.getEventRate(SensorSourceSelector.TYPE_MAGNETIC_FIELD, before)
+						+ currentMetrics.getEventRate(SensorSourceSelector.TYPE_MAGNETIC_FIELD_UNCALIBRATED, before),
+				currentMetrics.getEventRate(SensorSourceSelector.TYPE_GYROSCOPE, before),
+				currentMetrics.getEventRate(SensorSourceSelector.TYPE_ROTATION_VECTOR, before)
+						+ currentMetrics.getEventRate(SensorSourceSelector.TYPE_GEOMAGNETIC_ROTATION_VECTOR, before));
+		overlayLines[2] = String.format(Locale.US, "recomputed %d  cached %d  overwritten %d  gated %d",
+				currentMetrics.getRecomputes(), currentMetrics.getCachedReads(), currentMetrics.getOverwritten(),
+				currentMetrics.getGated());
+		overlayLines[3] = String.format(Locale.US, "interference %d  geomagnetic updates %d  calibrated %s",
+				currentMetrics.getInterferenceTransitions(), currentMetrics.getGeomagneticUpdates(),
+				(compass.getCalibration() != null) ? "yes" : "no");
+		overlayLines[4] = String.format(Locale.US, "age p95 %.1fms  ingest p95 %.2fms  lead %.0fms",
+				timings.getSensorAge().getPercentile(95) / 1e6,
+				compass.getMetrics().getIngestTime().getPercentile(95) / 1e6, predictionLead / 1e6);
+		overlayLines[5] = String.format(Locale.US, "draw full p50 %.1f p95 %.1fms  partial p50 %.1f p95 %.1fms",
+				timings.getFullDrawTime().getPercentile(50) / 1e6, timings.getFullDrawTime().getPercentile(95) / 1e6,
+				timings.getPartialDrawTime().getPercentile(50) / 1e6, timings.getPartialDrawTime().getPercentile(95) / 1e6);
+		overlayChanged = true;
+	}
+	
+	void drawOverlay(Canvas canvas) {
+		greyPaint.setTextSize(OVERLAY_TEXT_SIZE);
+		float spacing = greyPaint.getFontSpacing();
+		float y = OVERLAY_Y * getHeightScale() - (OVERLAY_LINES - 1) * spacing;
+		for(int i = 0; i < OVERLAY_LINES; i++) {
+			if(overlayLines[i] != null) {
+				canvas.drawText(overlayLines[i], 1 * getWidthScale(), y, greyPaint);
 			}
-			currentFps = 1000 / (requiredSleepTime + (finishTime - startTime));
+			y += spacing;
+		}
+	}
+	
+	public long getDrawnFrameCount() {
+		return drawnFrames;
+	}
+	
+	public long getIdleFrameCount() {
+		return idleFrames;
+	}
+	
+	/** latency percentiles for the frames drawn so far, safe to read from any thread **/
+	public FrameTimings getFrameTimings() {
+		return timings;
+	}
+	
+	public void doFrame(long frameTimeNanos) {
+		// work out the frame rate whilst frames are running back to back
+		long deltaNanos = 0;
+		if(lastFrameTime != 0 && frameTimeNanos - lastFrameTime < NANOS_PER_SECOND) {
+			deltaNanos = frameTimeNanos - lastFrameTime;
 			totalFrames ++;
-			totalTime += (requiredSleepTime + (finishTime - startTime));
-			// try to sleep for this time
-			try {
-				Thread.sleep(requiredSleepTime);
-			} catch (InterruptedException e) {
-				// do nothing
+			totalTime += deltaNanos / 1000000l;
+		}
+		lastFrameTime = frameTimeNanos;
+		// the first frame after being idle only has a notional delta, the needle was at rest
+		if(deltaNanos == 0 || deltaNanos > MAX_FRAME_DELTA) {
+			deltaNanos = NANOS_PER_SECOND / TARGET_FPS;
+		}
+		
+		boolean redrawAll = fullRedraw;
+		fullRedraw = false;
+		
+		// update the animation
+		long updateStart = System.nanoTime();
+		// the frame is posted during this vsync period and shown at the start of the next
+		boolean animating = update(frameTimeNanos + deltaNanos, deltaNanos);
+		timings.getUpdateTime().record(System.nanoTime() - updateStart);
+		frame = handoff.take();
+		
+		if(debugOverlay) {
+			updateOverlay(frameTimeNanos);
+		}
+		
+		// only draw the parts that would look different
+		updateRegions();
+		dirtyRegion.setEmpty();
+		if(redrawAll) {
+			dirtyRegion.set(0, 0, getWidth(), getHeight());
+		} else {
+			collectDirtyRegion(frame, dirtyRegion);
+		}
+		if(!dirtyRegion.isEmpty()) {
+			if(triggerDraw(dirtyRegion)) {
+				drawn.copyFrom(frame);
+				overlayChanged = false;
+				drawnFrames++;
+			} else {
+				animating = true; // the surface is not ready yet, try again next frame
+				fullRedraw = true;
 			}
+		} else {
+			idleFrames++;
+		}
+		
+		// keep going until everything has settled, after that only a change will wake us
+		if(animating) {
+			scheduler.requestFrame();
 		}
 	}
 	
 	public CompassSurface(Context context, CompassManager compass, boolean useTrueNorth) {
 		super(context);
 		this.compass = compass;
+		orientation = new OrientationSnapshot();
+		timings = new FrameTimings();
+		overlayLines = new String[OVERLAY_LINES];
+		currentMetrics = new MetricsSnapshot();
+		previousMetrics = new MetricsSnapshot();
+		needle = new NeedleSpring();
+		pendingCardTouches = new AtomicInteger();
+		pendingLock = new AtomicInteger(NO_LOCK_REQUEST);
+		handoff = new FrameStateHandoff();
+		drawn = new FrameState();
+		drawn.forget();
+		headerRegion = new Rect();
+		declenationRegion = new Rect();
+		cardRegion = new Rect();
+		statusRegion = new Rect();
+		overlayRegion = new Rect();
+		dirtyRegion = new Rect();
 		useTrueNorth(useTrueNorth);
 				
-		// initialize the number formatters
-		bearingFormat = new DecimalFormat("000");
-		declenationFormat = new DecimalFormat("00.0");
+		// initialize the text
+		labels = new BearingLabels();
+		
+		// draw in step with the display, and only when something has changed
+		scheduler = FrameScheduler.create(this, TARGET_FPS);
+		getHolder().addCallback(this);
 		
 		// initialize images
 		initDrawing();
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import android.os.Build;
+
+/**
+ * Runs frames on demand. Nothing is drawn unless someone asked for a frame,
+ * a frame that wants to keep animating simply requests the next one.
+ * Frames never run more often than the target frame rate.
+ */
+public abstract class FrameScheduler {
+	private static final long NANOS_PER_SECOND = 1000000000l;
+	
+	public interface Callback {
+		/** frameTimeNanos is on the System.nanoTime time base **/
+		void doFrame(long frameTimeNanos);
+	}
+	
+	protected final Callback callback;
+	protected final long frameIntervalNanos;
+	
+	// counters, only written by the frame thread
+	private volatile long framesRun;
+	private volatile long wakeups; // frames that had to be requested from idle
+	private volatile long idleNanos; // time spent with no frame requested
+	private long idleSince; // 0 whilst frames are being requested
+	
+	/** thread safe, cheap to call repeatedly **/
+	public abstract void requestFrame();
+	
+	/** starts running frames, the render thread is created the first time and reused afterwards **/
+	public abstract void start();
+	
+	/** parks the render thread, any frame part way through has finished by the time this returns **/
+	public abstract void stop();
+	
+	/** stops and joins the render thread, start creates a new one **/
+	public abstract void shutdown();
+	
+	/** called on the frame thread immediately before each frame **/
+	protected void onFrameStart(long now) {
+		if(idleSince != 0) {
+			idleNanos += now - idleSince;
+			idleSince = 0;
+			wakeups++;
+		}
+		framesRun++;
+	}
+	
+	/** called on the frame thread after a frame, with whether another frame is already waiting **/
+	protected void onFrameEnd(long now, boolean frameRequested) {
+		if(!frameRequested) {
+			idleSince = now; // we are going to sleep until something changes
+		}
+	}
+	
+	public long getFramesRun() {
+		return framesRun;
+	}
+	
+	public long getWakeups() {
+		return wakeups;
+	}
+	
+	public long getIdleNanos() {
+		return idleNanos;
+	}
+	
+	protected FrameScheduler(Callback callback, int targetFps) {
+		this.callback = callback;
+		frameIntervalNanos = NANOS_PER_SECOND / targetFps;
+	}
+	
+	/** picks the best scheduler for this device **/
+	public static FrameScheduler create(Callback callback, int targetFps) {
+		// choreographer first appeared in jelly bean
+		if(Build.VERSION.SDK_INT >= 16) {
+			return new ChoreographerFrameScheduler(callback, targetFps);
+		} else {
+			return new ThreadFrameScheduler(callback, targetFps);
+		}
+	}
+}
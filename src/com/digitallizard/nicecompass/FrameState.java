@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * Everything one frame of the compass shows, filled in by the update stage and read by the draw stage.
+ * States are pooled by FrameStateHandoff, once published a state is not changed until it comes back round.
+ */
+final class FrameState {
+	int bearingLabel; // BearingLabels handles, the text is kept alongside so it is not looked up again
+	String bearingText; // null if nothing has been drawn
+	int declenationLabel;
+	String declenationText;
+	boolean useTrueNorth;
+	float compassBearing; // the bearing the card is turned to
+	boolean bearingLocked;
+	float lockedBearing; // the same as compassBearing when the bearing is not locked
+	int status;
+	long sensorTimestamp; // of the reading shown, -1 if there is none
+	
+	void copyFrom(FrameState other) {
+		bearingLabel = other.bearingLabel;
+		bearingText = other.bearingText;
+		declenationLabel = other.declenationLabel;
+		declenationText = other.declenationText;
+		useTrueNorth = other.useTrueNorth;
+		compassBearing = other.compassBearing;
+		bearingLocked = other.bearingLocked;
+		lockedBearing = other.lockedBearing;
+		status = other.status;
+		sensorTimestamp = other.sensorTimestamp;
+	}
+	
+	/** makes every element look different from any real frame **/
+	void forget() {
+		bearingText = null;
+		declenationText = null;
+		compassBearing = Float.NaN;
+		lockedBearing = Float.NaN;
+		status = Integer.MIN_VALUE;
+		sensorTimestamp = -1;
+	}
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes frame states from the update stage to the draw stage through a single slot, without locking.
+ * Three pooled states take turns: one being filled in, one waiting in the slot and one being drawn.
+ * Publishing replaces a waiting state that was never taken, so the draw stage always gets the newest.
+ * There must be only one thread filling in states and one thread taking them, they may be the same.
+ */
+final class FrameStateHandoff {
+	private static final int INDEX_MASK = 3;
+	private static final int FRESH = 4; // the slot holds a state that has not been taken yet
+	
+	private final FrameState[] states;
+	private final AtomicInteger slot; // index of the waiting state, plus FRESH
+	private int back; // only touched by the update stage
+	private int front; // only touched by the draw stage
+	
+	/** the state to fill in, every field must be written as it holds an old frame **/
+	FrameState getBack() {
+		return states[back];
+	}
+	
+	/** hands the filled in state over, a state waiting in the slot comes back to be filled in next **/
+	void publish() {
+		back = slot.getAndSet(back | FRESH) & INDEX_MASK;
+	}
+	
+	/** the newest published state, or the one taken last time if nothing new has been published **/
+	FrameState take() {
+		if((slot.get() & FRESH) != 0) {
+			front = slot.getAndSet(front) & INDEX_MASK;
+		}
+		return states[front];
+	}
+	
+	FrameStateHandoff() {
+		states = new FrameState[3];
+		for(int i = 0; i < states.length; i++) {
+			states[i] = new FrameState();
+			states[i].forget();
+		}
+		back = 0;
+		slot = new AtomicInteger(1);
+		front = 2;
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+import android.hardware.GeomagneticField;
+import android.location.Location;
+
+/**
+ * Android's world magnetic model, for the given location and time.
+ */
+class GeomagneticFieldModel implements GeomagneticModel {
+	private final GeomagneticField field;
+	
+	public float getDeclination() {
+		return field.getDeclination();
+	}
+	
+	public float getFieldStrength() {
+		return field.getFieldStrength();
+	}
+	
+	public float getInclination() {
+		return field.getInclination();
+	}
+	
+	GeomagneticFieldModel(Location location, long time) {
+		field = new GeomagneticField(
+				Double.valueOf(location.getLatitude()).floatValue(),
+				Double.valueOf(location.getLongitude()).floatValue(),
+				Double.valueOf(location.getAltitude()).floatValue(),
+				time);
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * NiceCompass
+ * Released under the BSD License. See README or LICENSE.
+ * Copyright (c) 2011, Digital Lizard (Oscar Key, Thomas Boby)
+ * All rights reserved.
+ ******************************************************************************/
+package com.digitallizard.nicecompass;
+
+/**
+ * The fallback for devices without Choreographer, a plain thread that sleeps between frames.
+ * It waits on a monitor when no frame has been requested instead of spinning.
+ * The thread is created on the first start and parked whilst stopped, so resuming costs nothing.
+ */
+public class ThreadFrameScheduler extends FrameScheduler implements Runnable {
+	private static final long MINIMUM_SLEEP_NANOS = 10000000l; // 10 ms, leave some time for other threads
+	private static final long NANOS_PER_MILLI = 1000000l;
+	
+	private final Object lock;
+	private volatile boolean frameRequested;
+	// guarded by lock
+	private boolean running; // false whilst parked
+	private boolean quit;
+	private boolean inFrame;
+	private Thread thread;
+	
+	@Override
+	public void requestFrame() {
+		if(frameRequested) {
+			return; // already on its way, no need for the monitor
+		}
+		synchronized(lock) {
+			frameRequested = true;
+			lock.notify();
+		}
+	}
+	
+	@Override
+	public void start() {
+		synchronized(lock) {
+			if(thread == null) {
+				quit = false;
+				thread = new Thread(this, "compass render");
+				thread.start();
+			}
+			running = true;
+			frameRequested = true; // draw at least once
+			lock.notify();
+		}
+	}
+	
+	@Override
+	public void stop() {
+		synchronized(lock) {
+			running = false;
+			lock.notify();
+			// a frame part way through must finish before the caller carries on
+			while(inFrame && Thread.currentThread() != thread) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					// keep waiting, the frame will not be long
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void shutdown() {
+		Thread oldThread;
+		synchronized(lock) {
+			stop();
+			quit = true;
+			lock.notify();
+			oldThread = thread;
+			thread = null;
+		}
+		if(oldThread != null && oldThread != Thread.currentThread()) {
+			oldThread.interrupt(); // it may be sleeping off the last frame
+			try {
+				oldThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	public void run() {
+		while(true) {
+			// park until we are running and there is something to draw
+			synchronized(lock) {
+				while(!quit && !(running && frameRequested)) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// check the flags again
+					}
+				}
+				if(quit) {
+					return;
+				}
+				frameRequested = false;
+				inFrame = true;
+			}
+			
+			long startTime = System.nanoTime();
+			try {
+				onFrameStart(startTime);
+				callback.doFrame(startTime);
+			} finally {
+				synchronized(lock) {
+					inFrame = false;
+					lock.notifyAll();
+				}
+			}
+			long finishTime = System.nanoTime();
+			onFrameEnd(finishTime, frameRequested);
+			
+			// hold the frame rate down to the target
+			long requiredSleepTime = frameIntervalNanos - (finishTime - startTime);
+			if(requiredSleepTime < MINIMUM_SLEEP_NANOS) {
+				requiredSleepTime = MINIMUM_SLEEP_NANOS;
+			}
+			try {
+				Thread.sleep(requiredSleepTime / NANOS_PER_MILLI);
+			} catch (InterruptedException e) {
+				// do nothing, the loop checks for quit
+			}
+		}
+	}
+	
+	public ThreadFrameScheduler(Callback callback, int targetFps) {
+		super(callback, targetFps);
+		lock = new Object();
+	}
+}